@@ -17,15 +17,18 @@
 
 package org.autumn24;
 
+import org.autumn24.cache.CacheStats;
 import org.autumn24.charity.Charity;
 import org.autumn24.charity.charities.AlzheimerAssociation;
 import org.autumn24.charity.charities.AmnestyInternational;
 import org.autumn24.charity.charities.GreenpeaceFund;
 import org.autumn24.rvm.Receipt;
 import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
 
 /**
  * A class that is used to display ui views.
@@ -79,19 +82,38 @@ public class UserInterface {
 		System.out.print(BOLD + "=> " + RESET);
 	}
 
-	public static void displayAdminMenu(Boolean machineFull) {
+	public static void displayAdminMenu(Boolean machineFull, CacheStats userCacheStats, long loginsRejectedByMachine,
+	                                    long loginsRejectedByUser) {
 		System.out.println("\n\n");
 		System.out.println(BOLD + BLUE + "🔐 ADMIN MENU - SYSTEM MAINTENANCE 🔐" + RESET);
+		System.out.printf("%sUser cache: %.1f %% hits (%d hits, %d misses, %d evictions)%s%n", LIGHT_GRAY,
+				userCacheStats.hitRate() * 100, userCacheStats.hitCount(), userCacheStats.missCount(), userCacheStats.evictionCount(), RESET);
+		System.out.printf("%sRejected logins: %d by the machine limit, %d by the user limit%s%n", LIGHT_GRAY,
+				loginsRejectedByMachine, loginsRejectedByUser, RESET);
 		if (machineFull) {
 			System.out.println(GREEN + "[1] ➤ EMPTY MACHINE" + RESET + "    " + YELLOW + "Clear all recyclables." + RESET);
 			System.out.println(WHITE + "[2] ➤ LOGOUT" + RESET + "          " + YELLOW + "Return to the main system." + RESET);
+			System.out.println(CYAN + "[3] ➤ SEARCH USERS" + RESET + "    " + YELLOW + "Find users by name." + RESET);
 		} else {
 			System.out.println(WHITE + "[1] ➤ LOGOUT" + RESET + "          " + YELLOW + "Return to the main system." + RESET);
+			System.out.println(CYAN + "[2] ➤ SEARCH USERS" + RESET + "    " + YELLOW + "Find users by name." + RESET);
 		}
 		System.out.println("\n\n");
 		System.out.print(BOLD + "=> " + RESET);
 	}
 
+	public static void displayUserSearchResults(List<User> users, double searchMillis, long indexBytes) {
+		System.out.println();
+		System.out.println(BOLD + BLUE + "🔎 SEARCH RESULTS 🔎" + RESET);
+		for (User user : users) {
+			System.out.printf("%s%s%s | %s | %s%s%s%n", BOLD, user.getUserName(), RESET, user.getUserId(), LIGHT_GRAY, user.getUserRole(), RESET);
+		}
+		if (users.isEmpty()) {
+			System.out.println(YELLOW + "No users found." + RESET);
+		}
+		System.out.printf("%sFound %d users in %.3f ms (name index: %.1f KB)%s%n", LIGHT_GRAY, users.size(), searchMillis, indexBytes / 1024.0, RESET);
+	}
+
 	public static void displayWrinkledItemMenu() {
 		System.out.println();
 		System.out.println(BOLD + YELLOW + "🚨 WRINKLED ITEM DETECTED 🚨" + RESET);
@@ -17,27 +17,81 @@
 
 package org.autumn24.authentication;
 
+import org.autumn24.exceptions.LoginRateLimitedException;
 import org.autumn24.managers.AuthManager;
 import org.autumn24.users.Employee;
 import org.autumn24.users.RegisteredRecycler;
 import org.autumn24.users.User;
 
-import java.util.ArrayList;
 import java.util.Objects;
 
 /**
  * Used to authenticate users with enums that represents
  * different users who can interact with the RVM.
+ * Authenticates the users of a single session through the session's own authentication manager.
+ * Login attempts can be limited with a {@link LoginRateLimiter} before the users are looked up.
  */
 public class Authentication {
+	private final AuthManager authManager;
+	/**
+	 * Limiter of the login attempts, or null if they are not limited.
+	 */
+	private final LoginRateLimiter rateLimiter;
+	/**
+	 * Unique id of the machine the session runs on, used to limit the login attempts per machine.
+	 */
+	private final String machineId;
+
+	/**
+	 * Creates a new authentication for the session of the given authentication manager, without limiting login attempts.
+	 *
+	 * @param authManager Authentication manager of the session
+	 */
+	public Authentication(AuthManager authManager) {
+		this(authManager, null, null);
+	}
+
+	/**
+	 * Creates a new authentication for the session of the given authentication manager,
+	 * limiting login attempts with the given limiter.
+	 *
+	 * @param authManager Authentication manager of the session
+	 * @param rateLimiter Limiter of the login attempts, or null to not limit them
+	 * @param machineId   Unique id of the machine the session runs on
+	 */
+	public Authentication(AuthManager authManager, LoginRateLimiter rateLimiter, String machineId) {
+		this.authManager = authManager;
+		this.rateLimiter = rateLimiter;
+		this.machineId = machineId;
+	}
+
 	/**
 	 * Authenticates the user. By default, user is a guest.
 	 *
 	 * @param userId String
+	 * @throws LoginRateLimitedException If too many login attempts have been made
+	 */
+	public void authenticateUser(String userId) {
+		authManager.setAuthenticatedUser(Objects.requireNonNull(lookup(userId)).role());
+	}
+
+	/**
+	 * Looks the user up once and resolves the role it is authenticated with,
+	 * so a login doesn't need to look the user up again.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user and its role, or null if no user has the given id
+	 * @throws LoginRateLimitedException If too many login attempts have been made
 	 */
-	public static void authenticateUser(String userId) {
-		User authUser = AuthManager.getUserById(userId);
-		AuthManager.setAuthenticatedUser(switch (Objects.requireNonNull(authUser)) {
+	public UserLookup lookup(String userId) {
+		if (rateLimiter != null && !rateLimiter.tryAcquire(machineId, userId)) {
+			throw new LoginRateLimitedException();
+		}
+		User user = authManager.getUserById(userId);
+		if (user == null) {
+			return null;
+		}
+		return new UserLookup(user, switch (user) {
 			case Employee _ -> AuthenticatedUser.ADMIN;
 			case RegisteredRecycler _ -> AuthenticatedUser.RECYCLER;
 			default -> AuthenticatedUser.GUEST;
@@ -45,11 +99,12 @@ public class Authentication {
 	}
 
 	/**
+	 * Waits for the users to be loaded if they are still being loaded in the background.
+	 *
 	 * @param userId the userId to check
 	 * @return whether the given userId exists
 	 */
-	public static boolean userExists(String userId) {
-		ArrayList<User> userData = AuthManager.appDataManager.getAppData().getUserData();
-		return userData.stream().anyMatch(user -> user.getUserId().equals(userId));
+	public boolean userExists(String userId) {
+		return authManager.getUserById(userId) != null;
 	}
 }
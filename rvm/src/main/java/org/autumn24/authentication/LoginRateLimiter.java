@@ -0,0 +1,99 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.authentication;
+
+import org.autumn24.ratelimit.StripedTokenBucket;
+
+/**
+ * Limits the rate of login attempts per machine and per user id, so bursts of scans and misbehaving
+ * scanners are shed before the users are looked up. An attempt needs a token from the bucket of its
+ * user id and then from the bucket of its machine. The limiter is lock-free, so one limiter can be
+ * shared by all the lanes of a machine.
+ */
+public class LoginRateLimiter {
+	/**
+	 * Number of login attempts a machine may make in a burst by default.
+	 */
+	public static final int DEFAULT_MACHINE_BURST = 30;
+	/**
+	 * Number of login attempts per second a machine may make by default after a burst.
+	 */
+	public static final double DEFAULT_MACHINE_RATE = 5;
+	/**
+	 * Number of login attempts a user id may make in a burst by default.
+	 */
+	public static final int DEFAULT_USER_BURST = 5;
+	/**
+	 * Number of login attempts per second a user id may make by default after a burst.
+	 */
+	public static final double DEFAULT_USER_RATE = 0.2;
+	private static final int MACHINE_STRIPES = 64;
+	private static final int USER_STRIPES = 4096;
+
+	private final StripedTokenBucket machineBuckets;
+	private final StripedTokenBucket userBuckets;
+
+	/**
+	 * Creates a new limiter with the default limits.
+	 */
+	public LoginRateLimiter() {
+		this(DEFAULT_MACHINE_BURST, DEFAULT_MACHINE_RATE, DEFAULT_USER_BURST, DEFAULT_USER_RATE);
+	}
+
+	/**
+	 * Creates a new limiter with the given limits.
+	 *
+	 * @param machineBurst Number of attempts a machine may make in a burst
+	 * @param machineRate  Number of attempts per second a machine may make after a burst
+	 * @param userBurst    Number of attempts a user id may make in a burst
+	 * @param userRate     Number of attempts per second a user id may make after a burst
+	 */
+	public LoginRateLimiter(int machineBurst, double machineRate, int userBurst, double userRate) {
+		this.machineBuckets = new StripedTokenBucket(MACHINE_STRIPES, machineBurst, machineRate);
+		this.userBuckets = new StripedTokenBucket(USER_STRIPES, userBurst, userRate);
+	}
+
+	/**
+	 * Checks whether a login attempt is allowed, and takes its tokens if it is.
+	 *
+	 * @param machineId Unique id of the machine the attempt is made on
+	 * @param userId    The scanned user id
+	 * @return True if the attempt is allowed, false if it is rejected
+	 */
+	public boolean tryAcquire(String machineId, String userId) {
+		return userBuckets.tryAcquire(userId) && machineBuckets.tryAcquire(machineId);
+	}
+
+	/**
+	 * Gets the number of attempts rejected because their machine made too many attempts.
+	 *
+	 * @return Number of attempts rejected by the machine limit
+	 */
+	public long getRejectedByMachine() {
+		return machineBuckets.getRejectedCount();
+	}
+
+	/**
+	 * Gets the number of attempts rejected because their user id was scanned too often.
+	 *
+	 * @return Number of attempts rejected by the user limit
+	 */
+	public long getRejectedByUser() {
+		return userBuckets.getRejectedCount();
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.authentication;
+
+import org.autumn24.users.User;
+
+/**
+ * Result of looking a user up for a login: the user and the role it is authenticated with.
+ *
+ * @param user The found user
+ * @param role The role the user is authenticated with
+ */
+public record UserLookup(User user, AuthenticatedUser role) {
+}
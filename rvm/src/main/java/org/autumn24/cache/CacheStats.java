@@ -0,0 +1,37 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.cache;
+
+/**
+ * Statistics of a cache.
+ *
+ * @param hitCount      Number of lookups answered from the cache
+ * @param missCount     Number of lookups that had to be loaded
+ * @param evictionCount Number of entries evicted or rejected by the admission policy
+ */
+public record CacheStats(long hitCount, long missCount, long evictionCount) {
+	/**
+	 * Gets the share of lookups answered from the cache.
+	 *
+	 * @return The hit rate between 0 and 1, or 0 if nothing has been looked up
+	 */
+	public double hitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+}
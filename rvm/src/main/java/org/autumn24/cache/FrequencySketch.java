@@ -0,0 +1,104 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.cache;
+
+/**
+ * A count-min sketch that estimates how often keys have been seen recently.
+ * Counters saturate at 15, and all of them are halved once enough keys have been counted,
+ * so old popularity fades away. The size of the sketch depends only on the capacity of the cache.
+ */
+class FrequencySketch {
+	private static final int ROWS = 4;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	private final byte[][] counters;
+	private final int mask;
+	/**
+	 * Number of increments after which the counters are halved.
+	 */
+	private final int sampleSize;
+	private int increments;
+
+	/**
+	 * Creates a new sketch sized for a cache of the given capacity.
+	 *
+	 * @param capacity Maximum number of entries in the cache
+	 */
+	FrequencySketch(int capacity) {
+		int width = Integer.highestOneBit(Math.max(16, capacity - 1) << 1);
+		this.counters = new byte[ROWS][width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * Math.max(1, capacity);
+	}
+
+	/**
+	 * Counts one occurrence of the key.
+	 *
+	 * @param key The key that was seen
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean incremented = false;
+		for (int row = 0; row < ROWS; row++) {
+			int index = indexOf(hash, row);
+			if (counters[row][index] < MAX_COUNT) {
+				counters[row][index]++;
+				incremented = true;
+			}
+		}
+		if (incremented && ++increments >= sampleSize) {
+			halve();
+		}
+	}
+
+	/**
+	 * Estimates how often the key has been seen recently.
+	 *
+	 * @param key The key to estimate
+	 * @return The estimated frequency, between 0 and 15
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+		}
+		return frequency;
+	}
+
+	private void halve() {
+		for (byte[] row : counters) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] >>= 1;
+			}
+		}
+		increments /= 2;
+	}
+
+	private int indexOf(int hash, int row) {
+		int rowHash = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+		return (rowHash ^ rowHash >>> 16) & mask;
+	}
+
+	private static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x45D9F3B;
+		return hash ^ hash >>> 16;
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A size-bounded read-through cache with the W-TinyLFU policy.
+ * New entries go to a small LRU window. An entry leaving the window is admitted to the main segmented LRU
+ * only if it has been used more often than the entry it would evict, judged by a frequency sketch.
+ * The main area keeps entries used at least twice in a protected segment, so regular users are not
+ * flushed out by a burst of one-time lookups. The heap footprint depends only on the capacity.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ */
+public class WTinyLfuCache<K, V> {
+	/**
+	 * Share of the capacity used by the window.
+	 */
+	private static final double WINDOW_SHARE = 0.01;
+	/**
+	 * Share of the main area used by the protected segment.
+	 */
+	private static final double PROTECTED_SHARE = 0.8;
+
+	private final int windowCapacity;
+	private final int mainCapacity;
+	private final int protectedCapacity;
+	private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	/**
+	 * Number of invalidations, used to tell whether a key was invalidated while its value was being loaded.
+	 */
+	private long invalidationCount;
+
+	/**
+	 * Creates a new cache holding at most the given number of entries.
+	 *
+	 * @param capacity Maximum number of entries, at least 2
+	 */
+	public WTinyLfuCache(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Cache capacity must be at least 2: " + capacity);
+		}
+		this.windowCapacity = Math.max(1, (int) (capacity * WINDOW_SHARE));
+		this.mainCapacity = capacity - windowCapacity;
+		this.protectedCapacity = (int) (mainCapacity * PROTECTED_SHARE);
+		this.sketch = new FrequencySketch(capacity);
+	}
+
+	/**
+	 * Gets the value of the key from the cache, or loads it with the loader and caches it.
+	 * The loader runs without holding the cache, so a slow load doesn't stall the lookups of other keys.
+	 * If another thread caches the key meanwhile, its value is returned instead of the loaded one, and a value
+	 * loaded while the cache was invalidated is returned without caching it. Null values are not cached.
+	 *
+	 * @param key    The key to look up
+	 * @param loader Loads the value of a key that is not cached
+	 * @return The value, or null if the loader didn't find one
+	 */
+	public V get(K key, Function<K, V> loader) {
+		long invalidationsBeforeLoad;
+		synchronized (this) {
+			sketch.increment(key);
+			V value = lookup(key);
+			if (value != null) {
+				hitCount++;
+				return value;
+			}
+			missCount++;
+			invalidationsBeforeLoad = invalidationCount;
+		}
+		V loaded = loader.apply(key);
+		if (loaded == null) {
+			return null;
+		}
+		synchronized (this) {
+			V cached = lookup(key);
+			if (cached != null) {
+				return cached;
+			}
+			if (invalidationCount == invalidationsBeforeLoad) {
+				window.put(key, loaded);
+				if (window.size() > windowCapacity) {
+					admit(evictEldest(window));
+				}
+			}
+			return loaded;
+		}
+	}
+
+	/**
+	 * Looks the key up from the segments, promoting an entry used again while on probation.
+	 */
+	private V lookup(K key) {
+		V value = window.get(key);
+		if (value == null) {
+			value = protectedSegment.get(key);
+		}
+		if (value == null) {
+			value = probation.remove(key);
+			if (value != null) {
+				promote(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Removes the key from the cache.
+	 *
+	 * @param key The key to remove
+	 */
+	public synchronized void invalidate(K key) {
+		invalidationCount++;
+		if (window.remove(key) == null && probation.remove(key) == null) {
+			protectedSegment.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the number of cached entries.
+	 *
+	 * @return The number of entries
+	 */
+	public synchronized int size() {
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Gets the hit, miss and eviction statistics of the cache.
+	 *
+	 * @return The statistics
+	 */
+	public synchronized CacheStats stats() {
+		return new CacheStats(hitCount, missCount, evictionCount);
+	}
+
+	/**
+	 * Moves an entry used again while on probation to the protected segment,
+	 * demoting the least recently used protected entry back to probation if the segment is full.
+	 */
+	private void promote(K key, V value) {
+		protectedSegment.put(key, value);
+		if (protectedSegment.size() > protectedCapacity) {
+			Map.Entry<K, V> demoted = evictEldest(protectedSegment);
+			probation.put(demoted.getKey(), demoted.getValue());
+		}
+	}
+
+	/**
+	 * Admits an entry leaving the window to the main area. If the main area is full, the candidate
+	 * competes with the least recently used entry on probation, and the less frequently used one is evicted.
+	 */
+	private void admit(Map.Entry<K, V> candidate) {
+		if (probation.size() + protectedSegment.size() < mainCapacity) {
+			probation.put(candidate.getKey(), candidate.getValue());
+			return;
+		}
+		LinkedHashMap<K, V> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+		K victim = victimSegment.keySet().iterator().next();
+		evictionCount++;
+		if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+			victimSegment.remove(victim);
+			probation.put(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	private static <K, V> Map.Entry<K, V> evictEldest(LinkedHashMap<K, V> segment) {
+		Iterator<Map.Entry<K, V>> entries = segment.entrySet().iterator();
+		Map.Entry<K, V> eldest = entries.next();
+		Map.Entry<K, V> evicted = Map.entry(eldest.getKey(), eldest.getValue());
+		entries.remove();
+		return evicted;
+	}
+}
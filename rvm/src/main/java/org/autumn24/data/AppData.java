@@ -21,19 +21,107 @@ import org.autumn24.rvm.ReverseVendingMachine;
 import org.autumn24.users.User;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class AppData {
 	private ReverseVendingMachine rvm;
 	private ArrayList<User> userData;
+	/**
+	 * Positions of the users in the user data by their user id, built when a user is first looked up.
+	 * Dropped whenever the user data is changed other than by putting a user, and rebuilt on the next lookup.
+	 */
+	private Map<String, Integer> userIndexes;
 
+	public AppData(ReverseVendingMachine rvm, ArrayList<User> userData) {
+		this.rvm = rvm;
+		this.userData = userData;
+	}
+
+	/**
+	 * Gets the user data. The list is not changed directly, but through {@link #putUser}, {@link #removeUsers}
+	 * and {@link #setUserData}, which keep the index of the user positions valid.
+	 *
+	 * @return The users
+	 */
 	public ArrayList<User> getUserData() {
 		return userData;
 	}
 
+	/**
+	 * Replaces the user data.
+	 *
+	 * @param userData The new users
+	 */
+	public void setUserData(ArrayList<User> userData) {
+		this.userData = userData;
+		userIndexes = null;
+	}
+
+	/**
+	 * Finds a user from the user data by its user id through a hash index.
+	 * If several users have the same id, the first one is found.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	public User findUser(String userId) {
+		Integer index = userIndexes().get(userId);
+		return index == null ? null : userData.get(index);
+	}
+
+	/**
+	 * Puts a user to the user data, replacing the user with the same id if it exists.
+	 *
+	 * @param user The user to put
+	 */
+	public void putUser(User user) {
+		Map<String, Integer> indexes = userIndexes();
+		Integer index = indexes.get(user.getUserId());
+		if (index != null) {
+			userData.set(index, user);
+			return;
+		}
+		indexes.put(user.getUserId(), userData.size());
+		userData.add(user);
+	}
+
+	/**
+	 * Removes the users that match the given filter from the user data.
+	 *
+	 * @param filter Filter that returns true for the users to remove
+	 * @return True if any users were removed
+	 */
+	public boolean removeUsers(Predicate<User> filter) {
+		boolean removed = userData.removeIf(filter);
+		if (removed) {
+			userIndexes = null;
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets the index of the user positions, building it if it has been dropped.
+	 */
+	private Map<String, Integer> userIndexes() {
+		if (userIndexes == null) {
+			userIndexes = new HashMap<>(userData.size() * 4 / 3 + 1);
+			for (int i = 0; i < userData.size(); i++) {
+				userIndexes.putIfAbsent(userData.get(i).getUserId(), i);
+			}
+		}
+		return userIndexes;
+	}
+
 	public ReverseVendingMachine getRvm() {
 		return rvm;
 	}
 
+	public void setRvm(ReverseVendingMachine rvm) {
+		this.rvm = rvm;
+	}
+
 	@Override
 	public String toString() {
 		return "AppData{" +
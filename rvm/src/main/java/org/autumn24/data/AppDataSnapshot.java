@@ -0,0 +1,248 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.data;
+
+import org.autumn24.items.ItemMaterial;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * An immutable, versioned point-in-time view of the application data for concurrent readers,
+ * such as reports and admin views, while sessions keep changing the live users and machine in place.
+ * <p>
+ * A change is applied by copying: {@link #withMachine} and {@link #withRecycler} return a new snapshot
+ * with the next version, and the snapshot they were called on stays unchanged. Recyclers are split by
+ * their ids into chunks, and a new snapshot shares every chunk but the changed one with the old snapshot,
+ * so a change copies only a small part of the recyclers. The number of chunks grows with the number of
+ * recyclers, so chunks stay small.
+ */
+public final class AppDataSnapshot {
+	/**
+	 * Smallest number of chunks the recyclers are split into.
+	 */
+	private static final int MIN_CHUNK_COUNT = 1024;
+	/**
+	 * Number of recyclers a chunk holds on average when the snapshot is created.
+	 */
+	private static final int CHUNK_SIZE = 32;
+	/**
+	 * A snapshot without a machine or recyclers, with version 0.
+	 */
+	public static final AppDataSnapshot EMPTY = new AppDataSnapshot(0, Map.of(), emptyChunks(MIN_CHUNK_COUNT), 0);
+
+	private final long version;
+	private final Map<ItemMaterial, Recyclable> recyclables;
+	private final List<Map<String, Recycler>> chunks;
+	private final int recyclerCount;
+
+	private AppDataSnapshot(long version, Map<ItemMaterial, Recyclable> recyclables, List<Map<String, Recycler>> chunks, int recyclerCount) {
+		this.version = version;
+		this.recyclables = recyclables;
+		this.chunks = chunks;
+		this.recyclerCount = recyclerCount;
+	}
+
+	/**
+	 * Creates a snapshot of the machine and registered recyclers of the given app data.
+	 *
+	 * @param appData The app data to take the snapshot of
+	 * @param version Version of the snapshot
+	 * @return The created snapshot
+	 */
+	public static AppDataSnapshot of(AppData appData, long version) {
+		int userCount = appData.getUserData().size();
+		List<Map<String, Recycler>> chunks = emptyChunks(Math.max(MIN_CHUNK_COUNT, Integer.highestOneBit(userCount / CHUNK_SIZE) << 1));
+		int recyclerCount = 0;
+		for (User user : appData.getUserData()) {
+			if (user instanceof RegisteredRecycler recycler) {
+				int chunkIndex = chunkOf(chunks, recycler.getUserId());
+				Map<String, Recycler> chunk = chunks.get(chunkIndex);
+				if (chunk.isEmpty()) {
+					chunk = new HashMap<>();
+					chunks.set(chunkIndex, chunk);
+				}
+				if (chunk.put(recycler.getUserId(), Recycler.of(recycler)) == null) {
+					recyclerCount++;
+				}
+			}
+		}
+		return new AppDataSnapshot(version, recyclablesOf(appData.getRvm()), chunks, recyclerCount);
+	}
+
+	/**
+	 * Creates the next version of the snapshot with the counters of the given machine.
+	 *
+	 * @param rvm The machine whose counters changed
+	 * @return The new snapshot
+	 */
+	public AppDataSnapshot withMachine(ReverseVendingMachine rvm) {
+		return new AppDataSnapshot(version + 1, recyclablesOf(rvm), chunks, recyclerCount);
+	}
+
+	/**
+	 * Creates a snapshot with the recyclers of this one and the counters of the given machine, as the version
+	 * following the given snapshot. Used to publish a snapshot built apart from the published ones, e.g. while loading.
+	 *
+	 * @param previous The latest published snapshot
+	 * @param rvm      The machine whose counters are published
+	 * @return The new snapshot
+	 */
+	public AppDataSnapshot succeeding(AppDataSnapshot previous, ReverseVendingMachine rvm) {
+		return new AppDataSnapshot(previous.version + 1, recyclablesOf(rvm), chunks, recyclerCount);
+	}
+
+	/**
+	 * Creates the next version of the snapshot with the given recycler added or replaced.
+	 * Only the chunk of the recycler is copied.
+	 *
+	 * @param recycler The recycler that changed
+	 * @return The new snapshot
+	 */
+	public AppDataSnapshot withRecycler(RegisteredRecycler recycler) {
+		int chunkIndex = chunkOf(chunks, recycler.getUserId());
+		Map<String, Recycler> chunk = new HashMap<>(chunks.get(chunkIndex));
+		boolean added = chunk.put(recycler.getUserId(), Recycler.of(recycler)) == null;
+		List<Map<String, Recycler>> newChunks = new ArrayList<>(chunks);
+		newChunks.set(chunkIndex, chunk);
+		return new AppDataSnapshot(version + 1, recyclables, newChunks, added ? recyclerCount + 1 : recyclerCount);
+	}
+
+	/**
+	 * Gets the version of the snapshot, which grows by one with every change.
+	 *
+	 * @return The version number
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the counters of the machine for every material.
+	 *
+	 * @return An unmodifiable map of the counters by material
+	 */
+	public Map<ItemMaterial, Recyclable> getRecyclables() {
+		return recyclables;
+	}
+
+	/**
+	 * Gets the totals of a recycler.
+	 *
+	 * @param userId Unique id of the recycler
+	 * @return The totals of the recycler, or null if the snapshot doesn't have the recycler
+	 */
+	public Recycler getRecycler(String userId) {
+		return chunks.get(chunkOf(chunks, userId)).get(userId);
+	}
+
+	/**
+	 * Gets the number of recyclers in the snapshot.
+	 *
+	 * @return The number of recyclers
+	 */
+	public int getRecyclerCount() {
+		return recyclerCount;
+	}
+
+	/**
+	 * Gets a stream of the totals of all the recyclers in the snapshot, in no particular order.
+	 *
+	 * @return A stream of the recycler totals
+	 */
+	public Stream<Recycler> recyclers() {
+		return chunks.stream().flatMap(chunk -> chunk.values().stream());
+	}
+
+	private static Map<ItemMaterial, Recyclable> recyclablesOf(ReverseVendingMachine rvm) {
+		Map<ItemMaterial, Recyclable> recyclables = new EnumMap<>(ItemMaterial.class);
+		rvm.recyclables.forEach((material, recyclable) -> recyclables.put(material, Recyclable.of(recyclable)));
+		return Collections.unmodifiableMap(recyclables);
+	}
+
+	private static List<Map<String, Recycler>> emptyChunks(int chunkCount) {
+		return new ArrayList<>(Collections.nCopies(chunkCount, Map.of()));
+	}
+
+	private static int chunkOf(List<Map<String, Recycler>> chunks, String userId) {
+		int hash = userId.hashCode();
+		return (hash ^ (hash >>> 16)) & (chunks.size() - 1);
+	}
+
+	/**
+	 * Totals of a registered recycler at the time of the snapshot.
+	 *
+	 * @param userId         Unique id of the recycler
+	 * @param userName       Username of the recycler
+	 * @param plasticBottles Total plastic bottles recycled
+	 * @param glassBottles   Total glass bottles recycled
+	 * @param aluminiumCans  Total aluminium cans recycled
+	 * @param totalItems     Total items recycled
+	 * @param redeemedValue  Total value redeemed
+	 * @param lastRecycledAt Epoch milliseconds of the latest recycling, or 0 if not known
+	 */
+	public record Recycler(
+			String userId,
+			String userName,
+			long plasticBottles,
+			long glassBottles,
+			long aluminiumCans,
+			long totalItems,
+			BigDecimal redeemedValue,
+			long lastRecycledAt
+	) {
+		static Recycler of(RegisteredRecycler recycler) {
+			return new Recycler(
+					recycler.getUserId(),
+					recycler.getUserName(),
+					recycler.getTotalPlasticBottlesRecycled(),
+					recycler.getTotalGlassBottlesRecycled(),
+					recycler.getTotalAluminiumCansRecycled(),
+					recycler.getTotalItemsRecycled(),
+					recycler.getRedeemedTotalValue(),
+					recycler.getLastRecycledAt()
+			);
+		}
+	}
+
+	/**
+	 * Counters of a recycling pile of the machine at the time of the snapshot.
+	 *
+	 * @param recyclingLimit        How many items the pile holds
+	 * @param recyclingLimitCounter How many items are in the pile
+	 * @param totalRecycled         Total items recycled to the pile
+	 */
+	public record Recyclable(short recyclingLimit, short recyclingLimitCounter, short totalRecycled) {
+		static Recyclable of(RecyclableData recyclable) {
+			return new Recyclable(
+					recyclable.getRecyclingLimit(),
+					recyclable.getRecyclingLimitCounter(),
+					recyclable.getTotalRecycled()
+			);
+		}
+	}
+}
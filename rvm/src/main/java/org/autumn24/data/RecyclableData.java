@@ -22,13 +22,21 @@ public class RecyclableData {
 	private short recyclingLimitCounter;
 	private short totalRecycled;
 	private transient short sessionRecycled;
+	private transient boolean dirty;
 
 	public RecyclableData(short recyclingLimit) {
 		this.recyclingLimit = recyclingLimit;
 	}
 
+	public RecyclableData(short recyclingLimit, short recyclingLimitCounter, short totalRecycled) {
+		this.recyclingLimit = recyclingLimit;
+		this.recyclingLimitCounter = recyclingLimitCounter;
+		this.totalRecycled = totalRecycled;
+	}
+
 	public void addTotalRecycled(int amount) {
 		totalRecycled += (short) amount;
+		dirty = true;
 	}
 
 	public void addSessionRecycled(int amount) {
@@ -37,6 +45,15 @@ public class RecyclableData {
 
 	public void addToRecyclingLimitCounter(int amount) {
 		recyclingLimitCounter += (short) amount;
+		dirty = true;
+	}
+
+	public short getRecyclingLimit() {
+		return recyclingLimit;
+	}
+
+	public short getTotalRecycled() {
+		return totalRecycled;
 	}
 
 	public short getSessionRecycled() {
@@ -53,6 +70,15 @@ public class RecyclableData {
 
 	public void setRecyclingLimitCounter(short recyclingLimitCounter) {
 		this.recyclingLimitCounter = recyclingLimitCounter;
+		dirty = true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void markClean() {
+		dirty = false;
 	}
 
 	public boolean isLimitReached() {
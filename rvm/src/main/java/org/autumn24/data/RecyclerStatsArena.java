@@ -0,0 +1,253 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.data;
+
+import org.autumn24.users.RecyclerCounters;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An off-heap arena that holds the counters of registered recyclers.
+ * Counters are laid out as a struct of arrays in chunks of native memory, so millions of recyclers
+ * don't put millions of counter objects and {@code BigDecimal} values on the heap.
+ * Chunks grow with the number of slots up to a fixed size, so a small arena reserves little memory.
+ * Recyclers moved to the arena read and write their counters through small views over their slots,
+ * and a released slot is reused by the next recycler.
+ * The memory is released when the arena is closed, after which the views must no longer be used.
+ */
+public class RecyclerStatsArena implements AutoCloseable {
+	/**
+	 * Number of slots in the first chunk.
+	 */
+	private static final int MIN_CHUNK_SLOTS = 1 << 10;
+	/**
+	 * Largest number of slots in a chunk.
+	 */
+	private static final int MAX_CHUNK_SLOTS = 1 << 16;
+	private static final int PLASTIC_BOTTLES = 0;
+	private static final int GLASS_BOTTLES = 1;
+	private static final int ALUMINIUM_CANS = 2;
+	private static final int TOTAL_ITEMS = 3;
+	private static final int VALUE_UNSCALED = 4;
+	/**
+	 * Number of long arrays in a chunk. The value scales follow them as a byte array.
+	 */
+	private static final int LONG_FIELDS = 5;
+
+	private final Arena arena = Arena.ofShared();
+	private final List<MemorySegment> chunks = new ArrayList<>();
+	/**
+	 * Released slots, reused before new ones are taken.
+	 */
+	private final Deque<Slot> freeSlots = new ArrayDeque<>();
+	/**
+	 * Number of slots in the latest chunk, and how many of them have been taken.
+	 */
+	private int chunkSlots;
+	private int chunkSlotsTaken;
+	private int capacity;
+	private int slotCount;
+	private long byteSize;
+
+	/**
+	 * Checks whether a redeemed value fits in a slot, i.e. in an unscaled long and a byte scale.
+	 * Values that don't fit must be kept on the heap.
+	 *
+	 * @param redeemedValue The redeemed value, null for zero
+	 * @return True if the value can be stored in the arena
+	 */
+	public static boolean canHold(BigDecimal redeemedValue) {
+		return redeemedValue == null
+				|| redeemedValue.scale() >= Byte.MIN_VALUE && redeemedValue.scale() <= Byte.MAX_VALUE
+				&& redeemedValue.unscaledValue().bitLength() < Long.SIZE;
+	}
+
+	/**
+	 * Allocates a slot for the counters of a recycler, with all the counters set to zero.
+	 * A released slot is reused if there is one.
+	 *
+	 * @return A view over the allocated slot
+	 */
+	public synchronized RecyclerCounters allocate() {
+		Slot slot = freeSlots.poll();
+		if (slot == null) {
+			if (chunkSlotsTaken == chunkSlots) {
+				chunkSlots = Math.clamp(capacity, MIN_CHUNK_SLOTS, MAX_CHUNK_SLOTS);
+				chunkSlotsTaken = 0;
+				long chunkBytes = (long) chunkSlots * (LONG_FIELDS * Long.BYTES + 1);
+				chunks.add(arena.allocate(chunkBytes, Long.BYTES));
+				capacity += chunkSlots;
+				byteSize += chunkBytes;
+			}
+			slot = new Slot(this, chunks.getLast(), chunkSlots, chunkSlotsTaken++);
+		} else {
+			slot.clear();
+		}
+		slotCount++;
+		return slot;
+	}
+
+	/**
+	 * Returns a slot to the arena for reuse.
+	 */
+	private synchronized void release(Slot slot) {
+		freeSlots.push(slot);
+		slotCount--;
+	}
+
+	/**
+	 * Gets the number of slots in use.
+	 *
+	 * @return The number of slots
+	 */
+	public synchronized int size() {
+		return slotCount;
+	}
+
+	/**
+	 * Gets the amount of native memory reserved by the arena.
+	 *
+	 * @return Reserved memory in bytes
+	 */
+	public synchronized long byteSize() {
+		return byteSize;
+	}
+
+	/**
+	 * Releases the native memory of the arena.
+	 */
+	@Override
+	public void close() {
+		arena.close();
+	}
+
+	/**
+	 * A view over the counters of a single recycler.
+	 * The redeemed value is stored as an unscaled long and a scale, and must fit in them.
+	 */
+	private static final class Slot implements RecyclerCounters {
+		private final RecyclerStatsArena owner;
+		private final MemorySegment chunk;
+		private final int chunkSlots;
+		private final int index;
+
+		Slot(RecyclerStatsArena owner, MemorySegment chunk, int chunkSlots, int index) {
+			this.owner = owner;
+			this.chunk = chunk;
+			this.chunkSlots = chunkSlots;
+			this.index = index;
+		}
+
+		private long get(int field) {
+			return chunk.getAtIndex(ValueLayout.JAVA_LONG, (long) field * chunkSlots + index);
+		}
+
+		private void set(int field, long value) {
+			chunk.setAtIndex(ValueLayout.JAVA_LONG, (long) field * chunkSlots + index, value);
+		}
+
+		private long scaleOffset() {
+			return (long) LONG_FIELDS * chunkSlots * Long.BYTES + index;
+		}
+
+		private void clear() {
+			for (int field = 0; field < LONG_FIELDS; field++) {
+				set(field, 0);
+			}
+			chunk.set(ValueLayout.JAVA_BYTE, scaleOffset(), (byte) 0);
+		}
+
+		@Override
+		public long getPlasticBottles() {
+			return get(PLASTIC_BOTTLES);
+		}
+
+		@Override
+		public void setPlasticBottles(long plasticBottles) {
+			set(PLASTIC_BOTTLES, plasticBottles);
+		}
+
+		@Override
+		public long getGlassBottles() {
+			return get(GLASS_BOTTLES);
+		}
+
+		@Override
+		public void setGlassBottles(long glassBottles) {
+			set(GLASS_BOTTLES, glassBottles);
+		}
+
+		@Override
+		public long getAluminiumCans() {
+			return get(ALUMINIUM_CANS);
+		}
+
+		@Override
+		public void setAluminiumCans(long aluminiumCans) {
+			set(ALUMINIUM_CANS, aluminiumCans);
+		}
+
+		@Override
+		public long getTotalItems() {
+			return get(TOTAL_ITEMS);
+		}
+
+		@Override
+		public void setTotalItems(long totalItems) {
+			set(TOTAL_ITEMS, totalItems);
+		}
+
+		@Override
+		public BigDecimal getRedeemedValue() {
+			byte scale = chunk.get(ValueLayout.JAVA_BYTE, scaleOffset());
+			return new BigDecimal(BigInteger.valueOf(get(VALUE_UNSCALED)), scale);
+		}
+
+		/**
+		 * @throws ArithmeticException If the value doesn't fit in an unscaled long and a byte scale,
+		 *                             which callers check first with {@link #canHold}
+		 */
+		@Override
+		public void setRedeemedValue(BigDecimal redeemedValue) {
+			if (!canHold(redeemedValue)) {
+				throw new ArithmeticException("Redeemed value doesn't fit in the arena: " + redeemedValue);
+			}
+			BigDecimal value = redeemedValue == null ? BigDecimal.ZERO : redeemedValue;
+			set(VALUE_UNSCALED, value.unscaledValue().longValue());
+			chunk.set(ValueLayout.JAVA_BYTE, scaleOffset(), (byte) value.scale());
+		}
+
+		@Override
+		public boolean canHold(BigDecimal redeemedValue) {
+			return RecyclerStatsArena.canHold(redeemedValue);
+		}
+
+		@Override
+		public void release() {
+			owner.release(this);
+		}
+	}
+}
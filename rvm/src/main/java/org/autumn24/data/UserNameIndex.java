@@ -0,0 +1,320 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.data;
+
+import org.autumn24.users.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the users by their names, which finds the users whose name starts with a prefix
+ * without scanning all the users. Names are matched without regard to case.
+ * <p>
+ * Every user has a key: its lower case name and its user id in UTF-8, separated by a zero byte.
+ * Most of the keys are kept sorted in one byte array with the offsets of the keys next to it, so the
+ * index takes little more memory than the names and ids themselves, and a prefix is found with a binary search.
+ * Changes go to a small sorted delta of added keys and removed keys, which is merged into the sorted
+ * keys once it grows too large compared to them.
+ */
+public class UserNameIndex {
+	/**
+	 * Number of changes the delta may hold before it is merged, however few keys are sorted.
+	 */
+	private static final int MIN_DELTA_LIMIT = 1024;
+	/**
+	 * The delta is merged once it holds more changes than this fraction of the sorted keys.
+	 */
+	private static final int DELTA_RATIO = 16;
+	private static final byte SEPARATOR = 0;
+	/**
+	 * Approximate bytes taken by an array header and a tree map entry, used to report the memory footprint.
+	 */
+	private static final int ARRAY_OVERHEAD = 16;
+	private static final int DELTA_ENTRY_OVERHEAD = 40 + ARRAY_OVERHEAD;
+	private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+	private byte[] keyBytes;
+	/**
+	 * Start of every sorted key in the key bytes, followed by the end of the last key.
+	 */
+	private int[] keyOffsets;
+	private int keyCount;
+	/**
+	 * Keys added (true) or removed (false) since the latest merge.
+	 */
+	private final TreeMap<byte[], Boolean> delta = new TreeMap<>(KEY_ORDER);
+	private long deltaBytes;
+	private int size;
+
+	/**
+	 * Creates a new index of the given users.
+	 *
+	 * @param users The users to index
+	 */
+	public UserNameIndex(Collection<? extends User> users) {
+		byte[][] keys = new byte[users.size()][];
+		int i = 0;
+		for (User user : users) {
+			keys[i++] = keyOf(user);
+		}
+		Arrays.sort(keys, KEY_ORDER);
+		int length = 0;
+		int distinct = 0;
+		for (int k = 0; k < keys.length; k++) {
+			if (k == 0 || !Arrays.equals(keys[k], keys[k - 1])) {
+				keys[distinct++] = keys[k];
+				length += keys[k].length;
+			}
+		}
+		pack(Arrays.asList(keys).subList(0, distinct), length);
+	}
+
+	/**
+	 * Adds a user to the index.
+	 *
+	 * @param user The user to add
+	 */
+	public void add(User user) {
+		byte[] key = keyOf(user);
+		if (contains(key)) {
+			return;
+		}
+		if (sortedIndexOf(key) >= 0) {
+			removeFromDelta(key);
+		} else {
+			putToDelta(key, true);
+		}
+		size++;
+		mergeIfNeeded();
+	}
+
+	/**
+	 * Removes a user from the index.
+	 *
+	 * @param user The user to remove
+	 */
+	public void remove(User user) {
+		byte[] key = keyOf(user);
+		if (!contains(key)) {
+			return;
+		}
+		if (sortedIndexOf(key) >= 0) {
+			putToDelta(key, false);
+		} else {
+			removeFromDelta(key);
+		}
+		size--;
+		mergeIfNeeded();
+	}
+
+	/**
+	 * Finds the users whose name starts with the given prefix, ignoring case.
+	 *
+	 * @param prefix The prefix of the names
+	 * @param limit  Largest number of users to return
+	 * @return The user ids of the found users, in the order of their names
+	 */
+	public List<String> search(String prefix, int limit) {
+		byte[] prefixBytes = prefix.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+		List<String> userIds = new ArrayList<>(Math.min(limit, 64));
+		int sorted = lowerBound(prefixBytes);
+		Iterator<Map.Entry<byte[], Boolean>> changes = delta.tailMap(prefixBytes, true).entrySet().iterator();
+		Map.Entry<byte[], Boolean> change = nextMatch(changes, prefixBytes);
+		while (userIds.size() < limit) {
+			boolean sortedMatches = sorted < keyCount && sortedKeyStartsWith(sorted, prefixBytes);
+			if (!sortedMatches && change == null) {
+				break;
+			}
+			int order = !sortedMatches ? 1 : change == null ? -1 : compareSorted(sorted, change.getKey());
+			if (order < 0) {
+				userIds.add(userIdOf(keyBytes, keyOffsets[sorted], keyOffsets[sorted + 1]));
+				sorted++;
+				continue;
+			}
+			if (change.getValue()) {
+				userIds.add(userIdOf(change.getKey(), 0, change.getKey().length));
+			}
+			if (order == 0) {
+				sorted++;
+			}
+			change = nextMatch(changes, prefixBytes);
+		}
+		return userIds;
+	}
+
+	/**
+	 * Gets the number of users in the index.
+	 *
+	 * @return The number of users
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Estimates the memory taken by the index.
+	 *
+	 * @return Approximate number of bytes taken by the sorted keys and the delta
+	 */
+	public long getMemoryFootprint() {
+		return ARRAY_OVERHEAD + keyBytes.length + ARRAY_OVERHEAD + (long) keyOffsets.length * Integer.BYTES + deltaBytes;
+	}
+
+	private boolean contains(byte[] key) {
+		Boolean change = delta.get(key);
+		return change != null ? change : sortedIndexOf(key) >= 0;
+	}
+
+	private void putToDelta(byte[] key, boolean added) {
+		if (delta.put(key, added) == null) {
+			deltaBytes += DELTA_ENTRY_OVERHEAD + key.length;
+		}
+	}
+
+	private void removeFromDelta(byte[] key) {
+		if (delta.remove(key) != null) {
+			deltaBytes -= DELTA_ENTRY_OVERHEAD + key.length;
+		}
+	}
+
+	/**
+	 * Merges the delta into the sorted keys once it holds too many changes.
+	 */
+	private void mergeIfNeeded() {
+		if (delta.size() <= Math.max(MIN_DELTA_LIMIT, keyCount / DELTA_RATIO)) {
+			return;
+		}
+		List<byte[]> keys = new ArrayList<>(size);
+		int length = 0;
+		int sorted = 0;
+		Iterator<Map.Entry<byte[], Boolean>> changes = delta.entrySet().iterator();
+		Map.Entry<byte[], Boolean> change = changes.hasNext() ? changes.next() : null;
+		while (sorted < keyCount || change != null) {
+			int order = sorted == keyCount ? 1 : change == null ? -1 : compareSorted(sorted, change.getKey());
+			byte[] key;
+			if (order < 0) {
+				key = Arrays.copyOfRange(keyBytes, keyOffsets[sorted], keyOffsets[sorted + 1]);
+				sorted++;
+			} else {
+				key = change.getValue() ? change.getKey() : null;
+				if (order == 0) {
+					sorted++;
+				}
+				change = changes.hasNext() ? changes.next() : null;
+			}
+			if (key != null) {
+				keys.add(key);
+				length += key.length;
+			}
+		}
+		pack(keys, length);
+		delta.clear();
+		deltaBytes = 0;
+	}
+
+	/**
+	 * Replaces the sorted keys with the given keys, which must be sorted and distinct.
+	 */
+	private void pack(List<byte[]> keys, int length) {
+		byte[] bytes = new byte[length];
+		int[] offsets = new int[keys.size() + 1];
+		int offset = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			byte[] key = keys.get(i);
+			offsets[i] = offset;
+			System.arraycopy(key, 0, bytes, offset, key.length);
+			offset += key.length;
+		}
+		offsets[keys.size()] = offset;
+		this.keyBytes = bytes;
+		this.keyOffsets = offsets;
+		this.keyCount = keys.size();
+		this.size = keyCount;
+	}
+
+	/**
+	 * Finds the position of the first sorted key that isn't smaller than the given key.
+	 */
+	private int lowerBound(byte[] key) {
+		int low = 0;
+		int high = keyCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareSorted(middle, key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int sortedIndexOf(byte[] key) {
+		int index = lowerBound(key);
+		return index < keyCount && compareSorted(index, key) == 0 ? index : -1;
+	}
+
+	private int compareSorted(int index, byte[] key) {
+		return Arrays.compareUnsigned(keyBytes, keyOffsets[index], keyOffsets[index + 1], key, 0, key.length);
+	}
+
+	private boolean sortedKeyStartsWith(int index, byte[] prefix) {
+		int start = keyOffsets[index];
+		return keyOffsets[index + 1] - start >= prefix.length
+				&& Arrays.equals(keyBytes, start, start + prefix.length, prefix, 0, prefix.length);
+	}
+
+	private static Map.Entry<byte[], Boolean> nextMatch(Iterator<Map.Entry<byte[], Boolean>> changes, byte[] prefix) {
+		if (!changes.hasNext()) {
+			return null;
+		}
+		Map.Entry<byte[], Boolean> change = changes.next();
+		byte[] key = change.getKey();
+		return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length) ? change : null;
+	}
+
+	private static byte[] keyOf(User user) {
+		String name = user.getUserName() == null ? "" : user.getUserName().toLowerCase(Locale.ROOT);
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		byte[] idBytes = user.getUserId().getBytes(StandardCharsets.UTF_8);
+		byte[] key = Arrays.copyOf(nameBytes, nameBytes.length + 1 + idBytes.length);
+		key[nameBytes.length] = SEPARATOR;
+		System.arraycopy(idBytes, 0, key, nameBytes.length + 1, idBytes.length);
+		return key;
+	}
+
+	/**
+	 * Gets the user id of a key, which follows the last separator since user ids don't hold one.
+	 */
+	private static String userIdOf(byte[] bytes, int start, int end) {
+		int separator = end - 1;
+		while (bytes[separator] != SEPARATOR) {
+			separator--;
+		}
+		return new String(bytes, separator + 1, end - separator - 1, StandardCharsets.UTF_8);
+	}
+}
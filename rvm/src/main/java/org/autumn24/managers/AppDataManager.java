@@ -18,48 +18,178 @@
 package org.autumn24.managers;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonIOException;
-import com.google.gson.JsonSyntaxException;
+import org.autumn24.cache.CacheStats;
+import org.autumn24.cache.WTinyLfuCache;
 import org.autumn24.data.AppData;
+import org.autumn24.data.AppDataSnapshot;
+import org.autumn24.data.RecyclerStatsArena;
+import org.autumn24.data.UserNameIndex;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.storage.AppDataStore;
+import org.autumn24.storage.AppDataStoreFactory;
+import org.autumn24.storage.AppDataStoreType;
+import org.autumn24.storage.DurabilityPolicy;
+import org.autumn24.storage.JsonAppDataStore;
+import org.autumn24.storage.RecyclerStatsTable;
+import org.autumn24.users.RegisteredRecycler;
 import org.autumn24.users.User;
-import org.autumn24.utils.UserDeserializer;
+import org.autumn24.utils.PersistenceCodecs;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A class that manages the stored application data.
+ * Data is read and written through a pluggable {@link AppDataStore}, binary snapshot and journal by default.
+ * Recycler counters can be kept in a memory-mapped {@link RecyclerStatsTable}, where a session close updates them in place,
+ * and the counters of the loaded recyclers can be held off-heap in a {@link RecyclerStatsArena}.
+ * JSON is used only to import and export the data.
+ * Stores may write in the background, so callers only wait for the writes through the returned futures.
+ * <p>
+ * Every saved change is also published as a new immutable {@link AppDataSnapshot}, which other threads
+ * can read through {@link #getSnapshot()} without locking the live data.
+ * <p>
+ * Loading can also be started in the background with {@link #startLoadingAppData()}, which returns the machine
+ * state first, so the machine can be used before every user has been loaded.
+ * <p>
+ * Several sessions, e.g. the lanes of one process, can share a manager. The store and the live app data are
+ * only read and changed under the lock of the manager, and the looked up users are kept in one user cache,
+ * so every session sees the same user objects. Waiting for the background load is done before the lock is
+ * taken, so a session that waits for the users never blocks the others. While the store is loading, only the
+ * loader uses it: machine changes are written once the data has been loaded.
  */
-public class AppDataManager {
+public class AppDataManager implements AutoCloseable {
 	/**
 	 * Static Gson object to serialize/deserialize JSON data.
-	 * Contains added custom user deserializer to allow returning
-	 * correct user object from the user role.
+	 * Contains added streaming adapters for all the persisted classes, which return correct
+	 * user object from the user role without building a JSON tree. Reflective access to the
+	 * application classes is blocked, so every persisted class must have an adapter.
 	 */
-	private static final Gson gson = new GsonBuilder()
+	private static final Gson gson = PersistenceCodecs.gsonBuilder()
 			.setPrettyPrinting()
-			.registerTypeAdapter(
-					User.class,
-					new UserDeserializer()
-			)
 			.create();
+	/**
+	 * Maximum number of users kept in the user cache.
+	 */
+	private static final int USER_CACHE_SIZE = 10_000;
+	/**
+	 * System property that moves the counters of the loaded recyclers off-heap when set to true,
+	 * e.g. {@code -Drvm.offHeapStats=true}.
+	 */
+	public static final String OFF_HEAP_STATS_PROPERTY = "rvm.offHeapStats";
 
-	private final String database;
 	/**
-	 * Stores the app data read from JSON.
+	 * Store that holds the application data.
+	 */
+	private final AppDataStore store;
+	/**
+	 * Table that holds the recycler counters, or null if they are stored with the users.
+	 */
+	private RecyclerStatsTable statsTable;
+	/**
+	 * Arena that holds the counters of the loaded recyclers off-heap, or null to keep them on the heap.
+	 */
+	private final RecyclerStatsArena statsArena;
+	/**
+	 * Stores the app data read from the database.
 	 */
 	private AppData appData;
+	/**
+	 * The machine whose state is stored, known before the users when they are loaded in the background.
+	 */
+	private volatile ReverseVendingMachine rvm;
+	/**
+	 * Loading of the app data, which is complete unless the users are being loaded in the background.
+	 */
+	private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+	/**
+	 * Latest published snapshot of the app data.
+	 */
+	private final AtomicReference<AppDataSnapshot> snapshot = new AtomicReference<>(AppDataSnapshot.EMPTY);
+	/**
+	 * Cache of the looked up users shared by the sessions, so regular users are found without going to the store.
+	 */
+	private final WTinyLfuCache<String, User> userCache = new WTinyLfuCache<>(USER_CACHE_SIZE);
+	/**
+	 * Index of the names of every stored user, including the users the store keeps apart from the loaded ones.
+	 * Built when users are first searched by name.
+	 */
+	private UserNameIndex userNames;
+	/**
+	 * Whether loading has been started, so sessions sharing the manager load the data only once.
+	 */
+	private boolean loadStarted;
+	/**
+	 * Whether the store has finished loading, after which the sessions may use it.
+	 */
+	private boolean storeLoaded;
+	/**
+	 * Future of the machine changes saved while the store was loading, or null if there are none.
+	 */
+	private CompletableFuture<Void> pendingMachineWrite;
 
 	/**
-	 * Creates a new app data manager using the provided database.
+	 * Creates a new app data manager using the provided database as a binary store.
+	 * Recycler counters are kept in a stats table next to the database with the same name,
+	 * and the counters of the loaded recyclers are held off-heap if {@value #OFF_HEAP_STATS_PROPERTY} is set.
 	 *
-	 * @param userDatabase The path to the database (JSON)
+	 * @param userDatabase The path to the database (binary snapshot)
 	 */
 	public AppDataManager(String userDatabase) {
-		this.database = userDatabase;
+		this(userDatabase, Boolean.getBoolean(OFF_HEAP_STATS_PROPERTY));
+	}
+
+	/**
+	 * Creates a new app data manager using the provided database as a binary store.
+	 * Recycler counters are kept in a stats table next to the database with the same name.
+	 *
+	 * @param userDatabase The path to the database (binary snapshot)
+	 * @param offHeapStats Whether the counters of the loaded recyclers are held in an off-heap arena
+	 */
+	public AppDataManager(String userDatabase, boolean offHeapStats) {
+		this(
+				AppDataStoreFactory.createStore(AppDataStoreType.BINARY, userDatabase),
+				new RecyclerStatsTable(userDatabase.replaceFirst("\\.[^.\\\\/]*$", "") + ".stats", DurabilityPolicy.FSYNC_EVERY_COMMIT, 0),
+				offHeapStats ? new RecyclerStatsArena() : null
+		);
+	}
+
+	/**
+	 * Creates a new app data manager using the provided store.
+	 *
+	 * @param store The store that holds the application data
+	 */
+	public AppDataManager(AppDataStore store) {
+		this(store, null);
+	}
+
+	/**
+	 * Creates a new app data manager using the provided store and recycler stats table.
+	 *
+	 * @param store      The store that holds the application data
+	 * @param statsTable The table that holds the recycler counters, or null to store them with the users
+	 */
+	public AppDataManager(AppDataStore store, RecyclerStatsTable statsTable) {
+		this(store, statsTable, null);
+	}
+
+	/**
+	 * Creates a new app data manager using the provided store, recycler stats table and off-heap stats arena.
+	 *
+	 * @param store      The store that holds the application data
+	 * @param statsTable The table that holds the recycler counters, or null to store them with the users
+	 * @param statsArena The arena that holds the counters of the loaded recyclers, or null to keep them on the heap
+	 */
+	public AppDataManager(AppDataStore store, RecyclerStatsTable statsTable, RecyclerStatsArena statsArena) {
+		this.store = store;
+		this.statsTable = statsTable;
+		this.statsArena = statsArena;
+		store.setUnloadListener(this::unloadUser);
 	}
 
 	/**
@@ -72,57 +202,443 @@ public class AppDataManager {
 	}
 
 	/**
-	 * Updates data from appData to the database.
+	 * Flushes all the app data to the store, e.g. as a full snapshot.
+	 *
+	 * @return A future that completes once the data has been flushed
 	 */
-	void updateAppDataToJson() {
-		try (FileWriter writer = new FileWriter(getDatabase())) {
-			getGson().toJson(getAppData(), writer);
-		} catch (JsonIOException | IOException e) {
-			System.out.println(e.getMessage());
+	CompletableFuture<Void> flush() {
+		awaitAppData();
+		synchronized (this) {
+			return logFailure(store.flush());
 		}
 	}
 
 	/**
-	 * Loads data from database to the appData.
+	 * Stores the changes of a finished recycling session.
+	 * Counters of a recycler already in the stats table are written there in place, and the recycler is
+	 * marked changed in the store, which writes it with its next checkpoint. Other changed users are
+	 * upserted to the store. Machine state is stored separately.
+	 *
+	 * A changed user is stored only once the store has loaded, so saving one waits for the background load.
+	 *
+	 * @param user The user whose session ended
+	 * @return A future that completes once the changes have been written
+	 */
+	CompletableFuture<Void> saveChanges(User user) {
+		if (user.isDirty()) {
+			awaitAppData();
+		}
+		synchronized (this) {
+			return saveLoadedChanges(user);
+		}
+	}
+
+	private CompletableFuture<Void> saveLoadedChanges(User user) {
+		CompletableFuture<Void> machineWritten = saveMachineChanges();
+		if (!user.isDirty()) {
+			return machineWritten;
+		}
+		if (userNames != null) {
+			userNames.add(user);
+		}
+		if (user instanceof RegisteredRecycler recycler) {
+			snapshot.updateAndGet(current -> current.withRecycler(recycler));
+		}
+		if (user instanceof RegisteredRecycler recycler && updateStats(recycler)) {
+			CompletableFuture<Void> userMarked = logFailure(store.markUserChanged(user));
+			CompletableFuture<Void> statsSynced = logFailure(statsTable.whenSynced());
+			user.markClean();
+			return CompletableFuture.allOf(userMarked, statsSynced, machineWritten);
+		}
+		CompletableFuture<Void> userWritten = logFailure(store.upsertUser(user));
+		user.markClean();
+		return CompletableFuture.allOf(userWritten, machineWritten);
+	}
+
+	/**
+	 * Stores the changed machine state to the store, apart from the user data.
+	 * While the store is loading, the latest state is written once the loading has finished.
+	 *
+	 * @return A future that completes once the machine state has been written
 	 */
-	void loadJsonAppData() {
-		try (FileReader reader = new FileReader(getDatabase())) {
-			AppData appDataObj = getGson().fromJson(reader, AppData.class);
-			switch (appDataObj) {
-				case null -> System.out.println("Required data not found...");
-				default -> setAppData(appDataObj);
+	synchronized CompletableFuture<Void> saveMachineChanges() {
+		snapshot.updateAndGet(current -> current.withMachine(rvm));
+		if (loadStarted && !storeLoaded) {
+			if (pendingMachineWrite == null) {
+				pendingMachineWrite = new CompletableFuture<>();
 			}
-		} catch (FileNotFoundException e) {
-			System.out.println("Database not found: " + getDatabase());
-		} catch (JsonIOException | JsonSyntaxException | IOException e) {
-			System.out.println(e.getMessage());
+			return pendingMachineWrite;
+		}
+		return logFailure(store.updateMachineState(rvm));
+	}
+
+	/**
+	 * Lets the sessions use the store once it has finished loading, and writes the machine changes
+	 * saved meanwhile.
+	 */
+	private synchronized void finishStoreLoading() {
+		storeLoaded = true;
+		if (pendingMachineWrite != null) {
+			CompletableFuture<Void> pending = pendingMachineWrite;
+			pendingMachineWrite = null;
+			logFailure(store.updateMachineState(rvm)).whenComplete((result, e) -> {
+				if (e != null) {
+					pending.completeExceptionally(e);
+				} else {
+					pending.complete(null);
+				}
+			});
 		}
 	}
 
 	/**
-	 * Gets configured database (JSON).
+	 * Writes the counters of the recycler to the stats table.
+	 * A recycler new to the table is upserted to the store as well, so the store always knows every user.
 	 *
-	 * @return A string representing the path to the database (JSON)
+	 * @param recycler The recycler whose counters changed
+	 * @return True if the counters were written to the stats table
 	 */
-	public String getDatabase() {
-		return database;
+	private boolean updateStats(RegisteredRecycler recycler) {
+		if (statsTable == null) {
+			return false;
+		}
+		try {
+			if (statsTable.contains(recycler.getUserId())) {
+				return statsTable.update(recycler);
+			}
+			statsTable.update(recycler);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Failed to store recycler stats: " + e.getMessage());
+		}
+		return false;
 	}
 
 	/**
-	 * Gets app data.
+	 * Applies the counters of the stats table over a recycler read from the store.
+	 */
+	private User withStats(User user) {
+		if (statsTable != null && user instanceof RegisteredRecycler recycler) {
+			statsTable.apply(recycler);
+		}
+		return user;
+	}
+
+	/**
+	 * Prints the error of a failed background write.
 	 *
-	 * @return An AppData object that contains the all stored application data.
+	 * @param write Future of the write
+	 * @return A future that completes the same way as the given one
 	 */
-	public AppData getAppData() {
-		return appData;
+	private static CompletableFuture<Void> logFailure(CompletableFuture<Void> write) {
+		return write.whenComplete((result, e) -> {
+			if (e != null) {
+				System.out.println("Failed to store app data: " + e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * Waits for the queued writes and closes the store.
+	 */
+	@Override
+	public void close() {
+		awaitAppData();
+		synchronized (this) {
+			store.close();
+			if (statsTable != null) {
+				statsTable.close();
+			}
+			if (statsArena != null) {
+				statsArena.close();
+			}
+		}
+	}
+
+	/**
+	 * Loads data from the store to the appData, and applies the counters of the stats table over the loaded users.
+	 * If the stats table can't be opened, counters are stored with the users instead.
+	 * Counters of the loaded recyclers are then moved off-heap if a stats arena is used.
+	 * The data is loaded and prepared without the lock of the manager, which is taken only to take the data over,
+	 * so sessions can keep saving machine changes meanwhile.
+	 */
+	void loadAppData() {
+		AppData loadedData;
+		try {
+			loadedData = store.loadSnapshot();
+		} finally {
+			finishStoreLoading();
+		}
+		if (loadedData == null) {
+			System.out.println("Required data not found...");
+			return;
+		}
+		if (statsTable != null) {
+			try {
+				statsTable.open();
+				loadedData.getUserData().forEach(this::withStats);
+			} catch (IOException e) {
+				System.out.println("Recycler stats not available: " + e.getMessage());
+				statsTable = null;
+			}
+		}
+		if (statsArena != null) {
+			loadedData.getUserData().forEach(this::moveCountersOffHeap);
+		}
+		takeOverAppData(loadedData, AppDataSnapshot.of(loadedData, 0));
+	}
+
+	/**
+	 * Takes over the prepared app data, keeping the machine if it is already in use.
+	 */
+	private synchronized void takeOverAppData(AppData loadedData, AppDataSnapshot loadedSnapshot) {
+		if (rvm != null) {
+			// The machine may already be in use, so its state is newer than the loaded one
+			loadedData.setRvm(rvm);
+		}
+		appData = loadedData;
+		rvm = appData.getRvm();
+		snapshot.updateAndGet(current -> loadedSnapshot.succeeding(current, rvm));
+	}
+
+	/**
+	 * Loads the machine state and starts loading the users in the background.
+	 * If the store doesn't keep the machine state apart from the users, everything is loaded right away instead.
+	 * Reading the users waits until they have been loaded, and so do flushing and closing.
+	 * If another session has already started loading, its machine is returned.
+	 *
+	 * @return The loaded machine, or null if no data was found
+	 */
+	synchronized ReverseVendingMachine startLoadingAppData() {
+		if (loadStarted) {
+			return rvm;
+		}
+		loadStarted = true;
+		ReverseVendingMachine storedRvm = store.loadMachineState();
+		if (storedRvm == null) {
+			loadAppData();
+			return rvm;
+		}
+		rvm = storedRvm;
+		loading = CompletableFuture.runAsync(this::loadAppData, runnable -> {
+			Thread thread = new Thread(runnable, "app-data-loader");
+			thread.setDaemon(true);
+			thread.start();
+		}).whenComplete((result, e) -> {
+			if (e != null) {
+				System.out.println("Failed to load app data: " + e.getMessage());
+			}
+		});
+		return storedRvm;
+	}
+
+	/**
+	 * Loads all the app data unless another session has already started loading it, and waits until it has been loaded.
+	 *
+	 * @return The loaded machine, or null if no data was found
+	 */
+	ReverseVendingMachine ensureAppDataLoaded() {
+		synchronized (this) {
+			if (!loadStarted) {
+				loadStarted = true;
+				loadAppData();
+			}
+		}
+		awaitAppData();
+		return rvm;
+	}
+
+	/**
+	 * Checks whether the users have been loaded, i.e. reading them doesn't wait.
+	 *
+	 * @return True if the app data has been loaded
+	 */
+	public boolean isAppDataLoaded() {
+		return loading.isDone();
 	}
 
 	/**
-	 * Sets app data.
+	 * Waits until the app data loaded in the background has been loaded. Returns right away once it has.
+	 */
+	private void awaitAppData() {
+		try {
+			loading.join();
+		} catch (CompletionException | CancellationException e) {
+			// Already reported by the loader
+		}
+	}
+
+	/**
+	 * Moves the counters of a recycler to the off-heap arena, unless they are there already.
+	 * A recycler whose redeemed value doesn't fit in the arena keeps its counters on the heap.
+	 */
+	private void moveCountersOffHeap(User user) {
+		if (user instanceof RegisteredRecycler recycler && recycler.hasCountersOnHeap()
+				&& RecyclerStatsArena.canHold(recycler.getRedeemedTotalValue())) {
+			recycler.moveCounters(statsArena.allocate());
+		}
+	}
+
+	/**
+	 * Releases what the manager holds for a user the store removed from the loaded users, e.g. archived.
+	 * The user is dropped from the user cache, so the next lookup goes to the store and promotes the user back.
+	 * Counters held off-heap are moved back to the heap, so the arena slot can be reused.
+	 */
+	private void unloadUser(User user) {
+		userCache.invalidate(user.getUserId());
+		if (user instanceof RegisteredRecycler recycler) {
+			recycler.moveCountersToHeap();
+		}
+	}
+
+	/**
+	 * Attempts to get user by its user id, from the user cache if possible.
 	 *
-	 * @param appData Sets application data to provided AppData object.
+	 * @param userId Unique id of the user
+	 * @return An object representing the user, or null if no user has the given id
+	 */
+	public User getUserById(String userId) {
+		return userCache.get(userId, this::loadUser);
+	}
+
+	/**
+	 * Reads a user missing from the user cache from the store, once the store has loaded.
 	 */
-	public void setAppData(AppData appData) {
-		this.appData = appData;
+	private User loadUser(String userId) {
+		awaitAppData();
+		synchronized (this) {
+			User user = withStats(store.getUser(userId));
+			if (statsArena != null) {
+				// A recycler promoted back from the cold tier is read with its counters on the heap
+				moveCountersOffHeap(user);
+			}
+			return user;
+		}
+	}
+
+	/**
+	 * Gets the hit, miss and eviction statistics of the user cache.
+	 *
+	 * @return The statistics of the user cache
+	 */
+	public CacheStats getUserCacheStats() {
+		return userCache.stats();
+	}
+
+	/**
+	 * Checks quickly whether a user with the given id may exist, e.g. to reject a misread id without
+	 * looking it up. Doesn't wait for the users to load.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user has the given id, true if one may have it
+	 */
+	public synchronized boolean mightContainUser(String userId) {
+		if (loadStarted && !storeLoaded) {
+			// Only the loader uses the store while it is loading, and its filter is built last anyway
+			return true;
+		}
+		return store.mightContainUser(userId);
+	}
+
+	/**
+	 * Finds the stored users whose name starts with the given prefix, ignoring case, through a name index.
+	 * Users the store keeps apart from the loaded ones, such as the recyclers archived to the cold tier,
+	 * are found too, and are read through {@link #getUserById}.
+	 *
+	 * @param prefix The prefix of the names
+	 * @param limit  Largest number of users to return
+	 * @return The found users, in the order of their names
+	 * @throws IllegalStateException If the index can't be built because the stored users can't be read
+	 */
+	public List<User> findUsersByName(String prefix, int limit) {
+		awaitAppData();
+		synchronized (this) {
+			List<User> users = new ArrayList<>();
+			for (String userId : userNameIndex().search(prefix, limit)) {
+				User user = getUserById(userId);
+				if (user != null) {
+					users.add(user);
+				}
+			}
+			return users;
+		}
+	}
+
+	/**
+	 * Estimates the memory taken by the name index of the stored users, building the index if needed.
+	 *
+	 * @return Approximate number of bytes taken by the name index
+	 * @throws IllegalStateException If the index can't be built because the stored users can't be read
+	 */
+	public long getUserNameIndexFootprint() {
+		awaitAppData();
+		synchronized (this) {
+			return userNameIndex().getMemoryFootprint();
+		}
+	}
+
+	/**
+	 * Gets the name index of the stored users, building it from the loaded users and the users the store
+	 * keeps apart from them if it is missing. Users kept apart are added one by one, so they are not all held
+	 * in memory at once. Users saved later are added when their changes are saved. The app data must have been loaded.
+	 *
+	 * @return The name index of the stored users
+	 * @throws IllegalStateException If the users kept apart can't be read
+	 */
+	private UserNameIndex userNameIndex() {
+		if (userNames == null) {
+			UserNameIndex names = new UserNameIndex(appData.getUserData());
+			try {
+				store.forEachUnloadedUser(names::add);
+			} catch (IOException e) {
+				throw new IllegalStateException("User search is not available: " + e.getMessage(), e);
+			}
+			userNames = names;
+		}
+		return userNames;
+	}
+
+	/**
+	 * Exports all the stored application data to the given JSON file: the loaded users, and the users
+	 * the store keeps apart from them, such as the recyclers archived to the cold tier. Nothing is
+	 * written if the users kept apart can't be read, so an export never silently leaves users out.
+	 *
+	 * @param jsonFile The path to the JSON file
+	 */
+	public void exportJsonAppData(String jsonFile) {
+		awaitAppData();
+		synchronized (this) {
+			try {
+				ArrayList<User> users = new ArrayList<>(appData.getUserData());
+				store.forEachUnloadedUser(user -> users.add(withStats(user)));
+				JsonAppDataStore.writeJson(jsonFile, new AppData(appData.getRvm(), users));
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Gets the latest published snapshot of the app data, which holds the machine counters and
+	 * the totals of the loaded and saved recyclers. Recyclers archived to the cold tier are left out
+	 * until they are read again. The snapshot never changes, so it can be read from any thread while
+	 * sessions keep running.
+	 *
+	 * @return The latest snapshot
+	 */
+	public AppDataSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Gets app data. Its user data holds only the loaded users: stores may keep other users apart, such as
+	 * the recyclers archived to the cold tier, which are read through {@link #getUserById} and exported by
+	 * {@link #exportJsonAppData}. The users are changed as sessions save them, so other threads should read
+	 * {@link #getSnapshot()} instead, or hold the lock of this manager.
+	 *
+	 * @return An AppData object that contains the loaded application data.
+	 */
+	public AppData getAppData() {
+		awaitAppData();
+		return appData;
 	}
 }
@@ -20,6 +20,8 @@ package org.autumn24.managers;
 import org.autumn24.UserInterface;
 import org.autumn24.authentication.AuthenticatedUser;
 import org.autumn24.authentication.Authentication;
+import org.autumn24.authentication.LoginRateLimiter;
+import org.autumn24.authentication.UserLookup;
 import org.autumn24.enviromental_impact.EcoStatSelector;
 import org.autumn24.exceptions.InvalidItemSizeException;
 import org.autumn24.exceptions.InvalidOptionException;
@@ -29,12 +31,14 @@ import org.autumn24.items.ItemStatus;
 import org.autumn24.rvm.InactivityTimer;
 import org.autumn24.rvm.ReverseVendingMachine;
 import org.autumn24.rvm.enums.ReverseVendingMachineStatus;
+import org.autumn24.users.GuestRecycler;
 import org.autumn24.users.RegisteredRecycler;
 import org.autumn24.users.User;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
 
@@ -50,19 +54,35 @@ public class ApplicationManager {
 	/**
 	 * List containing items to recycle.
 	 */
-	private static final ArrayList<Item> items = new ArrayList<>();
+	private final ArrayList<Item> items = new ArrayList<>();
 	/**
 	 * Reverse vending machine to be managed.
 	 */
-	private static ReverseVendingMachine rvm;
+	private ReverseVendingMachine rvm;
 	/**
-	 * Manager that manages all the stored application data.
+	 * Manager that manages all the stored application data, possibly shared with other sessions.
 	 */
-	private static AppDataManager appDataManager;
+	private final AppDataManager appDataManager;
 	/**
-	 * Manager that manages the authentication and authorization of the app.
+	 * Whether the app data manager was created for this application, so it is closed when the application stops.
 	 */
-	private static AuthManager authManager;
+	private final boolean ownsAppData;
+	/**
+	 * Manager that manages the authentication and authorization of the session.
+	 */
+	private final AuthManager authManager;
+	/**
+	 * Largest number of users shown by a user search.
+	 */
+	private static final int USER_SEARCH_LIMIT = 20;
+	/**
+	 * Limiter of the login attempts of the machine, possibly shared with the other lanes of the machine.
+	 */
+	private final LoginRateLimiter loginRateLimiter;
+	/**
+	 * Authenticates the users of the session, created once the machine is known.
+	 */
+	private Authentication authentication;
 	/**
 	 * Boolean value representing is the app running or not.
 	 */
@@ -75,12 +95,67 @@ public class ApplicationManager {
 	 * User using the reverse vending machine.
 	 */
 	private User user;
+	/**
+	 * Whether the machine is started before the users have been loaded.
+	 */
+	private final boolean instantStart;
 
 	/**
 	 * Creates a new application manager with default values.
+	 * The machine is started before the users have been loaded.
 	 */
 	public ApplicationManager() {
-		appDataManager = new AppDataManager("appData.json");
+		this(true);
+	}
+
+	/**
+	 * Creates a new application manager.
+	 *
+	 * @param instantStart Whether the machine is started as soon as its state has been loaded, while the users
+	 *                     are loaded in the background. Otherwise, the machine is started once all the data has been loaded.
+	 */
+	public ApplicationManager(boolean instantStart) {
+		this(new AppDataManager("appData.bin"), new LoginRateLimiter(), true, instantStart);
+	}
+
+	/**
+	 * Creates a new application manager that shares the given app data manager, e.g. with the other lanes
+	 * of the same process. The data is loaded by the first session that starts, and the sessions use the machine
+	 * stored by the manager. The app data manager is only flushed when the application stops, as the caller closes it.
+	 *
+	 * @param appDataManager Manager of the stored application data
+	 * @param instantStart   Whether the machine is started before the users have been loaded
+	 */
+	public ApplicationManager(AppDataManager appDataManager, boolean instantStart) {
+		this(appDataManager, new LoginRateLimiter(), false, instantStart);
+	}
+
+	/**
+	 * Creates a new application manager that shares the given app data manager and login rate limiter
+	 * with the other lanes of the same machine, so the login attempts of all the lanes count towards the same limits.
+	 *
+	 * @param appDataManager   Manager of the stored application data
+	 * @param loginRateLimiter Limiter of the login attempts of the machine
+	 * @param instantStart     Whether the machine is started before the users have been loaded
+	 */
+	public ApplicationManager(AppDataManager appDataManager, LoginRateLimiter loginRateLimiter, boolean instantStart) {
+		this(appDataManager, loginRateLimiter, false, instantStart);
+	}
+
+	/**
+	 * Creates a new application manager.
+	 *
+	 * @param appDataManager   Manager of the stored application data
+	 * @param loginRateLimiter Limiter of the login attempts of the machine
+	 * @param ownsAppData      Whether the app data manager is closed when the application stops
+	 * @param instantStart     Whether the machine is started before the users have been loaded
+	 */
+	private ApplicationManager(AppDataManager appDataManager, LoginRateLimiter loginRateLimiter, boolean ownsAppData,
+	                           boolean instantStart) {
+		this.instantStart = instantStart;
+		this.appDataManager = appDataManager;
+		this.loginRateLimiter = loginRateLimiter;
+		this.ownsAppData = ownsAppData;
 		authManager = new AuthManager(appDataManager);
 		generateBottles(new ItemFactory());
 	}
@@ -90,7 +165,7 @@ public class ApplicationManager {
 	 *
 	 * @return A number representing the user choice from the menu.
 	 */
-	private static int getUserAction() {
+	private int getUserAction() {
 		if (!scanner.hasNextLine()) {
 			scanner.nextLine();
 			return 0;
@@ -105,14 +180,26 @@ public class ApplicationManager {
 	 * Does the necessary configurations and starts the main loop of the application.
 	 */
 	public void run() {
+		long startTime = System.nanoTime();
 		appRunning = true;
-		appDataManager.loadJsonAppData();
-		rvm = appDataManager.getAppData().getRvm();
+		if (instantStart) {
+			rvm = appDataManager.startLoadingAppData();
+		} else {
+			rvm = appDataManager.ensureAppDataLoaded();
+		}
 		rvm.startMachine();
-		user = AuthManager.getUserById("Guest");
+		authentication = new Authentication(authManager, loginRateLimiter, rvm.getRvmId());
+		// Guests don't need the user data, so a guest session doesn't wait for the users to load
+		user = appDataManager.isAppDataLoaded() ? authManager.getUserById("Guest") : new GuestRecycler();
+		System.out.printf("Ready to insert items in %d ms%s%n", (System.nanoTime() - startTime) / 1_000_000,
+				appDataManager.isAppDataLoaded() ? "" : ", users are loaded in the background");
 		inactivityTimer = new InactivityTimer(rvm);
 		inactivityTimer.resetTimer();
 		mainLoop();
+		appDataManager.flush();
+		if (ownsAppData) {
+			appDataManager.close();
+		}
 	}
 
 	/**
@@ -207,22 +294,40 @@ public class ApplicationManager {
 			switch (userInput) {
 				case 1 -> handleRvmEmptying();
 				case 2 -> {
-					user = AuthManager.getUserById("Guest");
-					AuthManager.setAuthenticatedUser(AuthenticatedUser.GUEST);
+					user = authManager.getUserById("Guest");
+					authManager.setAuthenticatedUser(AuthenticatedUser.GUEST);
 				}
+				case 3 -> handleUserSearch();
 				default -> throw new InvalidOptionException();
 			}
 		} else {
 			if (userInput == 1) {
 				System.out.println("Logging out...");
-				user = AuthManager.getUserById("Guest");
-				AuthManager.setAuthenticatedUser(AuthenticatedUser.GUEST);
+				user = authManager.getUserById("Guest");
+				authManager.setAuthenticatedUser(AuthenticatedUser.GUEST);
+				return;
+			}
+			if (userInput == 2) {
+				handleUserSearch();
 				return;
 			}
 			throw new InvalidOptionException();
 		}
 	}
 
+	/**
+	 * Handles employees user search action, which finds users by the start of their name.
+	 */
+	private void handleUserSearch() {
+		inactivityTimer.resetTimer();
+		System.out.print("Enter the start of a name: ");
+		String prefix = scanner.nextLine();
+		long searchStart = System.nanoTime();
+		List<User> users = appDataManager.findUsersByName(prefix.strip(), USER_SEARCH_LIMIT);
+		double searchMillis = (System.nanoTime() - searchStart) / 1_000_000.0;
+		UserInterface.displayUserSearchResults(users, searchMillis, appDataManager.getUserNameIndexFootprint());
+	}
+
 	/**
 	 * Handles users insert action.
 	 */
@@ -239,6 +344,7 @@ public class ApplicationManager {
 			return;
 		}
 		boolean successfullyRecycled = rvm.recycleItem(itemToRecycle);
+		appDataManager.saveMachineChanges();
 		if (!successfullyRecycled) {
 			return;
 		}
@@ -298,13 +404,13 @@ public class ApplicationManager {
 			System.out.print("=> ");
 			userId = scanner.nextLine();
 		}
-		boolean validUser = Authentication.userExists(userId);
-		if (!validUser) {
+		UserLookup lookup = authentication.lookup(userId);
+		if (lookup == null) {
 			System.out.println("User authentication failed...");
 			return;
 		}
-		Authentication.authenticateUser(userId);
-		user = AuthManager.getUserById(userId);
+		authManager.setAuthenticatedUser(lookup.role());
+		user = lookup.user();
 		System.out.println("User " + Objects.requireNonNull(user).getUserName() + " authenticated successfully.");
 		System.out.println("Role: " + user.getUserRole());
 	}
@@ -336,7 +442,7 @@ public class ApplicationManager {
 			System.out.println("Emptying all piles...");
 			rvm.recyclables.values().forEach(recyclableData -> recyclableData.setRecyclingLimitCounter((short) 0));
 			rvm.setRvmStatus(null);
-			appDataManager.updateAppDataToJson();
+			appDataManager.saveMachineChanges();
 			System.out.println("All piles cleared!");
 		} else {
 			System.out.println("Machine is already empty!");
@@ -390,7 +496,8 @@ public class ApplicationManager {
 					(short) items.size(),
 					rvm.recyclingSession.getRecyclingSessionRecycledAmount());
 		} else if (authManager.isLoggedInAsEmployee()) {
-			UserInterface.displayAdminMenu(rvm.IsMachineFull());
+			UserInterface.displayAdminMenu(rvm.IsMachineFull(), authManager.getUserCacheStats(),
+					loginRateLimiter.getRejectedByMachine(), loginRateLimiter.getRejectedByUser());
 		} else {
 			UserInterface.displayMenu(
 					rvm.recyclingSession.getRecyclingSessionTotalValue(),
@@ -401,7 +508,7 @@ public class ApplicationManager {
 	}
 
 	/**
-	 * Updates all the user app data to database (JSON).
+	 * Updates all the user app data and stores the session changes to the database journal.
 	 * Used when session is ending to store session specific data for users.
 	 */
 	private void updateAllUserAppData() {
@@ -432,7 +539,10 @@ public class ApplicationManager {
 			BigDecimal totalValueRecycled = recycler.getRedeemedTotalValue();
 			BigDecimal newTotalValueRecycled = totalValueRecycled.add(rvm.recyclingSession.getRecyclingSessionTotalValue());
 			recycler.setRedeemedTotalValue(newTotalValueRecycled);
+
+			// Keeps the user in the hot storage tier
+			recycler.setLastRecycledAt(System.currentTimeMillis());
 		}
-		appDataManager.updateAppDataToJson();
+		appDataManager.saveChanges(user);
 	}
 }
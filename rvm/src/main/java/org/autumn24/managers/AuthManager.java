@@ -18,17 +18,20 @@
 package org.autumn24.managers;
 
 import org.autumn24.authentication.AuthenticatedUser;
+import org.autumn24.cache.CacheStats;
 import org.autumn24.users.User;
 
-import java.util.ArrayList;
-
 /**
  * A class representing an authentication manager.
  * Used to manage authentication related stuff.
+ * <p>
+ * Each session (e.g. a lane or machine run in the same process) has its own manager, which holds the user
+ * authenticated in that session, so sessions authenticate independently of each other. Users are looked up
+ * through the user cache of the app data manager, which is shared by the sessions using the same manager.
  */
 public class AuthManager {
-	public static AppDataManager appDataManager;
-	private static AuthenticatedUser authenticatedUser;
+	private final AppDataManager appDataManager;
+	private AuthenticatedUser authenticatedUser;
 
 	/**
 	 * Creates a new authentication manager with given params.
@@ -36,22 +39,31 @@ public class AuthManager {
 	 * @param appDataManager Application data manager to use for fetching user data.
 	 */
 	public AuthManager(AppDataManager appDataManager) {
-		AuthManager.appDataManager = appDataManager;
+		this.appDataManager = appDataManager;
 		authenticatedUser = AuthenticatedUser.GUEST;
 	}
 
 	/**
-	 * Attempts to get user by its user id.
+	 * Attempts to get user by its user id, from the user cache if possible.
+	 * Ids that the store knows not to exist are rejected before the cache.
 	 *
 	 * @param userId Unique id of the user
 	 * @return An object representing the user
 	 */
-	public static User getUserById(String userId) {
-		ArrayList<User> userData = appDataManager.getAppData().getUserData();
-		return userData.stream()
-				.filter(user -> user.getUserId().equals(userId))
-				.findFirst()
-				.orElse(null);
+	public User getUserById(String userId) {
+		if (!appDataManager.mightContainUser(userId)) {
+			return null;
+		}
+		return appDataManager.getUserById(userId);
+	}
+
+	/**
+	 * Gets the hit, miss and eviction statistics of the user cache.
+	 *
+	 * @return The statistics of the user cache
+	 */
+	public CacheStats getUserCacheStats() {
+		return appDataManager.getUserCacheStats();
 	}
 
 	/**
@@ -59,8 +71,8 @@ public class AuthManager {
 	 *
 	 * @param authenticatedUser
 	 */
-	public static void setAuthenticatedUser(AuthenticatedUser authenticatedUser) {
-		AuthManager.authenticatedUser = authenticatedUser;
+	public void setAuthenticatedUser(AuthenticatedUser authenticatedUser) {
+		this.authenticatedUser = authenticatedUser;
 	}
 
 	/**
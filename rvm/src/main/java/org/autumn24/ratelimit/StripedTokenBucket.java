@@ -0,0 +1,110 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free token-bucket rate limiter keyed by strings.
+ * Keys are hashed to a fixed number of stripes, each of which is a token bucket, so the memory use doesn't
+ * depend on how many different keys are seen. Keys that share a stripe share its tokens.
+ * <p>
+ * The state of a bucket is packed into one long: the time of its latest refill and its tokens in thousandths.
+ * A bucket is refilled when a token is taken, and the new state is written with a compare-and-set,
+ * so rejecting an attempt only reads the state.
+ */
+public class StripedTokenBucket {
+	/**
+	 * Number of bits used by the tokens of a bucket, in thousandths of a token.
+	 */
+	private static final int TOKEN_BITS = 20;
+	private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+	private static final long MILLI_TOKENS = 1000;
+	/**
+	 * Largest number of tokens a bucket can hold.
+	 */
+	public static final int MAX_CAPACITY = (int) (TOKEN_MASK / MILLI_TOKENS);
+
+	private final AtomicLongArray buckets;
+	private final long capacity;
+	/**
+	 * Thousandths of a token added to a bucket per millisecond.
+	 */
+	private final double refillPerMilli;
+	private final long startNanos = System.nanoTime();
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * Creates a new limiter whose buckets start full.
+	 *
+	 * @param stripes         Number of buckets, rounded up to a power of two
+	 * @param capacity        Number of tokens a bucket holds, i.e. the largest allowed burst
+	 * @param tokensPerSecond Number of tokens added to a bucket per second
+	 */
+	public StripedTokenBucket(int stripes, int capacity, double tokensPerSecond) {
+		if (capacity < 1 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Bucket capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+		}
+		if (tokensPerSecond <= 0) {
+			throw new IllegalArgumentException("Refill rate must be positive: " + tokensPerSecond);
+		}
+		this.buckets = new AtomicLongArray(Integer.highestOneBit(Math.max(1, stripes - 1)) << 1);
+		this.capacity = capacity * MILLI_TOKENS;
+		this.refillPerMilli = tokensPerSecond;
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, this.capacity);
+		}
+	}
+
+	/**
+	 * Takes a token from the bucket of the key if it has one.
+	 *
+	 * @param key The key whose bucket is used
+	 * @return True if a token was taken, false if the attempt is rejected
+	 */
+	public boolean tryAcquire(String key) {
+		int hash = key.hashCode();
+		int stripe = (hash ^ (hash >>> 16)) & (buckets.length() - 1);
+		long now = (System.nanoTime() - startNanos) / 1_000_000;
+		while (true) {
+			long state = buckets.get(stripe);
+			long refilledAt = state >>> TOKEN_BITS;
+			// Another thread may have refilled the bucket after this one read the clock
+			long elapsed = Math.max(0, now - refilledAt);
+			long tokens = Math.min(capacity, (state & TOKEN_MASK) + (long) (elapsed * refillPerMilli));
+			if (tokens < MILLI_TOKENS) {
+				rejectedCount.increment();
+				return false;
+			}
+			long newState = (refilledAt + elapsed) << TOKEN_BITS | (tokens - MILLI_TOKENS);
+			if (buckets.compareAndSet(stripe, state, newState)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of attempts rejected so far.
+	 *
+	 * @return Number of rejected attempts
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+}
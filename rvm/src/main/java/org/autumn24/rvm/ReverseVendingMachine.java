@@ -81,7 +81,16 @@ public class ReverseVendingMachine implements Recycle, Donate {
 	 * Creates a new reverse vending machine with default values.
 	 */
 	public ReverseVendingMachine() {
-		rvmId = UUID.randomUUID().toString();
+		this(UUID.randomUUID().toString());
+	}
+
+	/**
+	 * Creates a reverse vending machine with the given id, used when restoring a stored machine.
+	 *
+	 * @param rvmId Unique id of the machine.
+	 */
+	public ReverseVendingMachine(String rvmId) {
+		this.rvmId = rvmId;
 		rvmFnStatus = ReverseVendingMachineFunctionalStatus.OPERATIONAL;
 		rvmPwStatus = ReverseVendingMachinePowerStatus.OFF;
 		recyclingSession = new RecyclingSessionData();
@@ -0,0 +1,357 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import com.google.gson.Gson;
+import org.autumn24.data.AppData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only journal of application data changes.
+ * A session close only appends a small record instead of rewriting the whole application data.
+ * Records are written by a background flusher.
+ * <p>
+ * Every record is a binary frame: a marker byte, the varint length of the payload, the payload and
+ * its checksum. The payload holds the record type and a compact user record, machine counters or
+ * a generation. Journals written as JSON lines are still replayed, and may continue with binary frames.
+ * <p>
+ * A checkpoint keeps the ended journal as the journal of the previous checkpoint. A full snapshot checkpoint
+ * also keeps it as the base journal, which leads from the previous full snapshot up to the new one.
+ */
+public class AppDataJournal implements AutoCloseable {
+	/**
+	 * First byte of a binary frame. A JSON line starts with '{' instead.
+	 */
+	private static final byte FRAME_MARKER = (byte) 0xB1;
+
+	private final Path journalFile;
+	private final Gson gson;
+	private final PersistenceFlusher flusher;
+	/**
+	 * Number of records written since the latest checkpoint.
+	 */
+	private int recordCount;
+
+	/**
+	 * Creates a new journal using the provided file.
+	 *
+	 * @param journalFile        The path to the journal file
+	 * @param gson               Gson object used to read the records of journals written as JSON lines
+	 * @param policy             Durability policy of the journal writes
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public AppDataJournal(String journalFile, Gson gson, DurabilityPolicy policy, long syncIntervalMillis) {
+		this.journalFile = Path.of(journalFile);
+		this.gson = gson;
+		this.flusher = new PersistenceFlusher(this.journalFile, policy, syncIntervalMillis);
+	}
+
+	/**
+	 * Appends the given record to the end of the journal.
+	 * The record is serialized right away, so later changes to the data don't affect it.
+	 *
+	 * @param record The record to append
+	 * @return A future that completes once the record has been written
+	 */
+	public CompletableFuture<Void> append(JournalRecord record) {
+		byte[] frame = toFrame(record);
+		recordCount++;
+		return flusher.append(frame);
+	}
+
+	/**
+	 * Replays the journaled changes on top of a snapshot of the given generation.
+	 * The journal kept from the previous checkpoint is replayed first, so a fallback to the previous
+	 * snapshot generation still recovers every change. Each journal starts with a checkpoint record,
+	 * and is replayed only if it continues from the generation reached so far.
+	 *
+	 * @param appData            App data loaded from the snapshot
+	 * @param snapshotGeneration Generation of the loaded snapshot
+	 * @throws IOException If the journal can't be read
+	 */
+	public void replay(AppData appData, long snapshotGeneration) throws IOException {
+		long generation = replayFile(previousGeneration(), appData, snapshotGeneration);
+		recordCount = 0;
+		replayFile(journalFile, appData, generation);
+	}
+
+	/**
+	 * Gets the generation of the snapshot the current journal continues from, read from its checkpoint record.
+	 * A journal started before the first snapshot continues from generation 0.
+	 *
+	 * @return The generation, or -1 if there is no readable journal
+	 * @throws IOException If the journal can't be read
+	 */
+	public long currentGeneration() throws IOException {
+		return generationOf(journalFile);
+	}
+
+	/**
+	 * Replays the kept journal that continues from the given generation, if there is one: the current journal,
+	 * the journal of the previous checkpoint or the base journal kept by the latest full snapshot checkpoint.
+	 * Only the records of the current journal count towards the next checkpoint.
+	 *
+	 * @param appData    App data at the given generation
+	 * @param generation Generation reached so far
+	 * @return The generation reached after the replayed journal, or the given one if no journal continues from it
+	 * @throws IOException If a journal can't be read
+	 */
+	public long replayNext(AppData appData, long generation) throws IOException {
+		for (Path file : List.of(journalFile, previousGeneration(), baseJournal())) {
+			if (generationOf(file) == generation) {
+				if (file.equals(journalFile)) {
+					recordCount = 0;
+				}
+				return replayFile(file, appData, generation);
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * Reads the generation a journal file continues from.
+	 *
+	 * @return The generation, or -1 if the file is missing or its first record can't be read
+	 */
+	private long generationOf(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return -1;
+		}
+		List<JournalRecord> records = readRecords(file);
+		if (records.isEmpty()) {
+			return -1;
+		}
+		JournalRecord first = records.getFirst();
+		return first.type() == JournalRecordType.CHECKPOINT ? first.generation() : 0;
+	}
+
+	/**
+	 * Replays a single journal file. Replaying stops at the first unreadable record,
+	 * which is the torn tail of an interrupted write. A journal without a checkpoint record
+	 * was started before the first snapshot, which has generation 0.
+	 *
+	 * @return The generation reached after the file, which the next journal must continue from
+	 */
+	private long replayFile(Path file, AppData appData, long generation) throws IOException {
+		if (!Files.exists(file)) {
+			return generation;
+		}
+		boolean firstRecord = true;
+		long journalGeneration = 0;
+		for (JournalRecord record : readRecords(file)) {
+			if (firstRecord) {
+				firstRecord = false;
+				journalGeneration = record.type() == JournalRecordType.CHECKPOINT ? record.generation() : 0;
+				if (journalGeneration != generation) {
+					// Changes are already included in the loaded snapshot
+					return generation;
+				}
+			}
+			switch (record.type()) {
+				case USER -> {
+					appData.putUser(record.user());
+					recordCount++;
+				}
+				case MACHINE -> {
+					appData.getRvm().recyclables.putAll(record.recyclables());
+					recordCount++;
+				}
+				case CHECKPOINT -> {
+				}
+			}
+		}
+		return journalGeneration == generation ? generation + 1 : generation;
+	}
+
+	/**
+	 * Reads the records of a journal file, which may hold both JSON lines and binary frames.
+	 * Reading stops at the first record that is truncated, fails its checksum or can't be parsed.
+	 */
+	private List<JournalRecord> readRecords(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		List<JournalRecord> records = new ArrayList<>();
+		while (buffer.hasRemaining()) {
+			JournalRecord record;
+			try {
+				record = buffer.get(buffer.position()) == FRAME_MARKER ? readFrame(buffer) : readLine(buffer);
+			} catch (IOException | RuntimeException e) {
+				System.out.println("Ignoring unreadable journal tail: " + e.getMessage());
+				break;
+			}
+			if (record == null || record.type() == null) {
+				break;
+			}
+			records.add(record);
+		}
+		return records;
+	}
+
+	/**
+	 * Reads a record written as a JSON line.
+	 */
+	private JournalRecord readLine(ByteBuffer buffer) {
+		int start = buffer.position();
+		int end = start;
+		while (end < buffer.limit() && buffer.get(end) != '\n') {
+			end++;
+		}
+		buffer.position(Math.min(end + 1, buffer.limit()));
+		return gson.fromJson(new String(buffer.array(), start, end - start, StandardCharsets.UTF_8), JournalRecord.class);
+	}
+
+	/**
+	 * Reads a record written as a binary frame.
+	 */
+	private static JournalRecord readFrame(ByteBuffer buffer) throws IOException {
+		buffer.get();
+		int length = Math.toIntExact(BinarySnapshot.readVarLong(buffer));
+		if (length < 0 || buffer.remaining() < length + Integer.BYTES) {
+			throw new IOException("Truncated journal record");
+		}
+		ByteBuffer payload = buffer.slice(buffer.position(), length);
+		buffer.position(buffer.position() + length);
+		CRC32C checksum = new CRC32C();
+		checksum.update(payload.duplicate());
+		if ((int) checksum.getValue() != buffer.getInt()) {
+			throw new IOException("Checksum mismatch in journal record");
+		}
+		JournalRecordType type = JournalRecordType.values()[payload.get()];
+		return switch (type) {
+			case USER -> JournalRecord.ofUser(BinarySnapshot.decodeUser(payload, BinarySnapshot.VERSION));
+			case MACHINE -> new JournalRecord(type, null, BinarySnapshot.readRecyclables(payload), 0);
+			case CHECKPOINT -> JournalRecord.ofCheckpoint(BinarySnapshot.readVarLong(payload));
+		};
+	}
+
+	/**
+	 * Writes a full snapshot with the given task and starts a new journal once the snapshot is written.
+	 * The task runs on the flusher thread after all the previously appended records. The current journal
+	 * is kept next to the previous snapshot generation, so that generation stays recoverable.
+	 *
+	 * @param generation     Generation of the snapshot being written
+	 * @param snapshotWriter Task that writes the snapshot
+	 * @return A future that completes once the snapshot has been written and the journal emptied
+	 */
+	public CompletableFuture<Void> checkpoint(long generation, PersistenceFlusher.LogTask snapshotWriter) {
+		return checkpoint(generation, false, snapshotWriter);
+	}
+
+	/**
+	 * Writes a snapshot with the given task and starts a new journal once the snapshot is written, as
+	 * {@link #checkpoint(long, PersistenceFlusher.LogTask)} does. If the snapshot is a full snapshot that
+	 * replaces the previous one, the ended journal is kept as the base journal before the snapshot is written.
+	 *
+	 * @param generation     Generation of the snapshot being written
+	 * @param keepAsBase     Whether the ended journal is kept as the base journal
+	 * @param snapshotWriter Task that writes the snapshot
+	 * @return A future that completes once the snapshot has been written and the journal emptied
+	 */
+	public CompletableFuture<Void> checkpoint(long generation, boolean keepAsBase, PersistenceFlusher.LogTask snapshotWriter) {
+		recordCount = 0;
+		byte[] checkpointFrame = toFrame(JournalRecord.ofCheckpoint(generation));
+		return flusher.submit(channel -> {
+			if (keepAsBase) {
+				channel.force(true);
+				BinarySnapshot.copy(journalFile, baseJournal());
+			}
+			snapshotWriter.run(channel);
+			channel.force(true);
+			Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+			Files.copy(journalFile, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tempFile, previousGeneration(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap(checkpointFrame));
+			channel.force(true);
+		});
+	}
+
+	/**
+	 * Gets the path where the journal of the previous snapshot generation is kept.
+	 *
+	 * @return The path to the previous journal
+	 */
+	private Path previousGeneration() {
+		return journalFile.resolveSibling(journalFile.getFileName() + ".prev");
+	}
+
+	/**
+	 * Gets the path where the journal that ended with the latest full snapshot is kept.
+	 *
+	 * @return The path to the base journal
+	 */
+	private Path baseJournal() {
+		return journalFile.resolveSibling(journalFile.getFileName() + ".base");
+	}
+
+	/**
+	 * Encodes a record as a binary frame. The type is stored by its ordinal, so new types are added last.
+	 */
+	private static byte[] toFrame(JournalRecord record) {
+		ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+		ByteArrayOutputStream frameBytes = new ByteArrayOutputStream();
+		try {
+			DataOutputStream payload = new DataOutputStream(payloadBytes);
+			payload.writeByte(record.type().ordinal());
+			switch (record.type()) {
+				case USER -> payload.write(BinarySnapshot.encodeUser(record.user(), BinarySnapshot.VERSION));
+				case MACHINE -> BinarySnapshot.writeRecyclables(payload, record.recyclables());
+				case CHECKPOINT -> BinarySnapshot.writeVarLong(payload, record.generation());
+			}
+			CRC32C checksum = new CRC32C();
+			checksum.update(payloadBytes.toByteArray());
+			DataOutputStream frame = new DataOutputStream(frameBytes);
+			frame.writeByte(FRAME_MARKER);
+			BinarySnapshot.writeVarLong(frame, payloadBytes.size());
+			payloadBytes.writeTo(frame);
+			frame.writeInt((int) checksum.getValue());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return frameBytes.toByteArray();
+	}
+
+	/**
+	 * Writes the remaining records and closes the journal.
+	 */
+	@Override
+	public void close() {
+		flusher.close();
+	}
+
+	/**
+	 * Gets the number of records written since the latest checkpoint.
+	 *
+	 * @return Number of records in the journal
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Storage backend of the application data.
+ * The app data manager reads and writes the data only through this interface,
+ * so the storage format can be changed without touching the rest of the application.
+ * Writes may be done in the background, so they return futures that complete once the data has been stored.
+ */
+public interface AppDataStore extends AutoCloseable {
+	/**
+	 * Loads the stored application data.
+	 * The returned object stays owned by the store, and later changes are stored through this interface.
+	 *
+	 * @return The loaded app data, or null if no data was found
+	 */
+	AppData loadSnapshot();
+
+	/**
+	 * Loads only the stored state of the reverse vending machine, so the machine can be started
+	 * before the users have been loaded. Stores that keep the machine state with the users return null.
+	 *
+	 * @return The stored machine, or null if it can't be loaded apart from the users
+	 */
+	default ReverseVendingMachine loadMachineState() {
+		return null;
+	}
+
+	/**
+	 * Gets a user by its user id.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	User getUser(String userId);
+
+	/**
+	 * Passes every stored user that is not in the loaded user data to the consumer, such as the users
+	 * archived to a cold tier. Stores that keep every user in the user data pass none.
+	 *
+	 * @param consumer Consumer of the users
+	 * @throws IOException If the users can't be read
+	 */
+	default void forEachUnloadedUser(Consumer<User> consumer) throws IOException {
+	}
+
+	/**
+	 * Registers a listener that is told of every user the store removes from the loaded user data by itself,
+	 * such as a recycler archived to a cold tier, before the user is written elsewhere.
+	 * Stores that never remove users by themselves don't call it.
+	 *
+	 * @param listener Listener of the unloaded users
+	 */
+	default void setUnloadListener(Consumer<User> listener) {
+	}
+
+	/**
+	 * Checks quickly whether a user with the given id may exist, without looking the user up.
+	 * Stores that keep a filter of the user ids use it to reject unknown ids, other stores answer true.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user has the given id, true if one may have it
+	 */
+	default boolean mightContainUser(String userId) {
+		return true;
+	}
+
+	/**
+	 * Stores a user, adding it to the user data if it doesn't exist yet.
+	 *
+	 * @param user The user to store
+	 * @return A future that completes once the user has been stored
+	 */
+	CompletableFuture<Void> upsertUser(User user);
+
+	/**
+	 * Marks a user as changed when the change has already been made durable elsewhere, such as recycler
+	 * counters written to the stats table, so the store doesn't need to log it. The user is still written
+	 * with the next checkpoint, so the store never depends on the other copy. Stores without checkpoints
+	 * store the user right away.
+	 *
+	 * @param user The changed user
+	 * @return A future that completes once the change has been accepted
+	 */
+	default CompletableFuture<Void> markUserChanged(User user) {
+		return upsertUser(user);
+	}
+
+	/**
+	 * Stores the state of the reverse vending machine.
+	 *
+	 * @param rvm The reverse vending machine
+	 * @return A future that completes once the machine state has been stored
+	 */
+	CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm);
+
+	/**
+	 * Writes all the stored data to its final place, e.g. as a full snapshot.
+	 *
+	 * @return A future that completes once the data has been flushed
+	 */
+	CompletableFuture<Void> flush();
+
+	/**
+	 * Waits for the queued writes and releases the resources of the store.
+	 */
+	@Override
+	void close();
+}
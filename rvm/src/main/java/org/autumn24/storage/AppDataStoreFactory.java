@@ -0,0 +1,39 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+/**
+ * Used to create app data stores based on the chosen backend.
+ */
+public class AppDataStoreFactory {
+	/**
+	 * @param storeType The chosen storage backend
+	 * @param database  The path to the database of the backend
+	 * @return The app data store
+	 */
+	public static AppDataStore createStore(AppDataStoreType storeType, String database) {
+		return switch (storeType) {
+			case IN_MEMORY -> new InMemoryAppDataStore();
+			case JSON -> new JsonAppDataStore(database);
+			case BINARY -> new BinaryAppDataStore(database);
+			case INDEXED -> new IndexedAppDataStore(database);
+			case LSM -> new LsmAppDataStore(database);
+			case SHARDED -> new ShardedAppDataStore(database);
+		};
+	}
+}
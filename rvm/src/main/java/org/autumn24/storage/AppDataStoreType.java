@@ -0,0 +1,48 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+/**
+ * Available storage backends of the application data.
+ */
+public enum AppDataStoreType {
+	/**
+	 * Data is kept only in memory and lost when the application stops.
+	 */
+	IN_MEMORY,
+	/**
+	 * Data is stored as a single JSON file that is rewritten on every change.
+	 */
+	JSON,
+	/**
+	 * Data is stored as a binary snapshot and a journal of the changes made after it.
+	 */
+	BINARY,
+	/**
+	 * Data is stored as a binary snapshot and a journal, and users are read on demand through an on-disk index.
+	 */
+	INDEXED,
+	/**
+	 * Users are stored in a log-structured merge tree and read on demand by their id.
+	 */
+	LSM,
+	/**
+	 * Users are partitioned by their id into binary snapshot and journal shards that are written in parallel.
+	 */
+	SHARDED
+}
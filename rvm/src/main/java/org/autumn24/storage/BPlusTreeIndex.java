@@ -0,0 +1,319 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk B+tree that maps string keys to long values.
+ * The tree is bulk loaded from sorted entries and never modified afterward, so its pages are packed full.
+ * Pages are read through an LRU page cache, so a lookup costs at most one page read per tree level.
+ * <p>
+ * Page 0 is the header: magic, version, generation, root page, height and entry count.
+ * Leaf pages hold keys with their values, and branch pages hold their first child followed by
+ * the first key and page of every other child.
+ */
+public class BPlusTreeIndex implements AutoCloseable {
+	/**
+	 * Magic number at the start of an index file ("RVBX").
+	 */
+	private static final int MAGIC = 0x52564258;
+	private static final short VERSION = 1;
+	static final int PAGE_SIZE = 4096;
+	private static final byte LEAF = 0;
+	private static final byte BRANCH = 1;
+	/**
+	 * Bytes of a page available for the entries, the rest holds the page checksum.
+	 */
+	private static final int PAGE_CAPACITY = PAGE_SIZE - Integer.BYTES;
+	private static final int MAX_KEY_BYTES = 1024;
+
+	private final FileChannel channel;
+	private final PageCache pageCache;
+	private final long generation;
+	private final int rootPage;
+	private final int height;
+	private final long entryCount;
+
+	private BPlusTreeIndex(FileChannel channel, int cachedPages) throws IOException {
+		this.channel = channel;
+		this.pageCache = new PageCache(channel, PAGE_SIZE, cachedPages);
+		ByteBuffer header = pageCache.read(0);
+		if (header.getInt() != MAGIC || header.getShort() != VERSION) {
+			throw new IOException("Not an index file");
+		}
+		this.generation = header.getLong();
+		this.rootPage = header.getInt();
+		this.height = header.getInt();
+		this.entryCount = header.getLong();
+	}
+
+	/**
+	 * Opens an existing index file.
+	 *
+	 * @param indexFile   The path to the index file
+	 * @param cachedPages Maximum number of pages kept in the page cache
+	 * @return The opened index
+	 * @throws IOException If the file can't be read or is not a valid index
+	 */
+	public static BPlusTreeIndex open(Path indexFile, int cachedPages) throws IOException {
+		FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ);
+		try {
+			return new BPlusTreeIndex(channel, cachedPages);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Bulk loads a new index file from sorted entries and opens it.
+	 * The index is written to a temporary file first and atomically renamed over the given file.
+	 *
+	 * @param indexFile   The path to the index file
+	 * @param generation  Generation of the data the index was built from
+	 * @param entries     Entries in ascending key order with unique keys
+	 * @param cachedPages Maximum number of pages kept in the page cache of the opened index
+	 * @return The written index
+	 * @throws IOException If the index can't be written
+	 */
+	public static BPlusTreeIndex write(Path indexFile, long generation, Iterator<Map.Entry<String, Long>> entries, int cachedPages) throws IOException {
+		Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			PageWriter writer = new PageWriter(channel);
+			long entryCount = 0;
+			List<Map.Entry<String, Integer>> level = new ArrayList<>();
+			ByteBuffer page = writer.newPage(LEAF);
+			String firstKey = null;
+			while (entries.hasNext()) {
+				Map.Entry<String, Long> entry = entries.next();
+				byte[] key = keyBytes(entry.getKey());
+				if (page.remaining() < Short.BYTES + key.length + Long.BYTES) {
+					level.add(Map.entry(firstKey, writer.write(page)));
+					page = writer.newPage(LEAF);
+					firstKey = null;
+				}
+				if (firstKey == null) {
+					firstKey = entry.getKey();
+				}
+				page.putShort((short) key.length).put(key).putLong(entry.getValue());
+				PageWriter.countEntry(page);
+				entryCount++;
+			}
+			level.add(Map.entry(firstKey == null ? "" : firstKey, writer.write(page)));
+			int height = 1;
+			while (level.size() > 1) {
+				level = writeBranches(writer, level);
+				height++;
+			}
+			ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE)
+					.putInt(MAGIC)
+					.putShort(VERSION)
+					.putLong(generation)
+					.putInt(level.getFirst().getValue())
+					.putInt(height)
+					.putLong(entryCount);
+			PageCache.seal(header);
+			writer.write(header.clear(), 0);
+			channel.force(true);
+		}
+		Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		BinarySnapshot.syncDirectory(indexFile.toAbsolutePath().getParent());
+		return open(indexFile, cachedPages);
+	}
+
+	/**
+	 * Writes the branch pages of the level above the given pages.
+	 *
+	 * @return The first key and page of every written branch page
+	 */
+	private static List<Map.Entry<String, Integer>> writeBranches(PageWriter writer, List<Map.Entry<String, Integer>> children) throws IOException {
+		List<Map.Entry<String, Integer>> branches = new ArrayList<>();
+		ByteBuffer page = null;
+		String firstKey = null;
+		for (Map.Entry<String, Integer> child : children) {
+			byte[] key = keyBytes(child.getKey());
+			if (page != null && page.remaining() < Short.BYTES + key.length + Integer.BYTES) {
+				branches.add(Map.entry(firstKey, writer.write(page)));
+				page = null;
+			}
+			if (page == null) {
+				page = writer.newPage(BRANCH);
+				page.putInt(child.getValue());
+				firstKey = child.getKey();
+				continue;
+			}
+			page.putShort((short) key.length).put(key).putInt(child.getValue());
+			PageWriter.countEntry(page);
+		}
+		branches.add(Map.entry(firstKey, writer.write(page)));
+		return branches;
+	}
+
+	/**
+	 * Looks up the value of a key.
+	 *
+	 * @param key The key to look up
+	 * @return The value, or -1 if the index doesn't contain the key
+	 * @throws IOException If a page can't be read or fails its checksum
+	 */
+	public long get(String key) throws IOException {
+		int pageNumber = rootPage;
+		for (int level = 1; level < height; level++) {
+			ByteBuffer page = pageCache.read(pageNumber);
+			if (page.get() != BRANCH) {
+				throw new IOException("Expected a branch page: " + pageNumber);
+			}
+			int separatorCount = page.getShort();
+			pageNumber = page.getInt();
+			for (int i = 0; i < separatorCount; i++) {
+				int comparison = compareKey(page, key);
+				int child = page.getInt();
+				if (comparison > 0) {
+					break;
+				}
+				pageNumber = child;
+			}
+		}
+		ByteBuffer page = pageCache.read(pageNumber);
+		if (page.get() != LEAF) {
+			throw new IOException("Expected a leaf page: " + pageNumber);
+		}
+		int keyCount = page.getShort();
+		for (int i = 0; i < keyCount; i++) {
+			int comparison = compareKey(page, key);
+			long value = page.getLong();
+			if (comparison == 0) {
+				return value;
+			}
+			if (comparison > 0) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the key at the position of the page and compares it to the target key, leaving the page after the key.
+	 * Keys are compared by their UTF-16 code units, the same order as {@link String#compareTo(String)}.
+	 *
+	 * @return Negative, zero or positive as the key is before, equal to or after the target
+	 */
+	private static int compareKey(ByteBuffer page, String target) {
+		byte[] key = new byte[page.getShort()];
+		page.get(key);
+		return new String(key, StandardCharsets.UTF_8).compareTo(target);
+	}
+
+	private static byte[] keyBytes(String key) {
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_KEY_BYTES) {
+			throw new IllegalArgumentException("Index key is too long: " + bytes.length + " bytes");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the generation of the data the index was built from.
+	 *
+	 * @return The generation of the index
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the number of entries in the index.
+	 *
+	 * @return The number of entries
+	 */
+	public long size() {
+		return entryCount;
+	}
+
+	/**
+	 * Closes the index file.
+	 */
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes pages one after another, starting after the header page.
+	 */
+	private static class PageWriter {
+		private final FileChannel channel;
+		private int nextPage = 1;
+
+		PageWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		ByteBuffer newPage(byte type) {
+			ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE).limit(PAGE_CAPACITY);
+			page.put(type).putShort((short) 0);
+			return page;
+		}
+
+		/**
+		 * Increases the entry count in the header of the page.
+		 */
+		static void countEntry(ByteBuffer page) {
+			page.putShort(Byte.BYTES, (short) (page.getShort(Byte.BYTES) + 1));
+		}
+
+		/**
+		 * Seals the page with its checksum and writes it as the next page.
+		 *
+		 * @return Number of the written page
+		 */
+		int write(ByteBuffer page) throws IOException {
+			PageCache.seal(page.clear());
+			int pageNumber = nextPage++;
+			write(page, pageNumber);
+			return pageNumber;
+		}
+
+		void write(ByteBuffer page, int pageNumber) throws IOException {
+			long position = (long) pageNumber * PAGE_SIZE;
+			while (page.hasRemaining()) {
+				channel.write(page, position + page.position());
+			}
+		}
+	}
+}
@@ -0,0 +1,683 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import com.google.gson.Gson;
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+import org.autumn24.utils.PersistenceCodecs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * An app data store that keeps the data as a binary snapshot and a journal of the changes made after it.
+ * Machine state is kept in its own store. If no snapshot exists yet, data is imported from
+ * a JSON file with the same name. All the writes are done in the background.
+ * <p>
+ * A checkpoint writes a delta snapshot of the users changed since the latest full snapshot, until the changes
+ * grow large enough to be written as a new full snapshot. The user records of the snapshots can be compressed.
+ * <p>
+ * Recyclers that have not recycled anything for a configured period are moved from the snapshot
+ * to a compressed cold archive on checkpoints, which keeps the loaded users and the written snapshots small.
+ * An archived user is promoted back to the snapshot when it is looked up.
+ * <p>
+ * The ids of the loaded and archived users are kept in a {@link UserIdFilter}, so lookups of unknown ids
+ * are rejected without searching the cold archive.
+ * <p>
+ * The loaded data is read and changed under the lock of the store, which the checkpoint tasks of the
+ * flusher take too.
+ */
+public class BinaryAppDataStore implements AppDataStore {
+	/**
+	 * Gson object used to replay journals written as JSON lines.
+	 */
+	private static final Gson journalGson = PersistenceCodecs.gsonBuilder().create();
+	/**
+	 * Number of journal records after which a snapshot (checkpoint) is written.
+	 */
+	private static final int CHECKPOINT_INTERVAL = 100;
+	/**
+	 * How long machine state updates are coalesced before they are written.
+	 */
+	private static final long MACHINE_FLUSH_INTERVAL_MS = 500;
+	/**
+	 * How long a recycler may go without recycling before it is moved to the cold archive by default.
+	 */
+	private static final Duration DEFAULT_COLD_AFTER = Duration.ofDays(180);
+	/**
+	 * How often checkpoints look for idle recyclers to archive, at most. Shorter tiering periods are used as is.
+	 */
+	private static final Duration ARCHIVE_INTERVAL = Duration.ofHours(1);
+	/**
+	 * A full snapshot is written instead of a delta once more than 1/n of the users have changed since the latest one.
+	 */
+	private static final int FULL_SNAPSHOT_RATIO = 8;
+
+	private final Path snapshotFile;
+	/**
+	 * File of the delta snapshot that holds the changes made since the latest full snapshot.
+	 */
+	private final Path deltaFile;
+	/**
+	 * File of the latest delta over the previous full snapshot, kept when a full snapshot replaces it.
+	 */
+	private final Path baseDeltaFile;
+	/**
+	 * JSON file the data is imported from when no snapshot exists yet.
+	 */
+	private final String jsonDatabase;
+	/**
+	 * Journal that stores changes made after the latest snapshot.
+	 */
+	private final AppDataJournal journal;
+	/**
+	 * Store that holds the machine state apart from the user data.
+	 */
+	private final MachineStateStore machineStore;
+	/**
+	 * Archive of the users moved to the cold tier.
+	 */
+	private final ColdUserArchive coldArchive;
+	/**
+	 * How long a recycler may be idle before it is archived, or null if users are never archived.
+	 */
+	private final Duration coldAfter;
+	/**
+	 * When idle recyclers were last looked for, 0 if not since the data was loaded.
+	 */
+	private long lastArchiveMillis;
+	/**
+	 * Users removed from the app data whose archive has not been written yet.
+	 */
+	private final Map<String, User> archiving = new ConcurrentHashMap<>();
+	/**
+	 * Listener told of the recyclers removed from the app data to be archived.
+	 */
+	private volatile Consumer<User> unloadListener = user -> {
+	};
+	/**
+	 * Whether the user records of the snapshots are compressed.
+	 */
+	private final boolean compressed;
+	/**
+	 * Wanted false positive probability of the user id filter.
+	 */
+	private final double userFilterFalsePositiveProbability;
+	/**
+	 * Filter of the ids of the loaded and archived users, or null until the data has been loaded.
+	 */
+	private volatile UserIdFilter userIdFilter;
+	/**
+	 * Ids of the users changed, added or removed since the latest full snapshot.
+	 */
+	private final Set<String> changedSinceFull = new HashSet<>();
+	/**
+	 * Number of users marked changed without a journal record since the latest checkpoint.
+	 */
+	private int unjournaledChanges;
+	private AppData appData;
+	/**
+	 * Generation of the latest snapshot, 0 when the data was imported from JSON.
+	 */
+	private long generation;
+	/**
+	 * Generation of the latest full snapshot, or -1 if the data was not loaded from one.
+	 */
+	private long fullGeneration = -1;
+	/**
+	 * Generation of the latest full snapshot written by the flusher. A delta is written only over a written base.
+	 */
+	private volatile long writtenFullGeneration = -1;
+	/**
+	 * Whether the next checkpoint must write a full snapshot, e.g. because a checkpoint failed.
+	 */
+	private volatile boolean fullSnapshotRequired;
+
+	/**
+	 * Creates a new binary store using the provided database.
+	 * Every journal write is synced to the disk, and recyclers idle for 180 days are archived.
+	 *
+	 * @param database The path to the database (binary snapshot)
+	 */
+	public BinaryAppDataStore(String database) {
+		this(database, DurabilityPolicy.FSYNC_EVERY_COMMIT, 0);
+	}
+
+	/**
+	 * Creates a new binary store using the provided database and durability policy.
+	 * Journal, machine state and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database           The path to the database (binary snapshot)
+	 * @param policy             When the journal writes are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public BinaryAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis) {
+		this(database, policy, syncIntervalMillis, DEFAULT_COLD_AFTER);
+	}
+
+	/**
+	 * Creates a new binary store using the provided database, durability policy and tiering period.
+	 * Journal, machine state, cold archive and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database           The path to the database (binary snapshot)
+	 * @param policy             When the journal writes are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @param coldAfter          How long a recycler may go without recycling before it is archived,
+	 *                           or null to keep every user in the snapshot
+	 */
+	public BinaryAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis, Duration coldAfter) {
+		this(database, policy, syncIntervalMillis, coldAfter, false);
+	}
+
+	/**
+	 * Creates a new binary store using the provided database, durability policy, tiering period and compression.
+	 * Journal, delta, machine state, cold archive and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database           The path to the database (binary snapshot)
+	 * @param policy             When the journal writes are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @param coldAfter          How long a recycler may go without recycling before it is archived,
+	 *                           or null to keep every user in the snapshot
+	 * @param compressed         Whether the user records of the snapshots are compressed, which makes them
+	 *                           smaller but slower to load
+	 */
+	public BinaryAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis, Duration coldAfter, boolean compressed) {
+		this(database, policy, syncIntervalMillis, coldAfter, compressed, UserIdFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+	}
+
+	/**
+	 * Creates a new binary store using the provided database, durability policy, tiering period, compression
+	 * and false positive probability of the user id filter.
+	 * Journal, delta, machine state, cold archive and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database                 The path to the database (binary snapshot)
+	 * @param policy                   When the journal writes are synced to the disk
+	 * @param syncIntervalMillis       Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @param coldAfter                How long a recycler may go without recycling before it is archived,
+	 *                                 or null to keep every user in the snapshot
+	 * @param compressed               Whether the user records of the snapshots are compressed, which makes them
+	 *                                 smaller but slower to load
+	 * @param falsePositiveProbability How often a lookup of an unknown id may get past the user id filter,
+	 *                                 between 0 and 1. A lower probability makes the filter larger.
+	 */
+	public BinaryAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis, Duration coldAfter, boolean compressed, double falsePositiveProbability) {
+		String databaseName = database.replaceFirst("\\.[^.\\\\/]*$", "");
+		this.snapshotFile = Path.of(database);
+		this.jsonDatabase = databaseName + ".json";
+		this.journal = new AppDataJournal(databaseName + ".journal", journalGson, policy, syncIntervalMillis);
+		this.machineStore = new MachineStateStore(databaseName + ".machine", MACHINE_FLUSH_INTERVAL_MS);
+		this.coldArchive = new ColdUserArchive(Path.of(databaseName + ".cold"));
+		this.coldAfter = coldAfter;
+		this.deltaFile = Path.of(databaseName + ".delta");
+		this.baseDeltaFile = Path.of(databaseName + ".delta.base");
+		this.compressed = compressed;
+		this.userFilterFalsePositiveProbability = falsePositiveProbability;
+	}
+
+	/**
+	 * Loads data from the full snapshot, applies the delta snapshots and replays the journaled changes on top of them.
+	 * If the full snapshot fails its checksums, the previous full snapshot is loaded instead, and brought up to date
+	 * with the delta and journal kept from before the full snapshot that replaced it. Data is accepted only if its
+	 * chain of deltas and journals leads up to the current journal, so no journaled change is skipped.
+	 * If no snapshot exists yet, data is imported from the JSON database instead.
+	 * Machine state is taken from the machine state store once it has been stored there.
+	 * Archived users are left in the cold archive until they are looked up.
+	 *
+	 * @throws IllegalStateException If snapshots exist but none of them leads up to the current journal
+	 */
+	@Override
+	public synchronized AppData loadSnapshot() {
+		long journalGeneration;
+		try {
+			journalGeneration = journal.currentGeneration();
+		} catch (IOException e) {
+			System.out.println("Journal not readable: " + e.getMessage());
+			journalGeneration = -1;
+		}
+		List<KeptDelta> deltas = readDeltas();
+		boolean snapshotFound = false;
+		for (Path candidate : List.of(snapshotFile, BinarySnapshot.previousGeneration(snapshotFile))) {
+			if (!Files.exists(candidate)) {
+				continue;
+			}
+			snapshotFound = true;
+			BinarySnapshot.Snapshot snapshot;
+			try {
+				snapshot = BinarySnapshot.read(candidate);
+			} catch (IOException e) {
+				System.out.println("Skipping snapshot " + candidate + ": " + e.getMessage());
+				continue;
+			}
+			if (recover(snapshot.appData(), snapshot.generation(), deltas, journalGeneration)) {
+				fullGeneration = snapshot.generation();
+				writtenFullGeneration = snapshot.generation();
+				fullSnapshotRequired |= !candidate.equals(snapshotFile);
+				break;
+			}
+			System.out.println("Skipping snapshot " + candidate + ": its deltas and journals don't lead up to the journal of generation " + journalGeneration);
+		}
+		if (appData == null && (!snapshotFound || journalGeneration >= 0)) {
+			// The JSON database is the base of generation 0, which the first journal continues from
+			AppData imported = JsonAppDataStore.readJson(jsonDatabase);
+			if (imported != null && !recover(imported, 0, deltas, journalGeneration)) {
+				System.out.println("Skipping JSON database " + jsonDatabase + ": the journals don't continue from it");
+			}
+		}
+		if (appData == null) {
+			if (snapshotFound || journalGeneration > 0) {
+				throw new IllegalStateException("Stored data can't be recovered: no snapshot leads up to the journal of generation " + journalGeneration);
+			}
+			return null;
+		}
+		ReverseVendingMachine storedRvm = machineStore.loadOrNull();
+		if (storedRvm != null) {
+			appData.setRvm(storedRvm);
+		}
+		coldArchive.open();
+		userIdFilter = buildUserIdFilter();
+		return appData;
+	}
+
+	/**
+	 * Brings app data loaded from a full snapshot up to date. The latest delta that continues from the generation
+	 * reached so far is applied, then the journal that continues from it is replayed, until neither is left.
+	 * A delta holds every user changed since its full base, so it applies over any later generation below its own.
+	 * The data is taken over only if the current journal was reached.
+	 *
+	 * @param loadedData         App data of the full snapshot
+	 * @param snapshotGeneration Generation of the full snapshot
+	 * @param deltas             The readable delta snapshots
+	 * @param journalGeneration  Generation the current journal continues from, or -1 if there is none
+	 * @return True if the data was taken over, false if changes made after it are missing
+	 */
+	private boolean recover(AppData loadedData, long snapshotGeneration, List<KeptDelta> deltas, long journalGeneration) {
+		Set<String> changedUserIds = new HashSet<>();
+		long reached = snapshotGeneration;
+		long snapshotReached = snapshotGeneration;
+		boolean latestFilesOnly = true;
+		try {
+			while (true) {
+				KeptDelta next = null;
+				for (KeptDelta kept : deltas) {
+					BinarySnapshot.Delta delta = kept.delta();
+					if (delta.baseGeneration() >= snapshotGeneration && delta.baseGeneration() <= reached
+							&& delta.generation() > reached && (next == null || delta.generation() > next.delta().generation())) {
+						next = kept;
+					}
+				}
+				if (next != null) {
+					applyDelta(loadedData, next.delta(), changedUserIds);
+					reached = next.delta().generation();
+					snapshotReached = reached;
+					latestFilesOnly &= next.file().equals(deltaFile);
+				}
+				long replayed = journal.replayNext(loadedData, reached);
+				if (replayed != reached) {
+					latestFilesOnly &= replayed == journalGeneration + 1;
+					reached = replayed;
+				} else if (next == null) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return false;
+		}
+		if (journalGeneration >= 0 && reached < journalGeneration + 1) {
+			return false;
+		}
+		appData = loadedData;
+		generation = Math.max(snapshotReached, journalGeneration);
+		changedSinceFull.addAll(changedUserIds);
+		// Users changed by the journal are not known one by one, so they are written with a full snapshot
+		fullSnapshotRequired = !latestFilesOnly || journal.getRecordCount() > 0;
+		return true;
+	}
+
+	/**
+	 * Reads the kept delta snapshots: the latest one, its previous generation, and the one kept
+	 * from before the latest full snapshot. A delta that fails its checksums is skipped.
+	 */
+	private List<KeptDelta> readDeltas() {
+		List<KeptDelta> deltas = new ArrayList<>();
+		for (Path candidate : List.of(deltaFile, BinarySnapshot.previousGeneration(deltaFile), baseDeltaFile)) {
+			if (!Files.exists(candidate)) {
+				continue;
+			}
+			try {
+				deltas.add(new KeptDelta(candidate, BinarySnapshot.readDelta(candidate)));
+			} catch (IOException e) {
+				System.out.println("Skipping delta snapshot " + candidate + ": " + e.getMessage());
+			}
+		}
+		return deltas;
+	}
+
+	/**
+	 * Applies a delta snapshot to the app data.
+	 */
+	private static void applyDelta(AppData target, BinarySnapshot.Delta delta, Set<String> changedUserIds) {
+		Set<String> removedUserIds = new HashSet<>(delta.removedUserIds());
+		target.removeUsers(user -> removedUserIds.contains(user.getUserId()));
+		for (User user : delta.appData().getUserData()) {
+			target.putUser(user);
+			changedUserIds.add(user.getUserId());
+		}
+		changedUserIds.addAll(removedUserIds);
+		target.setRvm(delta.appData().getRvm());
+	}
+
+	/**
+	 * Takes over app data imported from another source instead of loading it, e.g. by a sharded store
+	 * that splits one JSON database between its shards. The data is written as a full snapshot with the next checkpoint.
+	 *
+	 * @param importedData The imported app data
+	 */
+	synchronized void importData(AppData importedData) {
+		appData = importedData;
+		generation = 0;
+		fullSnapshotRequired = true;
+		coldArchive.open();
+		userIdFilter = buildUserIdFilter();
+	}
+
+	/**
+	 * Builds the filter of the ids of the loaded and archived users.
+	 *
+	 * @return The built filter, or null if the archived ids can't be read
+	 */
+	private UserIdFilter buildUserIdFilter() {
+		UserIdFilter filter = new UserIdFilter(appData.getUserData().size() + coldArchive.size(), userFilterFalsePositiveProbability);
+		appData.getUserData().forEach(user -> filter.put(user.getUserId()));
+		try {
+			coldArchive.forEachUserId(filter::put);
+		} catch (IOException e) {
+			System.out.println("User id filter not available: " + e.getMessage());
+			return null;
+		}
+		return filter;
+	}
+
+	/**
+	 * Gets a user from the loaded data, or promotes the user back from the cold archive.
+	 * A promoted user is journaled, so it is kept even if the archive is rewritten without it.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	@Override
+	public synchronized User getUser(String userId) {
+		User user = appData.findUser(userId);
+		if (user != null || !mightContainUser(userId)) {
+			return user;
+		}
+		user = archiving.remove(userId);
+		if (user == null) {
+			try {
+				user = coldArchive.find(userId);
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+		if (user == null) {
+			return null;
+		}
+		appData.putUser(user);
+		changedSinceFull.add(userId);
+		journal.append(JournalRecord.ofUser(user)).exceptionally(e -> {
+			System.out.println("Failed to journal promoted user: " + e.getMessage());
+			return null;
+		});
+		return user;
+	}
+
+	/**
+	 * Appends the user to the journal, and writes a full snapshot once enough records have been journaled.
+	 *
+	 * @param user The user to store
+	 * @return A future that completes once the user has been written
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> upsertUser(User user) {
+		appData.putUser(user);
+		UserIdFilter filter = userIdFilter;
+		if (filter != null) {
+			filter.put(user.getUserId());
+		}
+		changedSinceFull.add(user.getUserId());
+		CompletableFuture<Void> written = journal.append(JournalRecord.ofUser(user));
+		if (journal.getRecordCount() + unjournaledChanges >= CHECKPOINT_INTERVAL) {
+			written = flush();
+		}
+		return written;
+	}
+
+	/**
+	 * Marks the user changed without journaling it, so it is written with the next snapshot.
+	 * Such changes count towards the checkpoint interval like the journaled ones.
+	 *
+	 * @param user The changed user
+	 * @return A future that completes once a checkpoint it started has been written, or right away
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> markUserChanged(User user) {
+		appData.putUser(user);
+		changedSinceFull.add(user.getUserId());
+		unjournaledChanges++;
+		if (journal.getRecordCount() + unjournaledChanges >= CHECKPOINT_INTERVAL) {
+			return flush();
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Passes the archived users to the consumer: the ones waiting to be archived by the next checkpoint,
+	 * and the ones in the cold archive that haven't been promoted back to the app data since.
+	 *
+	 * @param consumer Consumer of the archived users
+	 * @throws IOException If the cold archive can't be read
+	 */
+	@Override
+	public synchronized void forEachUnloadedUser(Consumer<User> consumer) throws IOException {
+		Map<String, User> queued = new HashMap<>(archiving);
+		queued.values().forEach(consumer);
+		coldArchive.forEachUser(user -> {
+			if (!queued.containsKey(user.getUserId()) && appData.findUser(user.getUserId()) == null) {
+				consumer.accept(user);
+			}
+		});
+	}
+
+	/**
+	 * Registers a listener told of the idle recyclers removed from the app data to be archived.
+	 * It is called on the thread that writes the checkpoint, before the recyclers are encoded.
+	 *
+	 * @param listener Listener of the unloaded users
+	 */
+	@Override
+	public void setUnloadListener(Consumer<User> listener) {
+		unloadListener = listener;
+	}
+
+	/**
+	 * Checks the id against the filter of the loaded and archived users.
+	 * Every id may exist until the filter has been built.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user has the given id, true if one may have it
+	 */
+	@Override
+	public boolean mightContainUser(String userId) {
+		UserIdFilter filter = userIdFilter;
+		return filter == null || filter.mightContain(userId);
+	}
+
+	@Override
+	public ReverseVendingMachine loadMachineState() {
+		return machineStore.loadOrNull();
+	}
+
+	@Override
+	public CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		return machineStore.update(rvm);
+	}
+
+	/**
+	 * Writes a snapshot (checkpoint), moving the idle recyclers to the cold archive first if they have not been
+	 * looked for within the archive interval.
+	 * Only the users changed since the latest full snapshot are written as a delta snapshot, unless
+	 * so many have changed that a new full snapshot is written instead.
+	 * Data is encoded right away, but written by the flusher, which writes the archive before the snapshot
+	 * and empties the journal only after the snapshot has been written. If a write fails, the archived
+	 * users are kept in memory and written with the next checkpoint, which is a full snapshot.
+	 * The users held by the hot tier are dropped from the archive as they are when the flusher rewrites it.
+	 *
+	 * @return A future that completes once the snapshot has been written
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		archiveIdleRecyclers();
+		List<User> archivedUsers = new ArrayList<>(archiving.values());
+		boolean full = fullSnapshotRequired || fullGeneration < 0
+				|| changedSinceFull.size() > appData.getUserData().size() / FULL_SNAPSHOT_RATIO;
+		long baseGeneration = fullGeneration;
+		byte[] snapshot;
+		try {
+			if (full) {
+				snapshot = BinarySnapshot.encode(appData, generation + 1, compressed);
+			} else {
+				List<User> changedUsers = appData.getUserData().stream()
+						.filter(user -> changedSinceFull.contains(user.getUserId()))
+						.toList();
+				List<String> removedUserIds = changedSinceFull.stream()
+						.filter(userId -> appData.findUser(userId) == null)
+						.toList();
+				snapshot = BinarySnapshot.encodeDelta(appData.getRvm(), changedUsers, removedUserIds, baseGeneration, generation + 1, compressed);
+			}
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		generation++;
+		unjournaledChanges = 0;
+		long snapshotGeneration = generation;
+		if (full) {
+			fullGeneration = generation;
+			fullSnapshotRequired = false;
+			changedSinceFull.clear();
+		}
+		return journal.checkpoint(generation, full, channel -> {
+			if (!archivedUsers.isEmpty()) {
+				Set<String> hotUserIds = new HashSet<>();
+				synchronized (this) {
+					appData.getUserData().forEach(user -> hotUserIds.add(user.getUserId()));
+				}
+				coldArchive.rewrite(archivedUsers, hotUserIds::contains);
+				archivedUsers.forEach(user -> archiving.remove(user.getUserId(), user));
+			}
+			if (full) {
+				if (Files.exists(deltaFile)) {
+					// Kept with the ended journal, so the replaced full snapshot can still be brought up to date
+					BinarySnapshot.copy(deltaFile, baseDeltaFile);
+				}
+				BinarySnapshot.write(snapshotFile, snapshot);
+				writtenFullGeneration = snapshotGeneration;
+			} else if (writtenFullGeneration == baseGeneration) {
+				BinarySnapshot.write(deltaFile, snapshot);
+			} else {
+				throw new IOException("Full snapshot " + baseGeneration + " of the delta has not been written");
+			}
+		}).whenComplete((result, e) -> {
+			if (e != null) {
+				fullSnapshotRequired = true;
+			}
+		});
+	}
+
+	/**
+	 * Removes the recyclers that have been idle longer than the tiering period from the app data,
+	 * and queues them to be archived. A recycler whose latest recycling is not known is timed from now on.
+	 * Does nothing if the recyclers have been looked through within the archive interval, or the tiering period if shorter.
+	 */
+	private void archiveIdleRecyclers() {
+		if (coldAfter == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastArchiveMillis < Math.min(ARCHIVE_INTERVAL.toMillis(), coldAfter.toMillis())) {
+			return;
+		}
+		lastArchiveMillis = now;
+		long idleSince = now - coldAfter.toMillis();
+		appData.removeUsers(user -> {
+			if (!(user instanceof RegisteredRecycler recycler)) {
+				return false;
+			}
+			if (recycler.getLastRecycledAt() == 0) {
+				boolean wasDirty = recycler.isDirty();
+				recycler.setLastRecycledAt(now);
+				if (!wasDirty) {
+					recycler.markClean();
+				}
+				changedSinceFull.add(recycler.getUserId());
+				return false;
+			}
+			if (recycler.getLastRecycledAt() >= idleSince) {
+				return false;
+			}
+			archiving.put(recycler.getUserId(), recycler);
+			changedSinceFull.add(recycler.getUserId());
+			unloadListener.accept(recycler);
+			return true;
+		});
+	}
+
+	@Override
+	public void close() {
+		CompletableFuture<Void> finalCheckpoint = CompletableFuture.completedFuture(null);
+		synchronized (this) {
+			if (unjournaledChanges > 0) {
+				// Users marked changed are not in the journal, so they are written with a final checkpoint
+				finalCheckpoint = flush();
+			}
+		}
+		// Waited for without the lock, which the checkpoint task takes
+		finalCheckpoint.exceptionally(e -> null).join();
+		machineStore.close();
+		journal.close();
+	}
+
+	/**
+	 * A readable delta snapshot and the file it was read from.
+	 */
+	private record KeptDelta(Path file, BinarySnapshot.Delta delta) {
+	}
+}
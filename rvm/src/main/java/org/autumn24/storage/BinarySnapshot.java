@@ -0,0 +1,1025 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.data.RecyclableData;
+import org.autumn24.items.ItemMaterial;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.Employee;
+import org.autumn24.users.GuestRecycler;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compact, versioned binary snapshot format for the application data.
+ * <p>
+ * Layout: a header of magic, version, flags and generation, the machine section, role dictionary and user records.
+ * The header and every section are followed by their checksum, so a damaged snapshot is detected before it is used.
+ * The number of user records is stored inside their section, and a section that holds more or less records
+ * than that is rejected.
+ * Each user record is prefixed with its length and refers to its role by a code from the dictionary,
+ * so the role strings are stored only once. Numbers and string lengths in the records are varints,
+ * so the small counters take a byte or two. Fields added to a record later are appended to its end,
+ * and records written before them are read with the defaults. Snapshots are read through a memory-mapped
+ * buffer, and the user records are decoded in parallel chunks.
+ * <p>
+ * The user records can be compressed as a single block, in which case the raw length of the records
+ * is stored before them. A delta snapshot holds only the users changed since a full snapshot of its base
+ * generation, and the ids of the users removed since it. Snapshots of version 3, which keep the header
+ * and counts outside the checksums, and of version 2, which have fixed-width records and no flags, are still read.
+ */
+public class BinarySnapshot {
+	/**
+	 * Magic number at the start of every snapshot ("RVMS").
+	 */
+	static final int MAGIC = 0x52564D53;
+	/**
+	 * Current version of the snapshot format.
+	 */
+	static final short VERSION = 4;
+	/**
+	 * Version of the snapshots whose header and record counts are not covered by the checksums.
+	 */
+	private static final short UNCHECKED_HEADER_VERSION = 3;
+	/**
+	 * Version of the fixed-width user records, which are still used by the stores that keep single records.
+	 */
+	static final short FIXED_WIDTH_VERSION = 2;
+	private static final int FLAG_COMPRESSED = 1;
+	private static final int FLAG_DELTA = 2;
+	/**
+	 * Roles known by the snapshot format. The index of a role is its code.
+	 */
+	private static final List<String> ROLES = List.of("guest", "recycler", "admin");
+	private static final String[] ROLE_CODES = ROLES.toArray(String[]::new);
+
+	/**
+	 * Encodes the given app data to a snapshot.
+	 *
+	 * @param appData    The app data to encode
+	 * @param generation Generation number of the snapshot, increased on every checkpoint
+	 * @return The encoded snapshot
+	 */
+	public static byte[] encode(AppData appData, long generation) {
+		return encode(appData, generation, false);
+	}
+
+	/**
+	 * Encodes the given app data to a snapshot, optionally compressing the user records.
+	 *
+	 * @param appData    The app data to encode
+	 * @param generation Generation number of the snapshot, increased on every checkpoint
+	 * @param compressed Whether the user records are compressed
+	 * @return The encoded snapshot
+	 */
+	public static byte[] encode(AppData appData, long generation, boolean compressed) {
+		return encode(appData.getRvm(), null, appData.getUserData(), List.of(), -1, generation, compressed);
+	}
+
+	/**
+	 * Encodes a delta snapshot that holds the changes made since a full snapshot.
+	 *
+	 * @param rvm            The machine to encode
+	 * @param changedUsers   Users changed or added since the full snapshot
+	 * @param removedUserIds Ids of the users removed since the full snapshot
+	 * @param baseGeneration Generation of the full snapshot the delta applies to
+	 * @param generation     Generation number of the delta
+	 * @param compressed     Whether the user records are compressed
+	 * @return The encoded delta snapshot
+	 */
+	public static byte[] encodeDelta(
+			ReverseVendingMachine rvm,
+			Collection<User> changedUsers,
+			Collection<String> removedUserIds,
+			long baseGeneration,
+			long generation,
+			boolean compressed
+	) {
+		return encode(rvm, null, changedUsers, removedUserIds, baseGeneration, generation, compressed);
+	}
+
+	/**
+	 * Encodes a snapshot that holds the records of a previous snapshot with the given users put over them.
+	 * Records of unchanged users are copied as they are, without decoding them.
+	 *
+	 * @param rvm          The machine to encode
+	 * @param base         The previous snapshot, or null to encode only the given users
+	 * @param changedUsers Users that replace or are added to the records of the previous snapshot
+	 * @param generation   Generation number of the snapshot, increased on every checkpoint
+	 * @return The encoded snapshot
+	 */
+	static byte[] encode(ReverseVendingMachine rvm, MappedSnapshot base, Collection<User> changedUsers, long generation) {
+		return encode(rvm, base, changedUsers, List.of(), -1, generation, false);
+	}
+
+	/**
+	 * Encodes a full snapshot, or a delta snapshot if a base generation is given.
+	 */
+	private static byte[] encode(
+			ReverseVendingMachine rvm,
+			MappedSnapshot base,
+			Collection<User> changedUsers,
+			Collection<String> removedUserIds,
+			long baseGeneration,
+			long generation,
+			boolean compressed
+	) {
+		boolean delta = baseGeneration >= 0;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte((compressed ? FLAG_COMPRESSED : 0) | (delta ? FLAG_DELTA : 0));
+			out.writeLong(generation);
+			if (delta) {
+				out.writeLong(baseGeneration);
+			}
+			CRC32C headerChecksum = new CRC32C();
+			headerChecksum.update(bytes.toByteArray());
+			out.writeInt((int) headerChecksum.getValue());
+
+			ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+			DataOutputStream section = new DataOutputStream(sectionBytes);
+			writeMachine(section, rvm);
+			writeSection(out, sectionBytes);
+
+			section.writeByte(ROLES.size());
+			for (String role : ROLES) {
+				writeString(section, role);
+			}
+			writeSection(out, sectionBytes);
+
+			// Replaced with the number of users once they are written
+			section.writeInt(0);
+			int userCount = 0;
+			ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(recordBytes);
+			if (base != null) {
+				Set<String> changedIds = new HashSet<>();
+				changedUsers.forEach(user -> changedIds.add(user.getUserId()));
+				boolean sameFormat = base.version != FIXED_WIDTH_VERSION && Arrays.equals(base.roles, ROLE_CODES);
+				ByteBuffer baseRecords = base.userSection.duplicate();
+				for (int i = 0; i < base.userCount; i++) {
+					int recordLength = baseRecords.getInt();
+					int recordOffset = baseRecords.position();
+					baseRecords.position(recordOffset + recordLength);
+					if (changedIds.contains(base.userIdAt(recordOffset))) {
+						continue;
+					}
+					if (sameFormat) {
+						section.writeInt(recordLength);
+						byte[] raw = new byte[recordLength];
+						base.userSection.get(recordOffset, raw);
+						section.write(raw);
+					} else {
+						recordBytes.reset();
+						writeUser(record, base.userAt(recordOffset), VERSION);
+						section.writeInt(recordBytes.size());
+						recordBytes.writeTo(section);
+					}
+					userCount++;
+				}
+			}
+			for (User user : changedUsers) {
+				recordBytes.reset();
+				writeUser(record, user, VERSION);
+				section.writeInt(recordBytes.size());
+				recordBytes.writeTo(section);
+				userCount++;
+			}
+			byte[] users = sectionBytes.toByteArray();
+			ByteBuffer.wrap(users).putInt(0, userCount);
+			sectionBytes.reset();
+			if (compressed) {
+				section.writeInt(users.length);
+				section.write(deflate(users));
+			} else {
+				section.write(users);
+			}
+			writeSection(out, sectionBytes);
+			if (delta) {
+				section.writeInt(removedUserIds.size());
+				for (String userId : removedUserIds) {
+					writeVarString(section, userId);
+				}
+				writeSection(out, sectionBytes);
+			}
+		} catch (IOException e) {
+			// Writing to memory doesn't fail, and the base records were verified when the base was opened
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the given snapshot so that a crash never leaves a partially written snapshot behind.
+	 * Snapshot is written and synced to a temporary file first, the current snapshot is kept as the
+	 * previous generation, and the temporary file is then atomically renamed to the snapshot file.
+	 *
+	 * @param snapshotFile The path to the snapshot
+	 * @param snapshot     The encoded snapshot
+	 * @throws IOException If the snapshot can't be written
+	 */
+	public static void write(Path snapshotFile, byte[] snapshot) throws IOException {
+		Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		if (Files.exists(snapshotFile)) {
+			Files.move(snapshotFile, previousGeneration(snapshotFile), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.move(tempFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(snapshotFile.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Copies a file through a temporary file, which is synced and then atomically renamed to the target,
+	 * so the target is either the old file or a complete copy.
+	 *
+	 * @param source The file to copy
+	 * @param target The path of the copy
+	 * @throws IOException If the file can't be copied
+	 */
+	public static void copy(Path source, Path target) throws IOException {
+		Path tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+		Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING);
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(target.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Gets the path where the previous generation of the given snapshot is kept.
+	 *
+	 * @param snapshotFile The path to the snapshot
+	 * @return The path to the previous generation
+	 */
+	public static Path previousGeneration(Path snapshotFile) {
+		return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".prev");
+	}
+
+	/**
+	 * Reads a snapshot from the given file. Every section is verified against its checksum.
+	 *
+	 * @param snapshotFile The path to the snapshot
+	 * @return The decoded snapshot
+	 * @throws IOException If the snapshot can't be read, is not a valid snapshot or fails the checksums
+	 */
+	public static Snapshot read(Path snapshotFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer);
+		}
+	}
+
+	/**
+	 * Reads a delta snapshot from the given file. Every section is verified against its checksum.
+	 *
+	 * @param deltaFile The path to the delta snapshot
+	 * @return The decoded delta snapshot
+	 * @throws IOException If the file can't be read, is not a valid delta snapshot or fails the checksums
+	 */
+	public static Delta readDelta(Path deltaFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(deltaFile, StandardOpenOption.READ)) {
+			MappedSnapshot snapshot = verify(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			if (snapshot.baseGeneration < 0) {
+				throw new IOException("Not a delta snapshot");
+			}
+			return new Delta(
+					new AppData(snapshot.rvm, decodeUsers(snapshot)),
+					snapshot.removedUserIds,
+					snapshot.baseGeneration,
+					snapshot.generation
+			);
+		}
+	}
+
+	/**
+	 * Decodes a snapshot from the given buffer.
+	 *
+	 * @param buffer Buffer positioned at the start of a snapshot
+	 * @return The decoded snapshot
+	 * @throws IOException If the buffer doesn't contain a valid snapshot
+	 */
+	static Snapshot decode(ByteBuffer buffer) throws IOException {
+		MappedSnapshot snapshot = verify(buffer);
+		if (snapshot.baseGeneration >= 0) {
+			throw new IOException("Not a full snapshot");
+		}
+		return new Snapshot(new AppData(snapshot.rvm, decodeUsers(snapshot)), snapshot.generation);
+	}
+
+	/**
+	 * Decodes all the user records of a verified snapshot in parallel.
+	 */
+	private static ArrayList<User> decodeUsers(MappedSnapshot snapshot) throws IOException {
+		try {
+			ByteBuffer userSection = snapshot.userSection.duplicate();
+			int[] recordOffsets = new int[snapshot.userCount];
+			for (int i = 0; i < snapshot.userCount; i++) {
+				int recordLength = userSection.getInt();
+				recordOffsets[i] = userSection.position();
+				userSection.position(recordOffsets[i] + recordLength);
+			}
+			User[] users = new User[snapshot.userCount];
+			ForkJoinPool.commonPool().invoke(new UserChunkDecoder(snapshot.userSection, recordOffsets, snapshot.roles, snapshot.version, users, 0, snapshot.userCount));
+			return new ArrayList<>(Arrays.asList(users));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Opens a snapshot from the given file without decoding its user records.
+	 * Every section is verified against its checksum, and the records are read later through the mapped buffer.
+	 *
+	 * @param snapshotFile The path to the snapshot
+	 * @return The opened snapshot
+	 * @throws IOException If the snapshot can't be read, is not a valid snapshot or fails the checksums
+	 */
+	static MappedSnapshot open(Path snapshotFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+			return verify(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Verifies the sections of a snapshot and decodes everything but the user records.
+	 * Compressed user records are inflated to memory.
+	 *
+	 * @param buffer Buffer positioned at the start of a snapshot
+	 * @return The snapshot with its user records left encoded
+	 * @throws IOException If the buffer doesn't contain a valid snapshot
+	 */
+	private static MappedSnapshot verify(ByteBuffer buffer) throws IOException {
+		try {
+			int start = buffer.position();
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not an app data snapshot");
+			}
+			short version = buffer.getShort();
+			if (version != VERSION && version != UNCHECKED_HEADER_VERSION && version != FIXED_WIDTH_VERSION) {
+				throw new IOException("Unsupported snapshot version: " + version);
+			}
+			int flags = version != FIXED_WIDTH_VERSION ? buffer.get() : 0;
+			long generation = buffer.getLong();
+			long baseGeneration = (flags & FLAG_DELTA) != 0 ? buffer.getLong() : -1;
+			if (version == VERSION) {
+				CRC32C headerChecksum = new CRC32C();
+				headerChecksum.update(buffer.slice(start, buffer.position() - start));
+				if ((int) headerChecksum.getValue() != buffer.getInt()) {
+					throw new IOException("Checksum mismatch in snapshot header");
+				}
+			}
+
+			ReverseVendingMachine rvm = readMachine(verifiedSection(buffer, "machine"));
+
+			ByteBuffer roleSection = verifiedSection(buffer, "roles");
+			String[] roles = new String[roleSection.get()];
+			for (int i = 0; i < roles.length; i++) {
+				roles[i] = readString(roleSection).intern();
+			}
+
+			int userCount;
+			ByteBuffer userSection;
+			if (version == VERSION) {
+				userSection = verifiedSection(buffer, "users");
+				if ((flags & FLAG_COMPRESSED) != 0) {
+					int rawLength = userSection.getInt();
+					userSection = inflate(userSection, rawLength);
+				}
+				userCount = userSection.getInt();
+				userSection = userSection.slice();
+			} else {
+				userCount = buffer.getInt();
+				int rawLength = (flags & FLAG_COMPRESSED) != 0 ? buffer.getInt() : -1;
+				userSection = verifiedSection(buffer, "users");
+				if (rawLength >= 0) {
+					userSection = inflate(userSection, rawLength);
+				}
+			}
+			checkRecordCount(userSection, userCount);
+
+			List<String> removedUserIds = new ArrayList<>();
+			if (baseGeneration >= 0) {
+				int removedCount = version == VERSION ? -1 : buffer.getInt();
+				ByteBuffer removedSection = verifiedSection(buffer, "removed users");
+				if (removedCount < 0) {
+					removedCount = removedSection.getInt();
+				}
+				for (int i = 0; i < removedCount; i++) {
+					removedUserIds.add(readVarString(removedSection));
+				}
+				if (removedSection.hasRemaining()) {
+					throw new IOException("Removed users don't match their count");
+				}
+			}
+			return new MappedSnapshot(rvm, version, generation, baseGeneration, roles, userSection, userCount, removedUserIds);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted snapshot: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Checks that the user section holds exactly the given number of length-prefixed records.
+	 */
+	private static void checkRecordCount(ByteBuffer userSection, int userCount) throws IOException {
+		ByteBuffer records = userSection.duplicate();
+		for (int i = 0; i < userCount; i++) {
+			int recordLength = records.getInt();
+			if (recordLength < 0 || recordLength > records.remaining()) {
+				throw new IOException("Truncated user record");
+			}
+			records.position(records.position() + recordLength);
+		}
+		if (records.hasRemaining()) {
+			throw new IOException("User records don't match the user count");
+		}
+	}
+
+	/**
+	 * Writes the buffered section with its length and checksum, and empties the buffer.
+	 */
+	private static void writeSection(DataOutputStream out, ByteArrayOutputStream section) throws IOException {
+		CRC32C checksum = new CRC32C();
+		checksum.update(section.toByteArray());
+		out.writeInt(section.size());
+		section.writeTo(out);
+		out.writeInt((int) checksum.getValue());
+		section.reset();
+	}
+
+	/**
+	 * Reads the next section and verifies it against its checksum.
+	 *
+	 * @return A buffer containing only the section
+	 */
+	private static ByteBuffer verifiedSection(ByteBuffer buffer, String name) throws IOException {
+		int length = buffer.getInt();
+		ByteBuffer section = buffer.slice(buffer.position(), length);
+		buffer.position(buffer.position() + length);
+		CRC32C checksum = new CRC32C();
+		checksum.update(section.duplicate());
+		if ((int) checksum.getValue() != buffer.getInt()) {
+			throw new IOException("Checksum mismatch in snapshot section: " + name);
+		}
+		return section;
+	}
+
+	/**
+	 * Compresses a block of records.
+	 */
+	private static byte[] deflate(byte[] raw) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses a block of records to memory.
+	 */
+	private static ByteBuffer inflate(ByteBuffer compressed, int rawLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			byte[] raw = new byte[rawLength];
+			inflater.setInput(compressed);
+			if (inflater.inflate(raw) != rawLength || !inflater.finished()) {
+				throw new IOException("Compressed user records have an invalid length");
+			}
+			return ByteBuffer.wrap(raw);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted compressed user records: " + e.getMessage(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Syncs the directory entry of a renamed file. Not every platform allows opening directories,
+	 * in which case the rename is left to the file system.
+	 */
+	static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Directory can't be synced on this platform
+		}
+	}
+
+	static void writeMachine(DataOutputStream out, ReverseVendingMachine rvm) throws IOException {
+		writeString(out, rvm.getRvmId());
+		writeRecyclables(out, rvm.recyclables);
+	}
+
+	static ReverseVendingMachine readMachine(ByteBuffer buffer) {
+		ReverseVendingMachine rvm = new ReverseVendingMachine(readString(buffer));
+		rvm.recyclables.putAll(readRecyclables(buffer));
+		return rvm;
+	}
+
+	static void writeRecyclables(DataOutputStream out, Map<ItemMaterial, RecyclableData> recyclables) throws IOException {
+		out.writeByte(recyclables.size());
+		for (Map.Entry<ItemMaterial, RecyclableData> entry : recyclables.entrySet()) {
+			RecyclableData recyclable = entry.getValue();
+			out.writeByte(entry.getKey().ordinal());
+			out.writeShort(recyclable.getRecyclingLimit());
+			out.writeShort(recyclable.getRecyclingLimitCounter());
+			out.writeShort(recyclable.getTotalRecycled());
+		}
+	}
+
+	static Map<ItemMaterial, RecyclableData> readRecyclables(ByteBuffer buffer) {
+		Map<ItemMaterial, RecyclableData> recyclables = new EnumMap<>(ItemMaterial.class);
+		int recyclableCount = buffer.get();
+		for (int i = 0; i < recyclableCount; i++) {
+			ItemMaterial material = ItemMaterial.values()[buffer.get()];
+			recyclables.put(material, new RecyclableData(buffer.getShort(), buffer.getShort(), buffer.getShort()));
+		}
+		return recyclables;
+	}
+
+	private static void writeUser(DataOutputStream out, User user, short version) throws IOException {
+		int roleCode = ROLES.indexOf(user.getUserRole());
+		if (roleCode < 0) {
+			throw new IllegalArgumentException("Invalid user role: " + user.getUserRole());
+		}
+		out.writeByte(roleCode);
+		if (version == FIXED_WIDTH_VERSION) {
+			writeFixedWidthUser(out, user);
+			return;
+		}
+		writeVarString(out, user.getUserName());
+		writeVarString(out, user.getUserId());
+		switch (user) {
+			case RegisteredRecycler recycler -> {
+				writeVarLong(out, recycler.getTotalPlasticBottlesRecycled());
+				writeVarLong(out, recycler.getTotalGlassBottlesRecycled());
+				writeVarLong(out, recycler.getTotalAluminiumCansRecycled());
+				writeVarLong(out, recycler.getTotalItemsRecycled());
+				writeVarDecimal(out, recycler.getRedeemedTotalValue());
+				writeVarLong(out, recycler.getLastRecycledAt());
+			}
+			case Employee employee -> {
+				writeVarString(out, employee.getEmployeeId());
+				out.writeBoolean(employee.canRepairRvm);
+			}
+			default -> {
+			}
+		}
+	}
+
+	private static void writeFixedWidthUser(DataOutputStream out, User user) throws IOException {
+		writeString(out, user.getUserName());
+		writeString(out, user.getUserId());
+		switch (user) {
+			case RegisteredRecycler recycler -> {
+				out.writeLong(recycler.getTotalPlasticBottlesRecycled());
+				out.writeLong(recycler.getTotalGlassBottlesRecycled());
+				out.writeLong(recycler.getTotalAluminiumCansRecycled());
+				out.writeLong(recycler.getTotalItemsRecycled());
+				writeDecimal(out, recycler.getRedeemedTotalValue());
+				out.writeLong(recycler.getLastRecycledAt());
+			}
+			case Employee employee -> {
+				writeString(out, employee.getEmployeeId());
+				out.writeBoolean(employee.canRepairRvm);
+			}
+			default -> {
+			}
+		}
+	}
+
+	/**
+	 * Reads a user record. The buffer must end where the record ends, as the fields appended
+	 * to the record format are read only when the record has them.
+	 */
+	private static User readUser(ByteBuffer buffer, String[] roles, short version) throws IOException {
+		String userRole = roles[buffer.get()];
+		if (version == FIXED_WIDTH_VERSION) {
+			return readFixedWidthUser(buffer, userRole);
+		}
+		String userName = readVarString(buffer);
+		String userId = readVarString(buffer);
+		return switch (userRole) {
+			case "recycler" -> new RegisteredRecycler(
+					userName,
+					userId,
+					userRole,
+					readVarLong(buffer),
+					readVarLong(buffer),
+					readVarLong(buffer),
+					readVarLong(buffer),
+					readVarDecimal(buffer),
+					buffer.hasRemaining() ? readVarLong(buffer) : 0
+			);
+			case "admin" -> new Employee(userName, userId, readVarString(buffer), buffer.get() != 0);
+			case "guest" -> new GuestRecycler(userName, userId);
+			default -> throw new IOException("Invalid user role: " + userRole);
+		};
+	}
+
+	private static User readFixedWidthUser(ByteBuffer buffer, String userRole) throws IOException {
+		String userName = readString(buffer);
+		String userId = readString(buffer);
+		return switch (userRole) {
+			case "recycler" -> new RegisteredRecycler(
+					userName,
+					userId,
+					userRole,
+					buffer.getLong(),
+					buffer.getLong(),
+					buffer.getLong(),
+					buffer.getLong(),
+					readDecimal(buffer),
+					buffer.remaining() >= Long.BYTES ? buffer.getLong() : 0
+			);
+			case "admin" -> new Employee(userName, userId, readString(buffer), buffer.get() != 0);
+			case "guest" -> new GuestRecycler(userName, userId);
+			default -> throw new IOException("Invalid user role: " + userRole);
+		};
+	}
+
+	/**
+	 * Encodes a single fixed-width user record, using the built-in role codes instead of a role dictionary.
+	 *
+	 * @param user The user to encode
+	 * @return The encoded user record
+	 */
+	static byte[] encodeUser(User user) {
+		return encodeUser(user, FIXED_WIDTH_VERSION);
+	}
+
+	/**
+	 * Encodes a single user record in the given record version, using the built-in role codes.
+	 *
+	 * @param user    The user to encode
+	 * @param version Version of the record format
+	 * @return The encoded user record
+	 */
+	static byte[] encodeUser(User user, short version) {
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		try {
+			writeUser(new DataOutputStream(recordBytes), user, version);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return recordBytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a single fixed-width user record encoded by {@link #encodeUser(User)}.
+	 *
+	 * @param buffer Buffer that holds only the record
+	 * @return The decoded user
+	 * @throws IOException If the record is not a valid user record
+	 */
+	static User decodeUser(ByteBuffer buffer) throws IOException {
+		return decodeUser(buffer, FIXED_WIDTH_VERSION);
+	}
+
+	/**
+	 * Decodes a single user record encoded by {@link #encodeUser(User, short)}.
+	 *
+	 * @param buffer  Buffer that holds only the record
+	 * @param version Version of the record format
+	 * @return The decoded user
+	 * @throws IOException If the record is not a valid user record
+	 */
+	static User decodeUser(ByteBuffer buffer, short version) throws IOException {
+		try {
+			return readUser(buffer, ROLE_CODES, version);
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted user record: " + e.getMessage(), e);
+		}
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a variable-length integer, 7 bits per byte. Values are zigzag encoded first,
+	 * so small negative values stay short as well.
+	 */
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		writeUnsignedVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	static long readVarLong(ByteBuffer buffer) {
+		long zigzag = readUnsignedVarLong(buffer);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private static void writeUnsignedVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readUnsignedVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	static void writeVarString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeUnsignedVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static String readVarString(ByteBuffer buffer) {
+		byte[] bytes = new byte[Math.toIntExact(readUnsignedVarLong(buffer))];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+		BigDecimal decimal = value == null ? BigDecimal.ZERO : value;
+		byte[] unscaled = decimal.unscaledValue().toByteArray();
+		writeVarLong(out, decimal.scale());
+		writeUnsignedVarLong(out, unscaled.length);
+		out.write(unscaled);
+	}
+
+	private static BigDecimal readVarDecimal(ByteBuffer buffer) {
+		int scale = Math.toIntExact(readVarLong(buffer));
+		byte[] unscaled = new byte[Math.toIntExact(readUnsignedVarLong(buffer))];
+		buffer.get(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+
+	private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+		BigDecimal decimal = value == null ? BigDecimal.ZERO : value;
+		byte[] unscaled = decimal.unscaledValue().toByteArray();
+		out.writeByte(decimal.scale());
+		out.writeByte(unscaled.length);
+		out.write(unscaled);
+	}
+
+	private static BigDecimal readDecimal(ByteBuffer buffer) {
+		int scale = buffer.get();
+		byte[] unscaled = new byte[buffer.get()];
+		buffer.get(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+
+	/**
+	 * A decoded snapshot.
+	 *
+	 * @param appData    The decoded app data
+	 * @param generation Generation number of the snapshot
+	 */
+	public record Snapshot(AppData appData, long generation) {
+	}
+
+	/**
+	 * A decoded delta snapshot.
+	 *
+	 * @param appData        The machine and the users changed since the full snapshot
+	 * @param removedUserIds Ids of the users removed since the full snapshot
+	 * @param baseGeneration Generation of the full snapshot the delta applies to
+	 * @param generation     Generation number of the delta
+	 */
+	public record Delta(AppData appData, List<String> removedUserIds, long baseGeneration, long generation) {
+	}
+
+	/**
+	 * A verified snapshot whose user records are left encoded in the mapped file.
+	 * Records are addressed by their offsets in the user section, and decoded one at a time when needed.
+	 */
+	static class MappedSnapshot {
+		private final ReverseVendingMachine rvm;
+		private final short version;
+		private final long generation;
+		/**
+		 * Generation of the full snapshot a delta applies to, or -1 for a full snapshot.
+		 */
+		private final long baseGeneration;
+		private final String[] roles;
+		private final ByteBuffer userSection;
+		private final int userCount;
+		private final List<String> removedUserIds;
+
+		private MappedSnapshot(
+				ReverseVendingMachine rvm,
+				short version,
+				long generation,
+				long baseGeneration,
+				String[] roles,
+				ByteBuffer userSection,
+				int userCount,
+				List<String> removedUserIds
+		) {
+			this.rvm = rvm;
+			this.version = version;
+			this.generation = generation;
+			this.baseGeneration = baseGeneration;
+			this.roles = roles;
+			this.userSection = userSection;
+			this.userCount = userCount;
+			this.removedUserIds = removedUserIds;
+		}
+
+		ReverseVendingMachine getRvm() {
+			return rvm;
+		}
+
+		long getGeneration() {
+			return generation;
+		}
+
+		int getUserCount() {
+			return userCount;
+		}
+
+		/**
+		 * Decodes the user record at the given offset.
+		 *
+		 * @param recordOffset Offset of the record in the user section
+		 * @return The decoded user
+		 * @throws IOException If there is no valid user record at the offset
+		 */
+		User userAt(long recordOffset) throws IOException {
+			try {
+				return readUser(record((int) recordOffset), roles, version);
+			} catch (RuntimeException e) {
+				throw new IOException("Corrupted user record: " + e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Gets a buffer that holds only the user record at the given offset.
+		 */
+		private ByteBuffer record(int recordOffset) {
+			return userSection.slice(recordOffset, userSection.getInt(recordOffset - Integer.BYTES));
+		}
+
+		/**
+		 * Reads only the user id of the user record at the given offset.
+		 */
+		private String userIdAt(int recordOffset) {
+			ByteBuffer record = userSection.duplicate().position(recordOffset + 1);
+			if (version == FIXED_WIDTH_VERSION) {
+				int nameLength = Short.toUnsignedInt(record.getShort());
+				record.position(record.position() + nameLength);
+				return readString(record);
+			}
+			int nameLength = Math.toIntExact(readUnsignedVarLong(record));
+			record.position(record.position() + nameLength);
+			return readVarString(record);
+		}
+
+		/**
+		 * Passes the user id and offset of every record to the given consumer, in the order of the records.
+		 *
+		 * @param consumer The consumer of the user ids and record offsets
+		 */
+		void forEachRecord(BiConsumer<String, Integer> consumer) {
+			ByteBuffer records = userSection.duplicate();
+			for (int i = 0; i < userCount; i++) {
+				int recordLength = records.getInt();
+				int recordOffset = records.position();
+				records.position(recordOffset + recordLength);
+				consumer.accept(userIdAt(recordOffset), recordOffset);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a range of user records in parallel. Record offsets are found beforehand by skipping over
+	 * the length prefixes, so the range is split into chunks that are decoded on the fork/join pool.
+	 * Tasks are never serialized, so the buffer and the decoded users are not serializable state.
+	 */
+	private static class UserChunkDecoder extends RecursiveAction {
+		@Serial
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Number of records decoded by a single task.
+		 */
+		private static final int CHUNK_SIZE = 16_384;
+
+		private final transient ByteBuffer buffer;
+		private final int[] recordOffsets;
+		private final String[] roles;
+		private final short version;
+		private final transient User[] users;
+		private final int from;
+		private final int to;
+
+		UserChunkDecoder(ByteBuffer buffer, int[] recordOffsets, String[] roles, short version, User[] users, int from, int to) {
+			this.buffer = buffer;
+			this.recordOffsets = recordOffsets;
+			this.roles = roles;
+			this.version = version;
+			this.users = users;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+						new UserChunkDecoder(buffer, recordOffsets, roles, version, users, from, middle),
+						new UserChunkDecoder(buffer, recordOffsets, roles, version, users, middle, to)
+				);
+				return;
+			}
+			try {
+				for (int i = from; i < to; i++) {
+					int recordLength = buffer.getInt(recordOffsets[i] - Integer.BYTES);
+					users[i] = readUser(buffer.slice(recordOffsets[i], recordLength), roles, version);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter of string keys.
+ * Answers whether a key may have been added, with no false negatives and a tunable rate of false positives,
+ * so lookups of keys that were never added can be rejected without touching the actual data.
+ */
+public class BloomFilter {
+	private final long[] bits;
+	private final int bitCount;
+	private final int hashCount;
+
+	/**
+	 * Creates an empty filter sized for the given number of keys and false positive probability.
+	 *
+	 * @param expectedKeys             Number of keys expected to be added
+	 * @param falsePositiveProbability Wanted probability of a false positive, between 0 and 1
+	 */
+	public BloomFilter(int expectedKeys, double falsePositiveProbability) {
+		if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+			throw new IllegalArgumentException("Invalid false positive probability: " + falsePositiveProbability);
+		}
+		int keys = Math.max(1, expectedKeys);
+		long optimalBits = (long) Math.ceil(-keys * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+		this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+		this.hashCount = Math.max(1, (int) Math.round((double) bitCount / keys * Math.log(2)));
+		this.bits = new long[(bitCount + 63) / 64];
+	}
+
+	private BloomFilter(long[] bits, int bitCount, int hashCount) {
+		this.bits = bits;
+		this.bitCount = bitCount;
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * Adds a key to the filter.
+	 *
+	 * @param key The key to add
+	 */
+	public void put(String key) {
+		long hash = hash(key);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = Math.floorMod(first + i * second, bitCount);
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Checks whether a key may have been added to the filter.
+	 *
+	 * @param key The key to check
+	 * @return False if the key has certainly not been added, true if it may have been
+	 */
+	public boolean mightContain(String key) {
+		long hash = hash(key);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = Math.floorMod(first + i * second, bitCount);
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the size of the filter bits in bytes.
+	 *
+	 * @return Size of the filter in bytes
+	 */
+	public long sizeInBytes() {
+		return (long) bits.length * Long.BYTES;
+	}
+
+	/**
+	 * Writes the filter to the given output.
+	 *
+	 * @param out The output to write to
+	 * @throws IOException If the filter can't be written
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(bitCount);
+		out.writeByte(hashCount);
+		for (long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	/**
+	 * Reads a filter written by {@link #writeTo(DataOutputStream)}.
+	 *
+	 * @param buffer Buffer positioned at the start of the filter
+	 * @return The read filter
+	 */
+	public static BloomFilter readFrom(ByteBuffer buffer) {
+		int bitCount = buffer.getInt();
+		int hashCount = buffer.get();
+		long[] bits = new long[(bitCount + 63) / 64];
+		buffer.asLongBuffer().get(bits);
+		buffer.position(buffer.position() + bits.length * Long.BYTES);
+		return new BloomFilter(bits, bitCount, hashCount);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the UTF-8 bytes of the key, finished with a mixing step
+	 * so that both halves can be used as independent hashes.
+	 */
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash | 1L << 32;
+	}
+}
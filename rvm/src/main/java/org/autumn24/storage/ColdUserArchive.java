@@ -0,0 +1,390 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.users.User;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compressed archive of the users moved to the cold storage tier.
+ * <p>
+ * Layout: magic, version, compressed blocks, block index and a footer. Records are sorted by user id
+ * and grouped into blocks, which are compressed separately. A block holds its raw and compressed lengths,
+ * the compressed records and a checksum of them. The block index holds the user count and the first
+ * user id and offset of every block, and the footer holds the index offset and a checksum of the index.
+ * The index is kept in memory, so a lookup inflates only the one block that can hold the user.
+ */
+class ColdUserArchive {
+	/**
+	 * Magic number at the start of an archive ("RVCA").
+	 */
+	private static final int MAGIC = 0x52564341;
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+	private static final int FOOTER_SIZE = 2 * Integer.BYTES;
+	/**
+	 * Number of records compressed together in a block.
+	 */
+	private static final int BLOCK_RECORDS = 256;
+
+	private final Path archiveFile;
+	private ByteBuffer data;
+	private String[] blockKeys = new String[0];
+	private int[] blockOffsets = new int[0];
+	private int userCount;
+
+	/**
+	 * Creates a new archive using the provided file.
+	 *
+	 * @param archiveFile The path to the archive file
+	 */
+	ColdUserArchive(Path archiveFile) {
+		this.archiveFile = archiveFile;
+	}
+
+	/**
+	 * Opens the archive and reads its block index. An archive that fails its checksum is skipped
+	 * in favor of the previous generation, and a missing archive is opened as empty.
+	 */
+	synchronized void open() {
+		for (Path candidate : List.of(archiveFile, BinarySnapshot.previousGeneration(archiveFile))) {
+			if (!Files.exists(candidate)) {
+				continue;
+			}
+			try {
+				map(candidate);
+				return;
+			} catch (IOException e) {
+				System.out.println("Skipping cold archive " + candidate + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Looks up a user from the archive.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The archived user, or null if the archive doesn't contain the user
+	 * @throws IOException If the block of the user fails its checksum or can't be decoded
+	 */
+	synchronized User find(String userId) throws IOException {
+		int low = 0;
+		int high = blockKeys.length - 1;
+		int block = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (blockKeys[middle].compareTo(userId) <= 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (block < 0) {
+			return null;
+		}
+		ByteBuffer records = inflateBlock(blockOffsets[block]);
+		while (records.hasRemaining()) {
+			int comparison = BinarySnapshot.readString(records).compareTo(userId);
+			int length = records.getInt();
+			if (comparison == 0) {
+				return BinarySnapshot.decodeUser(records.slice(records.position(), length));
+			}
+			if (comparison > 0) {
+				return null;
+			}
+			records.position(records.position() + length);
+		}
+		return null;
+	}
+
+	/**
+	 * Passes the id of every archived user to the given consumer, inflating one block at a time.
+	 *
+	 * @param consumer Consumer of the user ids
+	 * @throws IOException If a block fails its checksum or can't be inflated
+	 */
+	synchronized void forEachUserId(Consumer<String> consumer) throws IOException {
+		for (int blockOffset : blockOffsets) {
+			ByteBuffer records = inflateBlock(blockOffset);
+			while (records.hasRemaining()) {
+				consumer.accept(BinarySnapshot.readString(records));
+				int length = records.getInt();
+				records.position(records.position() + length);
+			}
+		}
+	}
+
+	/**
+	 * Passes every archived user to the given consumer, inflating and decoding one block at a time.
+	 *
+	 * @param consumer Consumer of the archived users
+	 * @throws IOException If a block fails its checksum or a record can't be decoded
+	 */
+	synchronized void forEachUser(Consumer<User> consumer) throws IOException {
+		for (int blockOffset : blockOffsets) {
+			ByteBuffer records = inflateBlock(blockOffset);
+			while (records.hasRemaining()) {
+				BinarySnapshot.readString(records);
+				int length = records.getInt();
+				consumer.accept(BinarySnapshot.decodeUser(records.slice(records.position(), length)));
+				records.position(records.position() + length);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of users in the archive.
+	 *
+	 * @return The number of archived users
+	 */
+	synchronized int size() {
+		return userCount;
+	}
+
+	/**
+	 * Writes a new generation of the archive with the given users added to it, and opens it.
+	 * Records of the current archive are streamed over block by block, and the ones held by the hot tier
+	 * are dropped. The new archive is written to a temporary file, the current archive is kept as the
+	 * previous generation, and the temporary file is then atomically renamed to the archive file.
+	 *
+	 * @param archivedUsers Users to add to the archive, replacing their earlier records
+	 * @param isHot         Tells whether the hot tier holds the user with the given id
+	 * @throws IOException If the current archive can't be read or the new one can't be written
+	 */
+	synchronized void rewrite(Collection<User> archivedUsers, Predicate<String> isHot) throws IOException {
+		TreeMap<String, byte[]> added = new TreeMap<>();
+		for (User user : archivedUsers) {
+			added.put(user.getUserId(), BinarySnapshot.encodeUser(user));
+		}
+		Path tempFile = archiveFile.resolveSibling(archiveFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			BlockWriter writer = new BlockWriter(out);
+			for (int offset : blockOffsets) {
+				forEachRecord(inflateBlock(offset), (userId, record) -> {
+					while (!added.isEmpty() && added.firstKey().compareTo(userId) < 0) {
+						Map.Entry<String, byte[]> entry = added.pollFirstEntry();
+						writer.add(entry.getKey(), entry.getValue());
+					}
+					if (!added.containsKey(userId) && !isHot.test(userId)) {
+						writer.add(userId, record);
+					}
+				});
+			}
+			added.forEach(writer::add);
+			writer.finish();
+			out.flush();
+			channel.force(true);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (Files.exists(archiveFile)) {
+			Files.move(archiveFile, BinarySnapshot.previousGeneration(archiveFile), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.move(tempFile, archiveFile, StandardCopyOption.ATOMIC_MOVE);
+		BinarySnapshot.syncDirectory(archiveFile.toAbsolutePath().getParent());
+		map(archiveFile);
+	}
+
+	/**
+	 * Maps the given archive file and reads its block index.
+	 */
+	private void map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE + FOOTER_SIZE) {
+				throw new IOException("Truncated cold archive: " + file);
+			}
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.getInt(0) != MAGIC || mapped.getShort(Integer.BYTES) != VERSION) {
+				throw new IOException("Not a cold archive: " + file);
+			}
+			int footerStart = mapped.limit() - FOOTER_SIZE;
+			int indexOffset = mapped.getInt(footerStart);
+			CRC32C checksum = new CRC32C();
+			checksum.update(mapped.slice(indexOffset, footerStart - indexOffset));
+			if ((int) checksum.getValue() != mapped.getInt(footerStart + Integer.BYTES)) {
+				throw new IOException("Checksum mismatch in cold archive index: " + file);
+			}
+			ByteBuffer index = mapped.duplicate().position(indexOffset);
+			int users = index.getInt();
+			String[] keys = new String[index.getInt()];
+			int[] offsets = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = BinarySnapshot.readString(index);
+				offsets[i] = index.getInt();
+			}
+			data = mapped;
+			blockKeys = keys;
+			blockOffsets = offsets;
+			userCount = users;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted cold archive " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Verifies and inflates the block at the given offset.
+	 *
+	 * @return A buffer that holds the records of the block
+	 */
+	private ByteBuffer inflateBlock(int offset) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			byte[] raw = new byte[data.getInt(offset)];
+			int compressedLength = data.getInt(offset + Integer.BYTES);
+			ByteBuffer compressed = data.slice(offset + 2 * Integer.BYTES, compressedLength);
+			CRC32C checksum = new CRC32C();
+			checksum.update(compressed.duplicate());
+			if ((int) checksum.getValue() != data.getInt(offset + 2 * Integer.BYTES + compressedLength)) {
+				throw new IOException("Checksum mismatch in cold archive block at " + offset);
+			}
+			inflater.setInput(compressed);
+			if (inflater.inflate(raw) != raw.length) {
+				throw new IOException("Truncated cold archive block at " + offset);
+			}
+			return ByteBuffer.wrap(raw);
+		} catch (DataFormatException | RuntimeException e) {
+			throw new IOException("Corrupted cold archive block at " + offset + ": " + e.getMessage(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Passes the user id and encoded record of every record in an inflated block to the given consumer.
+	 */
+	private static void forEachRecord(ByteBuffer records, BiConsumer<String, byte[]> consumer) {
+		while (records.hasRemaining()) {
+			String userId = BinarySnapshot.readString(records);
+			byte[] record = new byte[records.getInt()];
+			records.get(record);
+			consumer.accept(userId, record);
+		}
+	}
+
+	/**
+	 * Groups records in ascending user id order into compressed blocks, and writes the block index at the end.
+	 */
+	private static class BlockWriter {
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		private final DataOutputStream block = new DataOutputStream(blockBytes);
+		private final Deflater deflater = new Deflater();
+		private final List<String> keys = new ArrayList<>();
+		private final List<Integer> offsets = new ArrayList<>();
+		private int blockRecords;
+		private int userCount;
+
+		BlockWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void add(String userId, byte[] record) {
+			try {
+				if (blockRecords == 0) {
+					keys.add(userId);
+				}
+				BinarySnapshot.writeString(block, userId);
+				block.writeInt(record.length);
+				block.write(record);
+				userCount++;
+				if (++blockRecords == BLOCK_RECORDS) {
+					writeBlock();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		void finish() throws IOException {
+			try {
+				if (blockRecords > 0) {
+					writeBlock();
+				}
+				ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+				DataOutputStream index = new DataOutputStream(indexBytes);
+				index.writeInt(userCount);
+				index.writeInt(keys.size());
+				for (int i = 0; i < keys.size(); i++) {
+					BinarySnapshot.writeString(index, keys.get(i));
+					index.writeInt(offsets.get(i));
+				}
+				CRC32C checksum = new CRC32C();
+				checksum.update(indexBytes.toByteArray());
+				int indexOffset = out.size();
+				indexBytes.writeTo(out);
+				out.writeInt(indexOffset);
+				out.writeInt((int) checksum.getValue());
+			} finally {
+				deflater.end();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			byte[] raw = blockBytes.toByteArray();
+			deflater.reset();
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+			CRC32C checksum = new CRC32C();
+			checksum.update(compressed.toByteArray());
+			offsets.add(out.size());
+			out.writeInt(raw.length);
+			out.writeInt(compressed.size());
+			compressed.writeTo(out);
+			out.writeInt((int) checksum.getValue());
+			blockBytes.reset();
+			blockRecords = 0;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+/**
+ * Different durability policies for the persistence flusher.
+ */
+public enum DurabilityPolicy {
+	/**
+	 * Every flushed batch is synced to the disk before its writers are completed.
+	 */
+	FSYNC_EVERY_COMMIT,
+	/**
+	 * Batches are written right away, but synced to the disk only once per configured interval.
+	 */
+	FSYNC_INTERVAL,
+	/**
+	 * Batches are left to the operating system buffers and never explicitly synced.
+	 */
+	OS_BUFFERED
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An app data store that keeps the data only in memory.
+ * Nothing is written anywhere, so it can be used to run the application without touching the disk.
+ */
+public class InMemoryAppDataStore implements AppDataStore {
+	private final AppData appData;
+
+	/**
+	 * Creates a new in-memory store with a new machine and no users.
+	 */
+	public InMemoryAppDataStore() {
+		this(new AppData(new ReverseVendingMachine(), new ArrayList<>()));
+	}
+
+	/**
+	 * Creates a new in-memory store holding the given data.
+	 *
+	 * @param appData The initial app data
+	 */
+	public InMemoryAppDataStore(AppData appData) {
+		this.appData = appData;
+	}
+
+	@Override
+	public AppData loadSnapshot() {
+		return appData;
+	}
+
+	@Override
+	public User getUser(String userId) {
+		return appData.findUser(userId);
+	}
+
+	@Override
+	public CompletableFuture<Void> upsertUser(User user) {
+		appData.putUser(user);
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		appData.setRvm(rvm);
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Void> flush() {
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public void close() {
+	}
+}
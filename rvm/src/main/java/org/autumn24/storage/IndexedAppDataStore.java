@@ -0,0 +1,399 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import com.google.gson.Gson;
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+import org.autumn24.utils.PersistenceCodecs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * An app data store that keeps the data as a binary snapshot and a journal like {@link BinaryAppDataStore},
+ * but never loads all the users to the heap. Users are found from the snapshot through an on-disk
+ * B+tree index that maps user ids to their records, and only users changed after the snapshot are
+ * kept in memory. The index is bulk loaded at every checkpoint, right after the snapshot is written.
+ * Users are read on demand by their id, so the user data of the loaded app data is left empty.
+ * Ids that are not in the {@link UserIdFilter} of the stored users are rejected without reading the index.
+ */
+public class IndexedAppDataStore implements AppDataStore {
+	/**
+	 * Gson object used to replay journals written as JSON lines.
+	 */
+	private static final Gson journalGson = PersistenceCodecs.gsonBuilder().create();
+	/**
+	 * Number of journal records after which a full snapshot (checkpoint) is written.
+	 */
+	private static final int CHECKPOINT_INTERVAL = 100;
+	/**
+	 * How long machine state updates are coalesced before they are written.
+	 */
+	private static final long MACHINE_FLUSH_INTERVAL_MS = 500;
+	/**
+	 * Number of index pages kept in the page cache.
+	 */
+	private static final int CACHED_INDEX_PAGES = 256;
+
+	private final Path snapshotFile;
+	private final Path indexFile;
+	/**
+	 * JSON file the data is imported from when no snapshot exists yet.
+	 */
+	private final String jsonDatabase;
+	/**
+	 * Journal that stores changes made after the latest snapshot.
+	 */
+	private final AppDataJournal journal;
+	/**
+	 * Store that holds the machine state apart from the user data.
+	 */
+	private final MachineStateStore machineStore;
+	/**
+	 * Users changed after the latest snapshot, by their ids.
+	 */
+	private final Map<String, ChangedUser> changedUsers = new HashMap<>();
+	/**
+	 * Wanted false positive probability of the user id filter.
+	 */
+	private final double userFilterFalsePositiveProbability;
+	/**
+	 * Filter of the ids of the snapshot and changed users, or null until the data has been loaded.
+	 */
+	private volatile UserIdFilter userIdFilter;
+	/**
+	 * Number of user changes so far, used to tell which changes a checkpoint has written.
+	 */
+	private long changeCount;
+	private BinarySnapshot.MappedSnapshot snapshot;
+	private BPlusTreeIndex index;
+	/**
+	 * Lock that keeps a checkpoint and a lookup that rebuilds a corrupt index from writing the index file at the same time.
+	 */
+	private final Object indexWriteLock = new Object();
+	private AppData appData;
+	/**
+	 * Generation of the latest snapshot, 0 when the data was imported from JSON.
+	 */
+	private long generation;
+
+	/**
+	 * Creates a new indexed store using the provided database.
+	 * Every journal write is synced to the disk.
+	 *
+	 * @param database The path to the database (binary snapshot)
+	 */
+	public IndexedAppDataStore(String database) {
+		this(database, DurabilityPolicy.FSYNC_EVERY_COMMIT, 0);
+	}
+
+	/**
+	 * Creates a new indexed store using the provided database and durability policy.
+	 * Index, journal, machine state and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database           The path to the database (binary snapshot)
+	 * @param policy             When the journal writes are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public IndexedAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis) {
+		this(database, policy, syncIntervalMillis, UserIdFilter.DEFAULT_FALSE_POSITIVE_PROBABILITY);
+	}
+
+	/**
+	 * Creates a new indexed store using the provided database, durability policy and
+	 * false positive probability of the user id filter.
+	 * Index, journal, machine state and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database                 The path to the database (binary snapshot)
+	 * @param policy                   When the journal writes are synced to the disk
+	 * @param syncIntervalMillis       Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @param falsePositiveProbability How often a lookup of an unknown id may get past the user id filter
+	 *                                 to the index, between 0 and 1. A lower probability makes the filter larger.
+	 */
+	public IndexedAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis, double falsePositiveProbability) {
+		this.userFilterFalsePositiveProbability = falsePositiveProbability;
+		String databaseName = database.replaceFirst("\\.[^.\\\\/]*$", "");
+		this.snapshotFile = Path.of(database);
+		this.indexFile = Path.of(databaseName + ".idx");
+		this.jsonDatabase = databaseName + ".json";
+		this.journal = new AppDataJournal(databaseName + ".journal", journalGson, policy, syncIntervalMillis);
+		this.machineStore = new MachineStateStore(databaseName + ".machine", MACHINE_FLUSH_INTERVAL_MS);
+	}
+
+	/**
+	 * Opens the snapshot and its index without decoding the users, and replays the journaled changes.
+	 * A snapshot that fails its checksums is skipped in favor of the previous generation, and an index
+	 * that is missing or was built from another generation is rebuilt.
+	 * If no valid snapshot exists, data is imported from the JSON database and kept in memory
+	 * until the first checkpoint.
+	 */
+	@Override
+	public synchronized AppData loadSnapshot() {
+		for (Path candidate : List.of(snapshotFile, BinarySnapshot.previousGeneration(snapshotFile))) {
+			if (!Files.exists(candidate)) {
+				continue;
+			}
+			try {
+				snapshot = BinarySnapshot.open(candidate);
+				generation = snapshot.getGeneration();
+				index = openIndex(snapshot);
+				appData = new AppData(snapshot.getRvm(), new ArrayList<>());
+				break;
+			} catch (IOException e) {
+				System.out.println("Skipping snapshot " + candidate + ": " + e.getMessage());
+				snapshot = null;
+			}
+		}
+		if (appData == null) {
+			appData = JsonAppDataStore.readJson(jsonDatabase);
+			generation = 0;
+		}
+		if (appData == null) {
+			return null;
+		}
+		try {
+			journal.replay(appData, generation);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+		for (User user : appData.getUserData()) {
+			changedUsers.put(user.getUserId(), new ChangedUser(user, ++changeCount));
+		}
+		appData.setUserData(new ArrayList<>());
+		userIdFilter = buildUserIdFilter();
+		ReverseVendingMachine storedRvm = machineStore.loadOrNull();
+		if (storedRvm != null) {
+			appData.setRvm(storedRvm);
+		}
+		return appData;
+	}
+
+	/**
+	 * Looks the user up from the changed users, and then from the snapshot through the index.
+	 * An index found corrupt is rebuilt from the snapshot.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	@Override
+	public synchronized User getUser(String userId) {
+		ChangedUser changedUser = changedUsers.get(userId);
+		if (changedUser != null) {
+			return changedUser.user();
+		}
+		if (index == null || !mightContainUser(userId)) {
+			return null;
+		}
+		try {
+			long recordOffset;
+			try {
+				recordOffset = index.get(userId);
+			} catch (IOException e) {
+				// Index pages are checked as they are read, so a corrupt page is only found by a lookup
+				System.out.println("Rebuilding index " + indexFile + ": " + e.getMessage());
+				index.close();
+				index = buildIndex(snapshot);
+				recordOffset = index.get(userId);
+			}
+			return recordOffset < 0 ? null : snapshot.userAt(recordOffset);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Passes every stored user to the consumer, as the loaded user data of this store is empty.
+	 * Users of the snapshot are decoded from their records, unless they have changed after the snapshot.
+	 *
+	 * @param consumer Consumer of the users
+	 * @throws IOException If a record of the snapshot can't be decoded
+	 */
+	@Override
+	public synchronized void forEachUnloadedUser(Consumer<User> consumer) throws IOException {
+		if (snapshot != null) {
+			BinarySnapshot.MappedSnapshot currentSnapshot = snapshot;
+			try {
+				currentSnapshot.forEachRecord((userId, recordOffset) -> {
+					if (!changedUsers.containsKey(userId)) {
+						try {
+							consumer.accept(currentSnapshot.userAt(recordOffset));
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+		changedUsers.values().forEach(changedUser -> consumer.accept(changedUser.user()));
+	}
+
+	/**
+	 * Keeps the user in memory and appends it to the journal, and writes a checkpoint once enough
+	 * records have been journaled.
+	 *
+	 * @param user The user to store
+	 * @return A future that completes once the user has been written
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> upsertUser(User user) {
+		changedUsers.put(user.getUserId(), new ChangedUser(user, ++changeCount));
+		UserIdFilter filter = userIdFilter;
+		if (filter != null) {
+			filter.put(user.getUserId());
+		}
+		CompletableFuture<Void> written = journal.append(JournalRecord.ofUser(user));
+		if (journal.getRecordCount() >= CHECKPOINT_INTERVAL) {
+			written = flush();
+		}
+		return written;
+	}
+
+	/**
+	 * Checks the id against the filter of the snapshot and changed users, so unknown ids don't go to the index.
+	 * Every id may exist until the filter has been built.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user has the given id, true if one may have it
+	 */
+	@Override
+	public boolean mightContainUser(String userId) {
+		UserIdFilter filter = userIdFilter;
+		return filter == null || filter.mightContain(userId);
+	}
+
+	@Override
+	public ReverseVendingMachine loadMachineState() {
+		return machineStore.loadOrNull();
+	}
+
+	@Override
+	public CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		return machineStore.update(rvm);
+	}
+
+	/**
+	 * Writes a new snapshot with the changed users put over the records of the current one, and builds its index.
+	 * Unchanged records are copied without decoding them. Once the snapshot and index are written,
+	 * the users they contain are dropped from memory.
+	 *
+	 * @return A future that completes once the snapshot and index have been written
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		List<User> users = changedUsers.values().stream().map(ChangedUser::user).toList();
+		byte[] encoded;
+		try {
+			encoded = BinarySnapshot.encode(appData.getRvm(), snapshot, users, generation + 1);
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		generation++;
+		long writtenChanges = changeCount;
+		return journal.checkpoint(generation, channel -> {
+			BinarySnapshot.write(snapshotFile, encoded);
+			BinarySnapshot.MappedSnapshot writtenSnapshot = BinarySnapshot.open(snapshotFile);
+			BPlusTreeIndex writtenIndex = buildIndex(writtenSnapshot);
+			synchronized (this) {
+				if (index != null) {
+					index.close();
+				}
+				snapshot = writtenSnapshot;
+				index = writtenIndex;
+				changedUsers.values().removeIf(changedUser -> changedUser.change() <= writtenChanges);
+			}
+		});
+	}
+
+	/**
+	 * Waits for the queued writes and closes the index.
+	 */
+	@Override
+	public void close() {
+		machineStore.close();
+		journal.close();
+		synchronized (this) {
+			if (index != null) {
+				index.close();
+			}
+		}
+	}
+
+	/**
+	 * Builds the filter of the ids of the snapshot and changed users.
+	 */
+	private UserIdFilter buildUserIdFilter() {
+		int snapshotUsers = snapshot != null ? snapshot.getUserCount() : 0;
+		UserIdFilter filter = new UserIdFilter(snapshotUsers + changedUsers.size(), userFilterFalsePositiveProbability);
+		if (snapshot != null) {
+			snapshot.forEachRecord((userId, recordOffset) -> filter.put(userId));
+		}
+		changedUsers.keySet().forEach(filter::put);
+		return filter;
+	}
+
+	/**
+	 * Opens the index of the given snapshot, rebuilding it if it is missing or belongs to another generation.
+	 */
+	private BPlusTreeIndex openIndex(BinarySnapshot.MappedSnapshot snapshot) throws IOException {
+		if (Files.exists(indexFile)) {
+			try {
+				BPlusTreeIndex existingIndex = BPlusTreeIndex.open(indexFile, CACHED_INDEX_PAGES);
+				if (existingIndex.getGeneration() == snapshot.getGeneration()) {
+					return existingIndex;
+				}
+				existingIndex.close();
+			} catch (IOException e) {
+				System.out.println("Rebuilding index " + indexFile + ": " + e.getMessage());
+			}
+		}
+		return buildIndex(snapshot);
+	}
+
+	/**
+	 * Bulk loads an index of the user records of the given snapshot.
+	 */
+	private BPlusTreeIndex buildIndex(BinarySnapshot.MappedSnapshot snapshot) throws IOException {
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(snapshot.getUserCount());
+		snapshot.forEachRecord((userId, recordOffset) -> entries.add(Map.entry(userId, (long) recordOffset)));
+		entries.sort(Map.Entry.comparingByKey());
+		synchronized (indexWriteLock) {
+			return BPlusTreeIndex.write(indexFile, snapshot.getGeneration(), entries.iterator(), CACHED_INDEX_PAGES);
+		}
+	}
+
+	/**
+	 * A user changed after the latest snapshot.
+	 *
+	 * @param user   The changed user
+	 * @param change Number of the change, increasing with every change
+	 */
+	private record ChangedUser(User user, long change) {
+	}
+}
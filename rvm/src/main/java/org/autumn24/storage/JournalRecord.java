@@ -0,0 +1,60 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.RecyclableData;
+import org.autumn24.items.ItemMaterial;
+import org.autumn24.users.User;
+
+import java.util.Map;
+
+/**
+ * Represents a single change written to the application data journal.
+ * Records hold the latest state of the changed data, so replaying them more than once is safe.
+ *
+ * @param type        Type of the record
+ * @param user        Changed user, set for user records
+ * @param recyclables Machine recyclable counters, set for machine records
+ * @param generation  Snapshot generation, set for checkpoint records
+ */
+public record JournalRecord(
+		JournalRecordType type,
+		User user,
+		Map<ItemMaterial, RecyclableData> recyclables,
+		long generation
+) {
+	/**
+	 * Creates a new record holding the latest state of the given user.
+	 *
+	 * @param user The changed user
+	 * @return A user journal record
+	 */
+	public static JournalRecord ofUser(User user) {
+		return new JournalRecord(JournalRecordType.USER, user, null, 0);
+	}
+
+	/**
+	 * Creates a new record marking the snapshot generation that the following records apply to.
+	 *
+	 * @param generation Generation of the snapshot
+	 * @return A checkpoint journal record
+	 */
+	public static JournalRecord ofCheckpoint(long generation) {
+		return new JournalRecord(JournalRecordType.CHECKPOINT, null, null, generation);
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+/**
+ * Different types of records that can be written to the application data journal.
+ */
+public enum JournalRecordType {
+	/**
+	 * Record holds the latest state of a single user.
+	 */
+	USER,
+	/**
+	 * Record holds the latest recyclable counters of the machine.
+	 * Machine state is kept in its own store, so these are only replayed from older journals.
+	 */
+	MACHINE,
+	/**
+	 * Record marks the snapshot generation that the following records are applied on top of.
+	 */
+	CHECKPOINT
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+import org.autumn24.utils.PersistenceCodecs;
+
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An app data store that keeps the data in a single JSON file.
+ * The whole file is rewritten on every change, so it is meant for small data sets
+ * and for keeping the data in a human-readable form. Machine updates made within one flush
+ * interval are coalesced into a single rewrite, as they happen on every inserted item.
+ */
+public class JsonAppDataStore implements AppDataStore {
+	private static final Gson gson = PersistenceCodecs.gsonBuilder()
+			.setPrettyPrinting()
+			.create();
+	private static final long MACHINE_FLUSH_INTERVAL_MS = 500;
+
+	private final String jsonFile;
+	private final ScheduledThreadPoolExecutor flusher;
+	private AppData appData;
+	/**
+	 * Rewrite scheduled for the coalesced machine updates, null when none is scheduled.
+	 */
+	private CompletableFuture<Void> pendingWrite;
+
+	/**
+	 * Creates a new JSON store using the provided file.
+	 *
+	 * @param jsonFile The path to the JSON file
+	 */
+	public JsonAppDataStore(String jsonFile) {
+		this.jsonFile = jsonFile;
+		this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "json-store-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// A rewrite that hasn't started yet is done by close() instead of waiting for its delay
+		this.flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Reads app data from the given JSON file.
+	 *
+	 * @param jsonFile The path to the JSON file
+	 * @return The read app data, or null if it couldn't be read
+	 */
+	public static AppData readJson(String jsonFile) {
+		try (FileReader reader = new FileReader(jsonFile, StandardCharsets.UTF_8)) {
+			AppData appData = gson.fromJson(reader, AppData.class);
+			if (appData == null) {
+				System.out.println("Required data not found...");
+			}
+			return appData;
+		} catch (FileNotFoundException e) {
+			System.out.println("Database not found: " + jsonFile);
+		} catch (JsonIOException | JsonSyntaxException | IOException e) {
+			System.out.println(e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Writes app data to the given JSON file in UTF-8. The data is written and synced to a temporary file,
+	 * which then atomically replaces the file, so a crash never leaves a partially written file behind.
+	 *
+	 * @param jsonFile The path to the JSON file
+	 * @param appData  The app data to write
+	 * @throws IOException If the file couldn't be written
+	 */
+	public static void writeJson(String jsonFile, AppData appData) throws IOException {
+		byte[] json;
+		try {
+			json = gson.toJson(appData).getBytes(StandardCharsets.UTF_8);
+		} catch (JsonIOException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		Path file = Path.of(jsonFile);
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(json);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Override
+	public synchronized AppData loadSnapshot() {
+		appData = readJson(jsonFile);
+		return appData;
+	}
+
+	@Override
+	public synchronized User getUser(String userId) {
+		return appData.findUser(userId);
+	}
+
+	@Override
+	public synchronized CompletableFuture<Void> upsertUser(User user) {
+		appData.putUser(user);
+		return flush();
+	}
+
+	/**
+	 * Replaces the machine of the app data. The file is rewritten once the flush interval has passed,
+	 * together with the other machine updates made in the meantime.
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		appData.setRvm(rvm);
+		if (pendingWrite == null) {
+			pendingWrite = new CompletableFuture<>();
+			flusher.schedule(this::writePending, MACHINE_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+		return pendingWrite;
+	}
+
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		CompletableFuture<Void> write = pendingWrite != null ? pendingWrite : new CompletableFuture<>();
+		pendingWrite = null;
+		try {
+			writeJson(jsonFile, appData);
+			write.complete(null);
+		} catch (IOException e) {
+			write.completeExceptionally(e);
+		}
+		return write;
+	}
+
+	/**
+	 * Rewrites the file for the coalesced machine updates, unless a flush has already written them.
+	 */
+	private synchronized void writePending() {
+		if (pendingWrite != null) {
+			flush();
+		}
+	}
+
+	/**
+	 * Stops the flusher, lets a rewrite already in progress finish, and writes the pending machine updates.
+	 */
+	@Override
+	public void close() {
+		flusher.shutdown();
+		try {
+			if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.out.println("JSON store flusher didn't stop in time: " + jsonFile);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (pendingWrite != null) {
+				flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,515 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An app data store that keeps the users in a log-structured merge tree.
+ * Upserted users go to an in-memory memtable and a write-ahead log, so a session close is a single
+ * log append. Full memtables are written as sorted, immutable segment files with their own Bloom filters,
+ * and segments are merged together by a background compactor once there are enough of them.
+ * Users are read on demand by their id, so the user data of the loaded app data is left empty.
+ * Machine state is kept in its own store.
+ */
+public class LsmAppDataStore implements AppDataStore {
+	/**
+	 * Number of users in the memtable after which it is written as a segment.
+	 */
+	private static final int MEMTABLE_LIMIT = 4096;
+	/**
+	 * Number of segments after which they are compacted into one.
+	 */
+	private static final int COMPACTION_THRESHOLD = 4;
+	/**
+	 * How long machine state updates are coalesced before they are written.
+	 */
+	private static final long MACHINE_FLUSH_INTERVAL_MS = 500;
+	private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.seg");
+	private static final Pattern LOG_FILE = Pattern.compile("wal-(\\d+)\\.log");
+
+	private final Path directory;
+	/**
+	 * JSON file the data is imported from when the store is empty.
+	 */
+	private final String jsonDatabase;
+	private final DurabilityPolicy policy;
+	private final long syncIntervalMillis;
+	/**
+	 * Store that holds the machine state apart from the user data.
+	 */
+	private final MachineStateStore machineStore;
+	/**
+	 * Writes segments and compacts them, one task at a time.
+	 */
+	private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "lsm-compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/**
+	 * Users upserted after the latest memtable was frozen.
+	 */
+	private TreeMap<String, User> memtable = new TreeMap<>();
+	/**
+	 * Frozen memtables that are being written as segments, newest first.
+	 */
+	private final Deque<FrozenMemtable> frozenMemtables = new ArrayDeque<>();
+	/**
+	 * Segments of the store, newest first. Replaced as a whole when segments are added or compacted.
+	 */
+	private volatile List<LsmSegment> segments = List.of();
+	private PersistenceFlusher writeAheadLog;
+	private long logSequence;
+	private long nextSegmentSequence;
+	private AppData appData;
+
+	/**
+	 * Creates a new LSM store using the provided database.
+	 * Every write-ahead log write is synced to the disk.
+	 *
+	 * @param database The path to the database, used as the name of the store directory
+	 */
+	public LsmAppDataStore(String database) {
+		this(database, DurabilityPolicy.FSYNC_EVERY_COMMIT, 0);
+	}
+
+	/**
+	 * Creates a new LSM store using the provided database and durability policy.
+	 * Segments and logs are kept in a directory next to the database with the same name,
+	 * and so are the machine state and JSON import files.
+	 *
+	 * @param database           The path to the database, used as the name of the store directory
+	 * @param policy             When the write-ahead log writes are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public LsmAppDataStore(String database, DurabilityPolicy policy, long syncIntervalMillis) {
+		String databaseName = database.replaceFirst("\\.[^.\\\\/]*$", "");
+		this.directory = Path.of(databaseName + ".lsm");
+		this.jsonDatabase = databaseName + ".json";
+		this.policy = policy;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.machineStore = new MachineStateStore(databaseName + ".machine", MACHINE_FLUSH_INTERVAL_MS);
+	}
+
+	/**
+	 * Opens the segments and replays the write-ahead logs left by the previous run.
+	 * If the store is empty, users are imported from the JSON database and written as the first segment.
+	 *
+	 * @return App data with the machine state and empty user data, or null if no data was found
+	 */
+	@Override
+	public synchronized AppData loadSnapshot() {
+		ReverseVendingMachine rvm = null;
+		try {
+			Files.createDirectories(directory);
+			List<LsmSegment> openedSegments = new ArrayList<>();
+			for (Path file : listFiles(SEGMENT_FILE)) {
+				// Skipped segments count too, so a new segment never overwrites one of them
+				nextSegmentSequence = Math.max(nextSegmentSequence, sequenceOf(file, SEGMENT_FILE) + 1);
+				try {
+					openedSegments.add(LsmSegment.open(file, sequenceOf(file, SEGMENT_FILE)));
+				} catch (IOException e) {
+					System.out.println("Skipping segment " + file + ": " + e.getMessage());
+				}
+			}
+			openedSegments.sort(Comparator.comparingLong(LsmSegment::getSequence).reversed());
+			segments = List.copyOf(openedSegments);
+			List<Path> logFiles = listFiles(LOG_FILE);
+			for (Path logFile : logFiles) {
+				replayLog(logFile);
+				logSequence = Math.max(logSequence, sequenceOf(logFile, LOG_FILE) + 1);
+			}
+			if (openedSegments.isEmpty() && logFiles.isEmpty()) {
+				rvm = importJsonAppData();
+			}
+			if (!memtable.isEmpty()) {
+				freeze(logFiles, null);
+			} else {
+				for (Path logFile : logFiles) {
+					Files.deleteIfExists(logFile);
+				}
+			}
+			ReverseVendingMachine storedRvm = machineStore.load();
+			if (storedRvm != null) {
+				rvm = storedRvm;
+			}
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return null;
+		}
+		if (rvm == null) {
+			rvm = new ReverseVendingMachine();
+			machineStore.replace(rvm);
+		}
+		writeAheadLog = new PersistenceFlusher(logFile(logSequence), policy, syncIntervalMillis);
+		appData = new AppData(rvm, new ArrayList<>());
+		return appData;
+	}
+
+	/**
+	 * Looks the user up from the memtable, the frozen memtables and the segments, newest first.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	@Override
+	public User getUser(String userId) {
+		synchronized (this) {
+			User user = memtable.get(userId);
+			if (user != null) {
+				return user;
+			}
+			for (FrozenMemtable frozenMemtable : frozenMemtables) {
+				byte[] record = frozenMemtable.records().get(userId);
+				if (record != null) {
+					return decodeUser(record);
+				}
+			}
+		}
+		for (LsmSegment segment : segments) {
+			byte[] record = segment.get(userId);
+			if (record != null) {
+				return decodeUser(record);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Passes every stored user to the consumer, as the loaded user data of this store is empty.
+	 * Users are read from the memtable, the frozen memtables and the segments, and only the newest
+	 * version of a user is passed.
+	 *
+	 * @param consumer Consumer of the users
+	 * @throws IOException If a stored user can't be decoded
+	 */
+	@Override
+	public void forEachUnloadedUser(Consumer<User> consumer) throws IOException {
+		List<User> memtableUsers;
+		List<TreeMap<String, byte[]>> frozenRecords;
+		List<LsmSegment> currentSegments;
+		synchronized (this) {
+			memtableUsers = new ArrayList<>(memtable.values());
+			frozenRecords = frozenMemtables.stream().map(FrozenMemtable::records).toList();
+			currentSegments = segments;
+		}
+		Set<String> seenUserIds = new HashSet<>();
+		try {
+			for (User user : memtableUsers) {
+				seenUserIds.add(user.getUserId());
+				consumer.accept(user);
+			}
+			for (TreeMap<String, byte[]> records : frozenRecords) {
+				for (Map.Entry<String, byte[]> record : records.entrySet()) {
+					if (seenUserIds.add(record.getKey())) {
+						consumer.accept(decodeUser(record.getValue()));
+					}
+				}
+			}
+			Iterator<Map.Entry<String, byte[]>> records = LsmSegment.merge(currentSegments);
+			while (records.hasNext()) {
+				Map.Entry<String, byte[]> record = records.next();
+				if (seenUserIds.add(record.getKey())) {
+					consumer.accept(decodeUser(record.getValue()));
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Puts the user to the memtable and appends it to the write-ahead log.
+	 * A full memtable is frozen and written as a segment in the background.
+	 *
+	 * @param user The user to store
+	 * @return A future that completes once the user has been written to the log
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> upsertUser(User user) {
+		byte[] record;
+		try {
+			record = BinarySnapshot.encodeUser(user);
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		memtable.put(user.getUserId(), user);
+		CompletableFuture<Void> written = writeAheadLog.append(frame(record));
+		if (memtable.size() >= MEMTABLE_LIMIT) {
+			rotateLog();
+		}
+		return written;
+	}
+
+	@Override
+	public ReverseVendingMachine loadMachineState() {
+		return machineStore.loadOrNull();
+	}
+
+	@Override
+	public CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		return machineStore.update(rvm);
+	}
+
+	/**
+	 * Writes the memtable as a segment.
+	 *
+	 * @return A future that completes once all the frozen memtables have been written as segments
+	 */
+	@Override
+	public synchronized CompletableFuture<Void> flush() {
+		if (memtable.isEmpty()) {
+			return CompletableFuture.runAsync(() -> {
+			}, compactor);
+		}
+		return rotateLog();
+	}
+
+	/**
+	 * Waits for the queued writes, segment writes and compactions to finish.
+	 */
+	@Override
+	public void close() {
+		machineStore.close();
+		synchronized (this) {
+			if (writeAheadLog != null) {
+				writeAheadLog.close();
+			}
+		}
+		compactor.shutdown();
+		try {
+			compactor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts a new write-ahead log and freezes the memtable, whose users are all in the previous log.
+	 */
+	private CompletableFuture<Void> rotateLog() {
+		PersistenceFlusher previousLog = writeAheadLog;
+		Path previousLogFile = logFile(logSequence);
+		logSequence++;
+		writeAheadLog = new PersistenceFlusher(logFile(logSequence), policy, syncIntervalMillis);
+		return freeze(List.of(previousLogFile), previousLog);
+	}
+
+	/**
+	 * Freezes the memtable and queues it to be written as a segment.
+	 * Users are encoded right away, so later changes to the user objects don't leak into the segment.
+	 *
+	 * @param logFiles    Write-ahead logs that hold the users of the memtable, deleted once the segment is written
+	 * @param previousLog Log that is closed before the segment is written, or null
+	 */
+	private CompletableFuture<Void> freeze(List<Path> logFiles, PersistenceFlusher previousLog) {
+		TreeMap<String, byte[]> records = new TreeMap<>();
+		for (Map.Entry<String, User> entry : memtable.entrySet()) {
+			records.put(entry.getKey(), BinarySnapshot.encodeUser(entry.getValue()));
+		}
+		FrozenMemtable frozenMemtable = new FrozenMemtable(records, logFiles, nextSegmentSequence++);
+		frozenMemtables.addFirst(frozenMemtable);
+		memtable = new TreeMap<>();
+		return CompletableFuture.runAsync(() -> {
+			if (previousLog != null) {
+				previousLog.close();
+			}
+			writeSegment(frozenMemtable);
+		}, compactor);
+	}
+
+	/**
+	 * Writes a frozen memtable as a segment, and compacts the segments if there are enough of them.
+	 * Runs on the compactor thread.
+	 */
+	private void writeSegment(FrozenMemtable frozenMemtable) {
+		try {
+			Path file = segmentFile(frozenMemtable.segmentSequence());
+			TreeMap<String, byte[]> records = frozenMemtable.records();
+			LsmSegment segment = LsmSegment.write(file, frozenMemtable.segmentSequence(), records.size(), records.entrySet().iterator());
+			synchronized (this) {
+				List<LsmSegment> updatedSegments = new ArrayList<>(segments);
+				updatedSegments.addFirst(segment);
+				segments = List.copyOf(updatedSegments);
+				frozenMemtables.remove(frozenMemtable);
+			}
+			for (Path logFile : frozenMemtable.logFiles()) {
+				Files.deleteIfExists(logFile);
+			}
+			if (segments.size() >= COMPACTION_THRESHOLD) {
+				compact();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Merges all the segments into one, keeping the newest record of every user.
+	 * The merged segment is written to a new file with the next sequence number, and the input segments
+	 * are deleted once it has replaced them. Compaction waits while frozen memtables are still being written,
+	 * as they hold newer users than the merged segment but were given smaller sequence numbers.
+	 * Runs on the compactor thread.
+	 */
+	private void compact() throws IOException {
+		List<LsmSegment> inputs;
+		long sequence;
+		synchronized (this) {
+			if (!frozenMemtables.isEmpty()) {
+				return;
+			}
+			inputs = segments;
+			sequence = nextSegmentSequence++;
+		}
+		int expectedKeys = inputs.stream().mapToInt(LsmSegment::getRecordCount).sum();
+		LsmSegment merged = LsmSegment.write(segmentFile(sequence), sequence, expectedKeys, LsmSegment.merge(inputs));
+		synchronized (this) {
+			List<LsmSegment> updatedSegments = new ArrayList<>(segments);
+			updatedSegments.removeAll(inputs);
+			updatedSegments.add(merged);
+			updatedSegments.sort(Comparator.comparingLong(LsmSegment::getSequence).reversed());
+			segments = List.copyOf(updatedSegments);
+		}
+		for (LsmSegment input : inputs) {
+			Files.deleteIfExists(input.getFile());
+		}
+	}
+
+	/**
+	 * Imports the users of the JSON database as the first segment.
+	 *
+	 * @return The imported machine, or null if no JSON database was found
+	 */
+	private ReverseVendingMachine importJsonAppData() throws IOException {
+		AppData importedData = JsonAppDataStore.readJson(jsonDatabase);
+		if (importedData == null) {
+			return null;
+		}
+		TreeMap<String, byte[]> records = new TreeMap<>();
+		for (User user : importedData.getUserData()) {
+			records.put(user.getUserId(), BinarySnapshot.encodeUser(user));
+		}
+		long sequence = nextSegmentSequence++;
+		segments = List.of(LsmSegment.write(segmentFile(sequence), sequence, records.size(), records.entrySet().iterator()));
+		machineStore.replace(importedData.getRvm());
+		return importedData.getRvm();
+	}
+
+	/**
+	 * Replays the records of a write-ahead log to the memtable.
+	 * Replay stops at the first record that is truncated or fails its checksum, which is where the log was cut.
+	 */
+	private void replayLog(Path logFile) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logFile));
+		while (buffer.remaining() >= Integer.BYTES) {
+			int length = buffer.getInt();
+			if (length < 0 || buffer.remaining() < length + Integer.BYTES) {
+				break;
+			}
+			ByteBuffer record = buffer.slice(buffer.position(), length);
+			buffer.position(buffer.position() + length);
+			CRC32C checksum = new CRC32C();
+			checksum.update(record.duplicate());
+			if ((int) checksum.getValue() != buffer.getInt()) {
+				break;
+			}
+			User user = BinarySnapshot.decodeUser(record);
+			memtable.put(user.getUserId(), user);
+		}
+	}
+
+	/**
+	 * Frames a record for the write-ahead log with its length and checksum.
+	 */
+	private static byte[] frame(byte[] record) {
+		CRC32C checksum = new CRC32C();
+		checksum.update(record);
+		return ByteBuffer.allocate(record.length + 2 * Integer.BYTES)
+				.putInt(record.length)
+				.put(record)
+				.putInt((int) checksum.getValue())
+				.array();
+	}
+
+	private static User decodeUser(byte[] record) {
+		try {
+			return BinarySnapshot.decodeUser(ByteBuffer.wrap(record));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private List<Path> listFiles(Pattern pattern) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> pattern.matcher(file.getFileName().toString()).matches())
+					.sorted(Comparator.comparingLong(file -> sequenceOf(file, pattern)))
+					.toList();
+		}
+	}
+
+	private static long sequenceOf(Path file, Pattern pattern) {
+		Matcher matcher = pattern.matcher(file.getFileName().toString());
+		return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+	}
+
+	private Path segmentFile(long sequence) {
+		return directory.resolve("segment-%08d.seg".formatted(sequence));
+	}
+
+	private Path logFile(long sequence) {
+		return directory.resolve("wal-%08d.log".formatted(sequence));
+	}
+
+	/**
+	 * A memtable that no longer takes writes and is waiting to be written as a segment.
+	 *
+	 * @param records         Encoded users by their ids
+	 * @param logFiles        Write-ahead logs that hold the users
+	 * @param segmentSequence Sequence number of the segment the memtable is written as
+	 */
+	private record FrozenMemtable(TreeMap<String, byte[]> records, List<Path> logFiles, long segmentSequence) {
+	}
+}
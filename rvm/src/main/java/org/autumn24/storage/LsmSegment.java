@@ -0,0 +1,332 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * An immutable, sorted segment file of the LSM user store.
+ * Layout: magic, version, record count, records sorted by key, sparse key index, Bloom filter,
+ * and a footer with the index and filter offsets and a checksum of everything before it.
+ * Segments are memory mapped, so a lookup reads only the few records after the nearest index key.
+ */
+class LsmSegment {
+	/**
+	 * Magic number at the start of a segment file ("RVLS").
+	 */
+	private static final int MAGIC = 0x52564C53;
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Integer.BYTES;
+	private static final int FOOTER_SIZE = 3 * Integer.BYTES;
+	/**
+	 * Every n:th key is kept in the sparse index.
+	 */
+	private static final int INDEX_INTERVAL = 16;
+	private static final double BLOOM_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private final Path file;
+	private final long sequence;
+	private final ByteBuffer data;
+	private final int recordCount;
+	private final int indexOffset;
+	private final String[] indexKeys;
+	private final int[] indexRecordOffsets;
+	private final BloomFilter bloomFilter;
+
+	private LsmSegment(Path file, long sequence, ByteBuffer data) throws IOException {
+		this.file = file;
+		this.sequence = sequence;
+		this.data = data;
+		try {
+			int footerStart = data.limit() - FOOTER_SIZE;
+			CRC32C checksum = new CRC32C();
+			checksum.update(data.slice(0, footerStart));
+			if ((int) checksum.getValue() != data.getInt(footerStart + 2 * Integer.BYTES)) {
+				throw new IOException("Checksum mismatch in segment: " + file);
+			}
+			if (data.getInt(0) != MAGIC || data.getShort(Integer.BYTES) != VERSION) {
+				throw new IOException("Not a segment file: " + file);
+			}
+			this.recordCount = data.getInt(Integer.BYTES + Short.BYTES);
+			this.indexOffset = data.getInt(footerStart);
+			ByteBuffer index = data.duplicate().position(indexOffset);
+			int indexSize = index.getInt();
+			this.indexKeys = new String[indexSize];
+			this.indexRecordOffsets = new int[indexSize];
+			for (int i = 0; i < indexSize; i++) {
+				indexKeys[i] = BinarySnapshot.readString(index);
+				indexRecordOffsets[i] = index.getInt();
+			}
+			this.bloomFilter = BloomFilter.readFrom(data.duplicate().position(data.getInt(footerStart + Integer.BYTES)));
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted segment " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Opens and verifies an existing segment file.
+	 *
+	 * @param file     The path to the segment file
+	 * @param sequence Sequence number of the segment, newer segments have greater numbers
+	 * @return The opened segment
+	 * @throws IOException If the file can't be read or is not a valid segment
+	 */
+	static LsmSegment open(Path file, long sequence) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE + FOOTER_SIZE) {
+				throw new IOException("Truncated segment: " + file);
+			}
+			return new LsmSegment(file, sequence, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes sorted records to a new segment file and opens it.
+	 * The segment is written to a temporary file first and atomically renamed over the given file.
+	 *
+	 * @param file         The path to the segment file
+	 * @param sequence     Sequence number of the segment
+	 * @param expectedKeys Upper bound for the number of records, used to size the Bloom filter
+	 * @param records      Records in ascending key order with unique keys
+	 * @return The written segment
+	 * @throws IOException If the segment can't be written
+	 */
+	static LsmSegment write(Path file, long sequence, int expectedKeys, Iterator<Map.Entry<String, byte[]>> records) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		BloomFilter bloomFilter = new BloomFilter(expectedKeys, BLOOM_FALSE_POSITIVE_PROBABILITY);
+		List<String> indexKeys = new ArrayList<>();
+		List<Integer> indexRecordOffsets = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeInt(0);
+			int recordCount = 0;
+			while (records.hasNext()) {
+				Map.Entry<String, byte[]> record = records.next();
+				if (recordCount % INDEX_INTERVAL == 0) {
+					indexKeys.add(record.getKey());
+					indexRecordOffsets.add(out.size());
+				}
+				BinarySnapshot.writeString(out, record.getKey());
+				out.writeInt(record.getValue().length);
+				out.write(record.getValue());
+				bloomFilter.put(record.getKey());
+				recordCount++;
+			}
+			int indexOffset = out.size();
+			out.writeInt(indexKeys.size());
+			for (int i = 0; i < indexKeys.size(); i++) {
+				BinarySnapshot.writeString(out, indexKeys.get(i));
+				out.writeInt(indexRecordOffsets.get(i));
+			}
+			int bloomOffset = out.size();
+			bloomFilter.writeTo(out);
+			out.flush();
+			// The record count is only known at the end, so it is patched into the header
+			ByteBuffer count = ByteBuffer.allocate(Integer.BYTES).putInt(0, recordCount);
+			channel.write(count, Integer.BYTES + Short.BYTES);
+			CRC32C checksum = new CRC32C();
+			checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE)
+					.putInt(indexOffset)
+					.putInt(bloomOffset)
+					.putInt((int) checksum.getValue())
+					.flip();
+			channel.write(footer, channel.size());
+			channel.force(true);
+		}
+		Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		BinarySnapshot.syncDirectory(file.toAbsolutePath().getParent());
+		return open(file, sequence);
+	}
+
+	/**
+	 * Looks up the record of a key.
+	 * The Bloom filter rejects most missing keys, and otherwise the search starts from the nearest index key.
+	 *
+	 * @param key The key to look up
+	 * @return The record, or null if the segment doesn't contain the key
+	 */
+	byte[] get(String key) {
+		if (!bloomFilter.mightContain(key)) {
+			return null;
+		}
+		int low = 0;
+		int high = indexKeys.length - 1;
+		int start = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int comparison = indexKeys[middle].compareTo(key);
+			if (comparison <= 0) {
+				start = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (start < 0) {
+			return null;
+		}
+		ByteBuffer buffer = data.duplicate().position(indexRecordOffsets[start]);
+		for (int i = 0; i < INDEX_INTERVAL && buffer.position() < indexOffset; i++) {
+			int comparison = BinarySnapshot.readString(buffer).compareTo(key);
+			int length = buffer.getInt();
+			if (comparison == 0) {
+				byte[] record = new byte[length];
+				buffer.get(record);
+				return record;
+			}
+			if (comparison > 0) {
+				return null;
+			}
+			buffer.position(buffer.position() + length);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets an iterator over the records in ascending key order.
+	 *
+	 * @return An iterator over the records
+	 */
+	Iterator<Map.Entry<String, byte[]>> iterator() {
+		ByteBuffer buffer = data.duplicate().position(HEADER_SIZE);
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return buffer.position() < indexOffset;
+			}
+
+			@Override
+			public Map.Entry<String, byte[]> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String key = BinarySnapshot.readString(buffer);
+				byte[] record = new byte[buffer.getInt()];
+				buffer.get(record);
+				return Map.entry(key, record);
+			}
+		};
+	}
+
+	/**
+	 * Merges segments into a single sorted stream of records.
+	 * When several segments contain the same key, the record of the newest segment is kept.
+	 *
+	 * @param segments The segments to merge
+	 * @return An iterator over the merged records in ascending key order
+	 */
+	static Iterator<Map.Entry<String, byte[]>> merge(List<LsmSegment> segments) {
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+		for (LsmSegment segment : segments) {
+			Cursor cursor = new Cursor(segment.sequence, segment.iterator());
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !cursors.isEmpty();
+			}
+
+			@Override
+			public Map.Entry<String, byte[]> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Cursor newest = cursors.poll();
+				Map.Entry<String, byte[]> record = newest.current;
+				if (newest.advance()) {
+					cursors.add(newest);
+				}
+				while (!cursors.isEmpty() && cursors.peek().current.getKey().equals(record.getKey())) {
+					Cursor older = cursors.poll();
+					if (older.advance()) {
+						cursors.add(older);
+					}
+				}
+				return record;
+			}
+		};
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Position of a merge in a single segment. Cursors are ordered by their current key,
+	 * and cursors of newer segments come first for equal keys.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		private final long sequence;
+		private final Iterator<Map.Entry<String, byte[]>> records;
+		private Map.Entry<String, byte[]> current;
+
+		Cursor(long sequence, Iterator<Map.Entry<String, byte[]>> records) {
+			this.sequence = sequence;
+			this.records = records;
+		}
+
+		boolean advance() {
+			if (!records.hasNext()) {
+				return false;
+			}
+			current = records.next();
+			return true;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			int comparison = current.getKey().compareTo(other.current.getKey());
+			return comparison != 0 ? comparison : Long.compare(other.sequence, sequence);
+		}
+	}
+}
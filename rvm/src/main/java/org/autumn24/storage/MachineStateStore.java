@@ -0,0 +1,223 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.RecyclableData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.rvm.enums.ReverseVendingMachineStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small store that holds only the state of the reverse vending machine (id, recyclables and status).
+ * Machine counters change on every insert, so updates are kept apart from the user data and written with
+ * their own cadence: updates made within one flush interval are coalesced into a single tiny write.
+ */
+public class MachineStateStore implements AutoCloseable {
+	/**
+	 * Magic number at the start of the machine state file ("RVMM").
+	 */
+	private static final int MAGIC = 0x52564D4D;
+	private static final short VERSION = 1;
+
+	private final Path stateFile;
+	private final long flushIntervalMillis;
+	private final ScheduledThreadPoolExecutor flusher;
+	/**
+	 * Latest encoded state waiting to be written, null when everything is written.
+	 */
+	private byte[] pendingState;
+	private CompletableFuture<Void> pendingWrite;
+	private ReverseVendingMachineStatus storedStatus;
+
+	/**
+	 * Creates a new machine state store using the provided file.
+	 *
+	 * @param stateFile           The path to the machine state file
+	 * @param flushIntervalMillis How long updates are coalesced before they are written
+	 */
+	public MachineStateStore(String stateFile, long flushIntervalMillis) {
+		this.stateFile = Path.of(stateFile);
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "machine-state-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// A write that hasn't started yet is done by close() instead of waiting for its delay
+		this.flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Loads the stored machine state.
+	 *
+	 * @return The stored machine, or null if no state has been stored yet
+	 * @throws IOException If the state can't be read or is not a valid machine state
+	 */
+	public ReverseVendingMachine load() throws IOException {
+		if (!Files.exists(stateFile)) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(stateFile));
+			if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+				throw new IOException("Not a machine state file: " + stateFile);
+			}
+			ReverseVendingMachine rvm = BinarySnapshot.readMachine(buffer);
+			byte status = buffer.get();
+			storedStatus = status < 0 ? null : ReverseVendingMachineStatus.values()[status];
+			rvm.setRvmStatus(storedStatus);
+			return rvm;
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted machine state: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Loads the stored machine state, printing the error if it can't be read.
+	 * Stores use this to load the machine before their users, and fall back to the machine of their snapshot.
+	 *
+	 * @return The stored machine, or null if no state has been stored yet or it can't be read
+	 */
+	public ReverseVendingMachine loadOrNull() {
+		try {
+			return load();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the state of the given machine if its recyclables or status have changed.
+	 * The state is encoded right away and written once the flush interval has passed.
+	 *
+	 * @param rvm The machine to store
+	 * @return A future that completes once the state has been written
+	 */
+	public synchronized CompletableFuture<Void> update(ReverseVendingMachine rvm) {
+		boolean recyclablesChanged = rvm.recyclables.values().stream().anyMatch(RecyclableData::isDirty);
+		ReverseVendingMachineStatus status = persistedStatus(rvm.getRvmStatus());
+		if (!recyclablesChanged && status == storedStatus) {
+			return pendingWrite != null ? pendingWrite : CompletableFuture.completedFuture(null);
+		}
+		return replace(rvm);
+	}
+
+	/**
+	 * Stores the full state of the given machine, whether it has changed or not.
+	 * Used when the machine state is first taken over from another source, such as a JSON import.
+	 *
+	 * @param rvm The machine to store
+	 * @return A future that completes once the state has been written
+	 */
+	public synchronized CompletableFuture<Void> replace(ReverseVendingMachine rvm) {
+		ReverseVendingMachineStatus status = persistedStatus(rvm.getRvmStatus());
+		pendingState = encode(rvm, status);
+		storedStatus = status;
+		rvm.recyclables.values().forEach(RecyclableData::markClean);
+		if (pendingWrite == null) {
+			pendingWrite = new CompletableFuture<>();
+			flusher.schedule(this::writePending, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		return pendingWrite;
+	}
+
+	/**
+	 * Stops the flusher, lets a write already in progress finish, and writes the pending state right away.
+	 */
+	@Override
+	public void close() {
+		flusher.shutdown();
+		try {
+			if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+				System.out.println("Machine state flusher didn't stop in time: " + stateFile);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writePending();
+	}
+
+	/**
+	 * Writes the latest pending state to a temporary file and atomically replaces the state file with it.
+	 */
+	private void writePending() {
+		byte[] state;
+		CompletableFuture<Void> write;
+		synchronized (this) {
+			state = pendingState;
+			write = pendingWrite;
+			pendingState = null;
+			pendingWrite = null;
+		}
+		if (write == null) {
+			return;
+		}
+		Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				tempFile,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.wrap(state));
+			channel.force(false);
+		} catch (IOException e) {
+			write.completeExceptionally(e);
+			return;
+		}
+		try {
+			Files.move(tempFile, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			write.complete(null);
+		} catch (IOException e) {
+			write.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Sleep-mode is not stored, as the machine always wakes up when it is started again.
+	 */
+	private static ReverseVendingMachineStatus persistedStatus(ReverseVendingMachineStatus status) {
+		return status == ReverseVendingMachineStatus.IDLE ? null : status;
+	}
+
+	private static byte[] encode(ReverseVendingMachine rvm, ReverseVendingMachineStatus status) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			BinarySnapshot.writeMachine(out, rvm);
+			out.writeByte(status == null ? -1 : status.ordinal());
+		} catch (IOException e) {
+			// Writing to memory doesn't fail
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A least recently used cache of fixed-size pages read from a file.
+ * The last four bytes of every page hold a checksum of the rest of the page, verified when the page is read.
+ */
+class PageCache {
+	private final FileChannel channel;
+	private final int pageSize;
+	private final Map<Integer, ByteBuffer> pages;
+
+	/**
+	 * Creates a new page cache over the given file.
+	 *
+	 * @param channel  Channel of the file to read the pages from
+	 * @param pageSize Size of a page in bytes
+	 * @param capacity Maximum number of pages kept in the cache
+	 */
+	PageCache(FileChannel channel, int pageSize, int capacity) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ByteBuffer> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Reads a page from the cache, or from the file if it isn't cached.
+	 *
+	 * @param pageNumber Number of the page
+	 * @return A read-only buffer holding the page, positioned at its start
+	 * @throws IOException If the page can't be read or fails its checksum
+	 */
+	synchronized ByteBuffer read(int pageNumber) throws IOException {
+		ByteBuffer page = pages.get(pageNumber);
+		if (page == null) {
+			page = ByteBuffer.allocate(pageSize);
+			long position = (long) pageNumber * pageSize;
+			while (page.hasRemaining()) {
+				if (channel.read(page, position + page.position()) < 0) {
+					throw new EOFException("Page " + pageNumber + " is past the end of the file");
+				}
+			}
+			CRC32C checksum = new CRC32C();
+			checksum.update(page.array(), 0, pageSize - Integer.BYTES);
+			if ((int) checksum.getValue() != page.getInt(pageSize - Integer.BYTES)) {
+				throw new IOException("Checksum mismatch in page " + pageNumber);
+			}
+			pages.put(pageNumber, page);
+		}
+		return page.asReadOnlyBuffer().clear();
+	}
+
+	/**
+	 * Writes the checksum of a page to its last four bytes.
+	 *
+	 * @param page A buffer holding a whole page
+	 */
+	static void seal(ByteBuffer page) {
+		CRC32C checksum = new CRC32C();
+		checksum.update(page.array(), 0, page.capacity() - Integer.BYTES);
+		page.putInt(page.capacity() - Integer.BYTES, (int) checksum.getValue());
+	}
+}
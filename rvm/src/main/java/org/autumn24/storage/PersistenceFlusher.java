@@ -0,0 +1,266 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A background thread that writes appended records to a log file.
+ * Records queued while a previous batch is being written are flushed together (group commit),
+ * so the callers never wait on file I/O themselves and get a completion future instead.
+ */
+public class PersistenceFlusher implements AutoCloseable {
+	private final Path logFile;
+	private final DurabilityPolicy policy;
+	private final long syncIntervalMillis;
+	private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+	private final Thread flusherThread;
+	private FileChannel channel;
+	private boolean unsyncedWrites;
+	private long lastSyncMillis;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new flusher and starts its background thread.
+	 *
+	 * @param logFile            The path to the log file to append to
+	 * @param policy             When the written batches are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public PersistenceFlusher(Path logFile, DurabilityPolicy policy, long syncIntervalMillis) {
+		this.logFile = logFile;
+		this.policy = policy;
+		this.syncIntervalMillis = syncIntervalMillis;
+		flusherThread = new Thread(this::flushLoop, "persistence-flusher-" + logFile.getFileName());
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+	}
+
+	/**
+	 * Queues a record to be appended to the end of the log file.
+	 *
+	 * @param record Serialized record
+	 * @return A future that completes once the record has been written according to the durability policy
+	 */
+	public CompletableFuture<Void> append(byte[] record) {
+		return enqueue(new PendingWrite(record, null, new CompletableFuture<>()));
+	}
+
+	/**
+	 * Queues a task to be run on the flusher thread after all the previously queued records are written.
+	 * Used for writes that must stay in order with the log, such as snapshots and truncation.
+	 *
+	 * @param task The task to run
+	 * @return A future that completes once the task has been run
+	 */
+	public CompletableFuture<Void> submit(LogTask task) {
+		return enqueue(new PendingWrite(null, task, new CompletableFuture<>()));
+	}
+
+	/**
+	 * Queues a sync of everything written so far, regardless of the durability policy.
+	 *
+	 * @return A future that completes once the log file has been synced
+	 */
+	public CompletableFuture<Void> sync() {
+		return submit(channel -> syncChannel());
+	}
+
+	/**
+	 * Syncs and closes the log file after all the queued writes are done, and stops the flusher thread.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.add(new PendingWrite(null, null, new CompletableFuture<>()));
+		try {
+			flusherThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private CompletableFuture<Void> enqueue(PendingWrite write) {
+		if (closed) {
+			write.future().completeExceptionally(new IllegalStateException("Flusher is closed: " + logFile));
+			return write.future();
+		}
+		queue.add(write);
+		return write.future();
+	}
+
+	/**
+	 * The main loop of the flusher thread.
+	 */
+	private void flushLoop() {
+		List<PendingWrite> batch = new ArrayList<>();
+		long pollMillis = policy == DurabilityPolicy.FSYNC_INTERVAL ? Math.max(1, syncIntervalMillis) : Long.MAX_VALUE;
+		boolean closing = false;
+		while (!closing || !queue.isEmpty()) {
+			try {
+				PendingWrite first = closing ? queue.poll() : queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					syncIfIntervalPassed();
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch);
+				// Writes queued while the flusher was being closed are still written after the close marker
+				closing |= batch.removeIf(PendingWrite::isCloseMarker);
+				flushBatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (IOException e) {
+				batch.forEach(write -> write.future().completeExceptionally(e));
+			} finally {
+				batch.clear();
+			}
+		}
+		try {
+			closeChannel();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a batch of pending writes in order. Consecutive records are written with a single gathering
+	 * write, and synced once per group.
+	 *
+	 * @param batch Pending writes to flush
+	 * @throws IOException If the log file can't be written
+	 */
+	private void flushBatch(List<PendingWrite> batch) throws IOException {
+		List<PendingWrite> group = new ArrayList<>();
+		for (PendingWrite write : batch) {
+			if (write.task() == null) {
+				group.add(write);
+				continue;
+			}
+			commitGroup(group);
+			try {
+				write.task().run(getChannel());
+				write.future().complete(null);
+			} catch (IOException | RuntimeException e) {
+				write.future().completeExceptionally(e);
+			}
+		}
+		commitGroup(group);
+	}
+
+	private void commitGroup(List<PendingWrite> group) throws IOException {
+		if (group.isEmpty()) {
+			return;
+		}
+		FileChannel fileChannel = getChannel();
+		ByteBuffer[] buffers = group.stream().map(write -> ByteBuffer.wrap(write.record())).toArray(ByteBuffer[]::new);
+		while (buffers[buffers.length - 1].hasRemaining()) {
+			fileChannel.write(buffers);
+		}
+		unsyncedWrites = true;
+		switch (policy) {
+			case FSYNC_EVERY_COMMIT -> syncChannel();
+			case FSYNC_INTERVAL -> syncIfIntervalPassed();
+			case OS_BUFFERED -> {
+			}
+		}
+		group.forEach(write -> write.future().complete(null));
+		group.clear();
+	}
+
+	private void syncIfIntervalPassed() {
+		if (policy != DurabilityPolicy.FSYNC_INTERVAL || !unsyncedWrites) {
+			return;
+		}
+		if (System.currentTimeMillis() - lastSyncMillis < syncIntervalMillis) {
+			return;
+		}
+		try {
+			syncChannel();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private void syncChannel() throws IOException {
+		getChannel().force(false);
+		unsyncedWrites = false;
+		lastSyncMillis = System.currentTimeMillis();
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if (channel == null || !channel.isOpen()) {
+			channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+		return channel;
+	}
+
+	/**
+	 * Syncs the remaining writes and closes the log file.
+	 */
+	private void closeChannel() throws IOException {
+		if (channel != null) {
+			if (unsyncedWrites && channel.isOpen()) {
+				syncChannel();
+			}
+			channel.close();
+		}
+	}
+
+	/**
+	 * A write operation run on the flusher thread.
+	 */
+	@FunctionalInterface
+	public interface LogTask {
+		/**
+		 * Runs the task.
+		 *
+		 * @param channel Channel of the log file
+		 * @throws IOException If the task fails to write
+		 */
+		void run(FileChannel channel) throws IOException;
+	}
+
+	/**
+	 * A queued record or task with the future of its caller.
+	 * A write with neither a record nor a task marks that the flusher is closed.
+	 *
+	 * @param record Serialized record to append, null for tasks
+	 * @param task   Task to run, null for records
+	 * @param future Future completed when the write is done
+	 */
+	private record PendingWrite(byte[] record, LogTask task, CompletableFuture<Void> future) {
+		boolean isCloseMarker() {
+			return record == null && task == null;
+		}
+	}
+}
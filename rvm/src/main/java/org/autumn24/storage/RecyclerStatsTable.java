@@ -0,0 +1,365 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.users.RegisteredRecycler;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
+
+/**
+ * A memory-mapped table of recycler statistics with a fixed-width slot for every recycler.
+ * A finished session writes the counters of its recycler in place to the slot, so storing them needs
+ * no serialization and touches only a few bytes of the file. The counters in the table are newer
+ * than the ones in the app data store, so they are applied over the users read from the store.
+ * <p>
+ * Layout: magic, version and slot count, followed by the slots. A slot holds a used flag, the user id,
+ * the four item counters, the redeemed value as an unscaled long and its scale, the epoch day of the latest
+ * recycling (0 if not known) and a checksum of the slot.
+ * <p>
+ * The table is mapped as a single buffer, so it holds at most {@link #MAX_SLOTS} recyclers. Recyclers that
+ * don't fit are left out, and their counters are stored with the users instead. Written slots are synced
+ * on a background flusher, so a session close never waits for the disk.
+ */
+public class RecyclerStatsTable implements AutoCloseable {
+	/**
+	 * Magic number at the start of the table ("RVST").
+	 */
+	private static final int MAGIC = 0x52565354;
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_COUNT_OFFSET = Integer.BYTES + Short.BYTES + Short.BYTES;
+	private static final int SLOT_SIZE = 112;
+	private static final int MAX_ID_BYTES = 62;
+	private static final int INITIAL_SLOTS = 1024;
+	/**
+	 * Largest number of slots, as the whole table must fit in a single mapped buffer.
+	 */
+	public static final int MAX_SLOTS = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+	private static final int USED = 0;
+	private static final int ID_LENGTH = 1;
+	private static final int ID = 2;
+	private static final int PLASTIC_BOTTLES = 64;
+	private static final int GLASS_BOTTLES = 72;
+	private static final int ALUMINIUM_CANS = 80;
+	private static final int TOTAL_ITEMS = 88;
+	private static final int VALUE_UNSCALED = 96;
+	private static final int VALUE_SCALE = 104;
+	private static final int LAST_RECYCLED_DAY = 105;
+	private static final int DAY_BYTES = 3;
+	private static final int CHECKSUM = SLOT_SIZE - Integer.BYTES;
+	private static final long MILLIS_PER_DAY = 86_400_000L;
+
+	private final Path tableFile;
+	private final DurabilityPolicy policy;
+	private final long syncIntervalMillis;
+	private final int maxSlots;
+	/**
+	 * Slot numbers of the recyclers by their user ids.
+	 */
+	private final Map<String, Integer> slots = new HashMap<>();
+	private FileChannel channel;
+	private MappedByteBuffer table;
+	private int slotCount;
+	private long lastSyncMillis;
+	/**
+	 * Background flusher that syncs the written slots, so the sessions don't wait for the disk.
+	 */
+	private PersistenceFlusher flusher;
+	/**
+	 * Whether a sync has been queued and not started yet, so writes made meanwhile share it.
+	 */
+	private boolean syncQueued;
+	/**
+	 * Future of the latest queued sync.
+	 */
+	private CompletableFuture<Void> pendingSync = CompletableFuture.completedFuture(null);
+
+	/**
+	 * Creates a new stats table using the provided file.
+	 *
+	 * @param tableFile          The path to the table file
+	 * @param policy             When the written counters are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 */
+	public RecyclerStatsTable(String tableFile, DurabilityPolicy policy, long syncIntervalMillis) {
+		this(tableFile, policy, syncIntervalMillis, MAX_SLOTS);
+	}
+
+	/**
+	 * Creates a new stats table using the provided file and the given largest number of slots.
+	 *
+	 * @param tableFile          The path to the table file
+	 * @param policy             When the written counters are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @param maxSlots           Largest number of recyclers kept in the table, at most {@link #MAX_SLOTS}
+	 */
+	RecyclerStatsTable(String tableFile, DurabilityPolicy policy, long syncIntervalMillis, int maxSlots) {
+		if (maxSlots < 1 || maxSlots > MAX_SLOTS) {
+			throw new IllegalArgumentException("Slot limit must be between 1 and " + MAX_SLOTS + ": " + maxSlots);
+		}
+		this.tableFile = Path.of(tableFile);
+		this.policy = policy;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.maxSlots = maxSlots;
+	}
+
+	/**
+	 * Opens the table file, creating it if it doesn't exist, and finds the slots of the stored recyclers.
+	 * Slots that fail their checksum, e.g. because of a write cut by a crash, are left unused.
+	 *
+	 * @throws IOException If the file can't be opened or is not a stats table
+	 */
+	public synchronized void open() throws IOException {
+		channel = FileChannel.open(tableFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		boolean created = channel.size() == 0;
+		map(created ? tableSize(Math.min(INITIAL_SLOTS, maxSlots)) : Math.min(channel.size(), tableSize(maxSlots)));
+		flusher = new PersistenceFlusher(tableFile, DurabilityPolicy.OS_BUFFERED, 0);
+		if (created) {
+			table.putInt(0, MAGIC);
+			table.putShort(Integer.BYTES, VERSION);
+			table.putInt(SLOT_COUNT_OFFSET, 0);
+			table.force();
+			return;
+		}
+		if (table.getInt(0) != MAGIC || table.getShort(Integer.BYTES) != VERSION) {
+			throw new IOException("Not a recycler stats table: " + tableFile);
+		}
+		slotCount = Math.min(table.getInt(SLOT_COUNT_OFFSET), capacity());
+		for (int slot = 0; slot < slotCount; slot++) {
+			int offset = slotOffset(slot);
+			if (table.get(offset + USED) != 0 && checksumOf(offset) == table.getInt(offset + CHECKSUM)) {
+				byte[] id = new byte[table.get(offset + ID_LENGTH)];
+				table.get(offset + ID, id);
+				slots.put(new String(id, StandardCharsets.UTF_8), slot);
+			}
+		}
+	}
+
+	/**
+	 * Writes the counters of the recycler in place to its slot, giving it a new slot if it doesn't have one.
+	 *
+	 * @param recycler The recycler whose counters are written
+	 * @return True if the counters were written, false if the recycler can't be kept in the table
+	 * (its id is too long, its value doesn't fit in a slot or the table is full)
+	 * @throws IOException If the table needs to grow and can't
+	 */
+	public synchronized boolean update(RegisteredRecycler recycler) throws IOException {
+		byte[] id = recycler.getUserId().getBytes(StandardCharsets.UTF_8);
+		BigDecimal value = recycler.getRedeemedTotalValue() == null ? BigDecimal.ZERO : recycler.getRedeemedTotalValue();
+		if (id.length > MAX_ID_BYTES || value.unscaledValue().bitLength() >= Long.SIZE
+				|| value.scale() < Byte.MIN_VALUE || value.scale() > Byte.MAX_VALUE) {
+			return false;
+		}
+		Integer slot = slots.get(recycler.getUserId());
+		if (slot == null) {
+			slot = allocateSlot();
+			if (slot < 0) {
+				return false;
+			}
+			slots.put(recycler.getUserId(), slot);
+		}
+		int offset = slotOffset(slot);
+		table.put(offset + USED, (byte) 1);
+		table.put(offset + ID_LENGTH, (byte) id.length);
+		table.put(offset + ID, id);
+		table.putLong(offset + PLASTIC_BOTTLES, recycler.getTotalPlasticBottlesRecycled());
+		table.putLong(offset + GLASS_BOTTLES, recycler.getTotalGlassBottlesRecycled());
+		table.putLong(offset + ALUMINIUM_CANS, recycler.getTotalAluminiumCansRecycled());
+		table.putLong(offset + TOTAL_ITEMS, recycler.getTotalItemsRecycled());
+		table.putLong(offset + VALUE_UNSCALED, value.unscaledValue().longValue());
+		table.put(offset + VALUE_SCALE, (byte) value.scale());
+		long lastRecycledDay = Math.floorDiv(recycler.getLastRecycledAt(), MILLIS_PER_DAY);
+		for (int i = 0; i < DAY_BYTES; i++) {
+			table.put(offset + LAST_RECYCLED_DAY + i, (byte) (lastRecycledDay >>> (8 * i)));
+		}
+		table.putInt(offset + CHECKSUM, checksumOf(offset));
+		sync();
+		return true;
+	}
+
+	/**
+	 * Applies the counters stored in the table over the counters of the given recycler.
+	 * The day of the latest recycling is applied only if it is later than the one the recycler has.
+	 * The recycler is left clean, as its counters are already stored.
+	 *
+	 * @param recycler The recycler to apply the counters to
+	 * @return True if the table had counters for the recycler
+	 */
+	public synchronized boolean apply(RegisteredRecycler recycler) {
+		Integer slot = slots.get(recycler.getUserId());
+		if (slot == null) {
+			return false;
+		}
+		int offset = slotOffset(slot);
+		boolean wasDirty = recycler.isDirty();
+		recycler.setTotalPlasticBottlesRecycled(table.getLong(offset + PLASTIC_BOTTLES));
+		recycler.setTotalGlassBottlesRecycled(table.getLong(offset + GLASS_BOTTLES));
+		recycler.setTotalAluminiumCansRecycled(table.getLong(offset + ALUMINIUM_CANS));
+		recycler.setTotalItemsRecycled();
+		recycler.setRedeemedTotalValue(new BigDecimal(
+				BigInteger.valueOf(table.getLong(offset + VALUE_UNSCALED)),
+				table.get(offset + VALUE_SCALE)));
+		long lastRecycledDay = 0;
+		for (int i = 0; i < DAY_BYTES; i++) {
+			lastRecycledDay |= Byte.toUnsignedLong(table.get(offset + LAST_RECYCLED_DAY + i)) << (8 * i);
+		}
+		if (lastRecycledDay * MILLIS_PER_DAY > recycler.getLastRecycledAt()) {
+			recycler.setLastRecycledAt(lastRecycledDay * MILLIS_PER_DAY);
+		}
+		if (!wasDirty) {
+			recycler.markClean();
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the table has a slot for the given user.
+	 *
+	 * @param userId Unique id of the user
+	 * @return True if the user has a slot
+	 */
+	public synchronized boolean contains(String userId) {
+		return slots.containsKey(userId);
+	}
+
+	/**
+	 * Gets a future of the sync of the counters written so far. It completes right away if the durability
+	 * policy doesn't sync every write.
+	 *
+	 * @return A future that completes once the written counters have been synced
+	 */
+	public synchronized CompletableFuture<Void> whenSynced() {
+		return pendingSync;
+	}
+
+	/**
+	 * Waits for the queued syncs, then syncs the table to the disk and closes it.
+	 */
+	@Override
+	public void close() {
+		PersistenceFlusher queuedSyncs;
+		synchronized (this) {
+			queuedSyncs = flusher;
+		}
+		if (queuedSyncs != null) {
+			queuedSyncs.close();
+		}
+		closeTable();
+	}
+
+	private synchronized void closeTable() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			table.force();
+			channel.close();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+		}
+		channel = null;
+	}
+
+	/**
+	 * Takes the next free slot, doubling the size of the table if it is full.
+	 *
+	 * @return The slot, or -1 if the table has reached its largest size
+	 */
+	private int allocateSlot() throws IOException {
+		if (slotCount == capacity()) {
+			if (capacity() >= maxSlots) {
+				return -1;
+			}
+			map(tableSize((int) Math.min(2L * capacity(), maxSlots)));
+		}
+		int slot = slotCount++;
+		table.putInt(SLOT_COUNT_OFFSET, slotCount);
+		return slot;
+	}
+
+	/**
+	 * Queues a sync of the written slots according to the durability policy.
+	 */
+	private void sync() {
+		switch (policy) {
+			case FSYNC_EVERY_COMMIT -> queueSync();
+			case FSYNC_INTERVAL -> {
+				long now = System.currentTimeMillis();
+				if (now - lastSyncMillis >= syncIntervalMillis) {
+					queueSync();
+					lastSyncMillis = now;
+				}
+			}
+			case OS_BUFFERED -> {
+			}
+		}
+	}
+
+	/**
+	 * Queues a sync of the whole table on the flusher, unless one is already waiting to start.
+	 * Only the pages written since the previous sync are written to the disk.
+	 */
+	private void queueSync() {
+		if (syncQueued) {
+			return;
+		}
+		syncQueued = true;
+		pendingSync = flusher.submit(channel -> {
+			MappedByteBuffer mappedTable;
+			synchronized (this) {
+				syncQueued = false;
+				mappedTable = table;
+			}
+			mappedTable.force();
+		});
+	}
+
+	private void map(long size) throws IOException {
+		table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	private static long tableSize(int slots) {
+		return HEADER_SIZE + (long) slots * SLOT_SIZE;
+	}
+
+	private int capacity() {
+		return (table.capacity() - HEADER_SIZE) / SLOT_SIZE;
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private int checksumOf(int offset) {
+		CRC32C checksum = new CRC32C();
+		checksum.update(table.slice(offset, CHECKSUM));
+		return (int) checksum.getValue();
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * A store that partitions the users by the hash of their id into shards, each of which is a
+ * {@link BinaryAppDataStore} with its own snapshot, delta and journal files.
+ * <p>
+ * Shards are loaded, flushed and closed in parallel, and every shard writes through its own background
+ * flusher, so persistence is not serialized through a single file. Storing a user only touches the shard
+ * of the user, and a shard writes its checkpoint when its own journal has grown long enough.
+ * Machine state is kept in a single store next to the shards.
+ * <p>
+ * The number of shards is recorded in a manifest file when the data is first imported from the JSON database,
+ * and the recorded number is used from then on, because a user must always be found from the same shard.
+ * Shards keep every user loaded, so they don't move idle recyclers to a cold archive.
+ */
+public class ShardedAppDataStore implements AppDataStore {
+	/**
+	 * Number of shards used by default.
+	 */
+	public static final int DEFAULT_SHARD_COUNT = 8;
+	/**
+	 * How long machine state updates are coalesced before they are written.
+	 */
+	private static final long MACHINE_FLUSH_INTERVAL_MS = 500;
+
+	/**
+	 * File that records the number of shards.
+	 */
+	private final Path manifestFile;
+	/**
+	 * JSON file the data is imported from when the shards don't exist yet.
+	 */
+	private final String jsonDatabase;
+	/**
+	 * Store that holds the machine state apart from the shards.
+	 */
+	private final MachineStateStore machineStore;
+	private final List<BinaryAppDataStore> shards;
+	/**
+	 * App data of all the shards, which holds the same user objects as the shards.
+	 */
+	private AppData appData;
+
+	/**
+	 * Creates a new sharded store using the provided database and the default number of shards.
+	 * Every journal write is synced to the disk.
+	 *
+	 * @param database The path to the database, used as the name of the shard files
+	 */
+	public ShardedAppDataStore(String database) {
+		this(database, DEFAULT_SHARD_COUNT, DurabilityPolicy.FSYNC_EVERY_COMMIT, 0);
+	}
+
+	/**
+	 * Creates a new sharded store using the provided database, number of shards and durability policy.
+	 * Shard, manifest, machine state and JSON import files are placed next to the database with the same name.
+	 *
+	 * @param database           The path to the database, used as the name of the shard files
+	 * @param shardCount         Number of shards, used only if the data has not been sharded yet
+	 * @param policy             When the journal writes of the shards are synced to the disk
+	 * @param syncIntervalMillis Sync interval used by {@link DurabilityPolicy#FSYNC_INTERVAL}
+	 * @throws IllegalStateException If the shard manifest exists but can't be read
+	 */
+	public ShardedAppDataStore(String database, int shardCount, DurabilityPolicy policy, long syncIntervalMillis) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+		}
+		String databaseName = database.replaceFirst("\\.[^.\\\\/]*$", "");
+		this.manifestFile = Path.of(databaseName + ".shards");
+		this.jsonDatabase = databaseName + ".json";
+		this.machineStore = new MachineStateStore(databaseName + ".machine", MACHINE_FLUSH_INTERVAL_MS);
+		int storedShardCount = readShardCount();
+		if (storedShardCount != 0 && storedShardCount != shardCount) {
+			System.out.println("Using the " + storedShardCount + " shards of the stored data instead of " + shardCount);
+			shardCount = storedShardCount;
+		}
+		this.shards = IntStream.range(0, shardCount)
+				.mapToObj(shard -> new BinaryAppDataStore(databaseName + ".shard" + shard + ".bin", policy, syncIntervalMillis, null))
+				.toList();
+	}
+
+	/**
+	 * Loads every shard in parallel and merges their users. If the data has not been sharded yet,
+	 * the users of the JSON database are split between the shards and written as their first snapshots.
+	 * Machine state is taken from the machine state store once it has been stored there.
+	 * <p>
+	 * Every shard must load, because the users of a missing shard could not be found from any other shard.
+	 *
+	 * @throws IllegalStateException If a shard can't be loaded
+	 */
+	@Override
+	public AppData loadSnapshot() {
+		if (!Files.exists(manifestFile)) {
+			return importJsonAppData();
+		}
+		List<AppData> shardData = shards.parallelStream()
+				.map(BinaryAppDataStore::loadSnapshot)
+				.toList();
+		List<Integer> missingShards = IntStream.range(0, shardData.size())
+				.filter(shard -> shardData.get(shard) == null)
+				.boxed()
+				.toList();
+		if (!missingShards.isEmpty()) {
+			throw new IllegalStateException("Shards " + missingShards + " listed in " + manifestFile
+					+ " could not be loaded, refusing to start without their users");
+		}
+		ArrayList<User> userData = new ArrayList<>();
+		ReverseVendingMachine rvm = null;
+		for (AppData data : shardData) {
+			userData.addAll(data.getUserData());
+			if (rvm == null) {
+				rvm = data.getRvm();
+			}
+		}
+		ReverseVendingMachine storedRvm = machineStore.loadOrNull();
+		if (storedRvm != null) {
+			rvm = storedRvm;
+		}
+		if (rvm == null) {
+			return null;
+		}
+		appData = new AppData(rvm, userData);
+		return appData;
+	}
+
+	/**
+	 * Splits the users of the JSON database between the shards, writes the shards and records the number of shards.
+	 *
+	 * @return The imported app data, or null if no JSON database was found
+	 */
+	private AppData importJsonAppData() {
+		AppData importedData = JsonAppDataStore.readJson(jsonDatabase);
+		if (importedData == null) {
+			return null;
+		}
+		List<ArrayList<User>> shardUsers = IntStream.range(0, shards.size())
+				.mapToObj(shard -> new ArrayList<User>())
+				.toList();
+		for (User user : importedData.getUserData()) {
+			shardUsers.get(shardIndex(user.getUserId())).add(user);
+		}
+		for (int shard = 0; shard < shards.size(); shard++) {
+			shards.get(shard).importData(new AppData(importedData.getRvm(), shardUsers.get(shard)));
+		}
+		machineStore.replace(importedData.getRvm());
+		try {
+			flush().join();
+			Files.writeString(manifestFile, Integer.toString(shards.size()));
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Failed to write the shards: " + e.getMessage());
+		}
+		appData = importedData;
+		return appData;
+	}
+
+	/**
+	 * Gets a user from the shard of the user.
+	 *
+	 * @param userId Unique id of the user
+	 * @return The user, or null if no user has the given id
+	 */
+	@Override
+	public User getUser(String userId) {
+		requireLoaded();
+		return shardOf(userId).getUser(userId);
+	}
+
+	/**
+	 * Checks the id against the user id filter of the shard of the user.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user has the given id, true if one may have it
+	 */
+	@Override
+	public boolean mightContainUser(String userId) {
+		return shardOf(userId).mightContainUser(userId);
+	}
+
+	/**
+	 * Stores the user in its shard, which journals it and writes a checkpoint of the shard once its journal
+	 * has grown long enough. Other shards are not touched.
+	 *
+	 * @param user The user to store
+	 * @return A future that completes once the user has been written
+	 */
+	@Override
+	public CompletableFuture<Void> upsertUser(User user) {
+		requireLoaded();
+		appData.putUser(user);
+		return shardOf(user.getUserId()).upsertUser(user);
+	}
+
+	@Override
+	public void forEachUnloadedUser(Consumer<User> consumer) throws IOException {
+		for (BinaryAppDataStore shard : shards) {
+			shard.forEachUnloadedUser(consumer);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> markUserChanged(User user) {
+		requireLoaded();
+		appData.putUser(user);
+		return shardOf(user.getUserId()).markUserChanged(user);
+	}
+
+	@Override
+	public ReverseVendingMachine loadMachineState() {
+		return machineStore.loadOrNull();
+	}
+
+	@Override
+	public CompletableFuture<Void> updateMachineState(ReverseVendingMachine rvm) {
+		return machineStore.update(rvm);
+	}
+
+	/**
+	 * Writes a checkpoint of every shard. Shards encode their snapshots in parallel,
+	 * and each shard writes its snapshot with its own flusher.
+	 *
+	 * @return A future that completes once every shard has been written
+	 */
+	@Override
+	public CompletableFuture<Void> flush() {
+		List<CompletableFuture<Void>> written = shards.parallelStream()
+				.map(BinaryAppDataStore::flush)
+				.toList();
+		return CompletableFuture.allOf(written.toArray(CompletableFuture[]::new));
+	}
+
+	@Override
+	public void close() {
+		machineStore.close();
+		shards.parallelStream().forEach(BinaryAppDataStore::close);
+	}
+
+	/**
+	 * Gets the number of shards of the store.
+	 *
+	 * @return The number of shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	private BinaryAppDataStore shardOf(String userId) {
+		return shards.get(shardIndex(userId));
+	}
+
+	/**
+	 * Checks that the shards have been loaded, so that users are not looked up from shards without data.
+	 *
+	 * @throws IllegalStateException If the shards have not been loaded
+	 */
+	private void requireLoaded() {
+		if (appData == null) {
+			throw new IllegalStateException("Sharded app data " + manifestFile + " has not been loaded");
+		}
+	}
+
+	private int shardIndex(String userId) {
+		int hash = userId.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), shards.size());
+	}
+
+	/**
+	 * Reads the number of shards recorded in the manifest.
+	 *
+	 * A manifest that exists but can't be read is an error, because the users could no longer be found
+	 * from the right shards.
+	 *
+	 * @return The recorded number of shards, or 0 if the data has not been sharded yet
+	 * @throws IllegalStateException If the manifest can't be read or doesn't hold a positive number
+	 */
+	private int readShardCount() {
+		if (!Files.exists(manifestFile)) {
+			return 0;
+		}
+		int storedShardCount;
+		try {
+			storedShardCount = Integer.parseInt(Files.readString(manifestFile).trim());
+		} catch (IOException | NumberFormatException e) {
+			throw new IllegalStateException("Unreadable shard manifest " + manifestFile + ": " + e.getMessage(), e);
+		}
+		if (storedShardCount < 1) {
+			throw new IllegalStateException("Invalid shard count in " + manifestFile + ": " + storedShardCount);
+		}
+		return storedShardCount;
+	}
+}
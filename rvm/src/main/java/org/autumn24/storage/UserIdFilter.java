@@ -0,0 +1,113 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import java.util.Arrays;
+
+/**
+ * A filter of the ids of the users known to a store, used to reject lookups of unknown ids
+ * without touching the stored users or the disk.
+ * <p>
+ * Ids are added as users are stored and never removed, so the filter answers "no" only for ids that
+ * have never been stored. It is made of Bloom filters: once the latest one is full, a new one twice as large
+ * is added with half the false positive probability, so the total probability stays below the configured one
+ * however many ids are added.
+ */
+public class UserIdFilter {
+	/**
+	 * False positive probability used when none is configured.
+	 */
+	public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+	/**
+	 * Smallest number of ids the first Bloom filter is sized for.
+	 */
+	private static final int MIN_CAPACITY = 1024;
+
+	private final double falsePositiveProbability;
+	private BloomFilter[] filters;
+	/**
+	 * Number of ids the latest Bloom filter is sized for.
+	 */
+	private int capacity;
+	/**
+	 * Number of ids added to the latest Bloom filter.
+	 */
+	private int count;
+
+	/**
+	 * Creates an empty filter sized for the given number of ids.
+	 *
+	 * @param expectedIds              Number of ids expected to be added
+	 * @param falsePositiveProbability Wanted probability of letting an unknown id through, between 0 and 1
+	 */
+	public UserIdFilter(int expectedIds, double falsePositiveProbability) {
+		this.falsePositiveProbability = falsePositiveProbability;
+		this.capacity = Math.max(MIN_CAPACITY, expectedIds);
+		this.filters = new BloomFilter[]{new BloomFilter(capacity, falsePositiveProbability / 2)};
+	}
+
+	/**
+	 * Adds the id of a stored user to the filter.
+	 *
+	 * @param userId Unique id of the user
+	 */
+	public synchronized void put(String userId) {
+		BloomFilter latest = filters[filters.length - 1];
+		if (latest.mightContain(userId)) {
+			return;
+		}
+		if (count == capacity) {
+			capacity *= 2;
+			count = 0;
+			latest = new BloomFilter(capacity, falsePositiveProbability / (2L << filters.length));
+			BloomFilter[] grownFilters = Arrays.copyOf(filters, filters.length + 1);
+			grownFilters[filters.length] = latest;
+			filters = grownFilters;
+		}
+		latest.put(userId);
+		count++;
+	}
+
+	/**
+	 * Checks whether a user with the given id may have been stored.
+	 *
+	 * @param userId Unique id of the user
+	 * @return False if no user with the id has been stored, true if one may have been
+	 */
+	public synchronized boolean mightContain(String userId) {
+		for (BloomFilter filter : filters) {
+			if (filter.mightContain(userId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the size of the filter bits in bytes.
+	 *
+	 * @return Size of the filter in bytes
+	 */
+	public synchronized long sizeInBytes() {
+		long size = 0;
+		for (BloomFilter filter : filters) {
+			size += filter.sizeInBytes();
+		}
+		return size;
+	}
+}
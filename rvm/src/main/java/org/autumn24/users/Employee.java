@@ -39,6 +39,29 @@ public class Employee extends User {
 		this.canRepairRvm = canRepairRvm;
 	}
 
+	/**
+	 * Creates an employee user from stored values.
+	 *
+	 * @param userName     Username of the employee
+	 * @param userId       Unique id of the user
+	 * @param employeeId   Id that can be used to identify the employee
+	 * @param canRepairRvm Value representing can the employee repair rvm's
+	 */
+	public Employee(String userName, String userId, String employeeId, boolean canRepairRvm) {
+		super(userName, userId, "admin");
+		this.employeeId = employeeId;
+		this.canRepairRvm = canRepairRvm;
+	}
+
+	/**
+	 * Gets the id that can be used to identify the employee.
+	 *
+	 * @return A string representing the employee id
+	 */
+	public String getEmployeeId() {
+		return employeeId;
+	}
+
 	@Override
 	public String toString() {
 		return "Employee{" +
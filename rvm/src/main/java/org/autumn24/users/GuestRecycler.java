@@ -26,7 +26,18 @@ public class GuestRecycler extends User {
 	 * Sets user params to static guest user values
 	 */
 	public GuestRecycler() {
-		super("Guest", "Guest", "guest");
+		this(null, null);
+	}
+
+	/**
+	 * Creates a guest user with the stored name and id.
+	 * A missing name or id keeps the default guest value.
+	 *
+	 * @param userName Name of the guest user, or null for the default
+	 * @param userId   Unique id of the guest user, or null for the default
+	 */
+	public GuestRecycler(String userName, String userId) {
+		super(userName != null ? userName : "Guest", userId != null ? userId : "Guest", "guest");
 	}
 
 	@Override
@@ -0,0 +1,89 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.users;
+
+import java.math.BigDecimal;
+
+/**
+ * Recycler counters kept in plain fields on the heap.
+ */
+class HeapRecyclerCounters implements RecyclerCounters {
+	private long plasticBottles;
+	private long glassBottles;
+	private long aluminiumCans;
+	private long totalItems;
+	private BigDecimal redeemedValue;
+
+	HeapRecyclerCounters(long plasticBottles, long glassBottles, long aluminiumCans, long totalItems, BigDecimal redeemedValue) {
+		this.plasticBottles = plasticBottles;
+		this.glassBottles = glassBottles;
+		this.aluminiumCans = aluminiumCans;
+		this.totalItems = totalItems;
+		this.redeemedValue = redeemedValue;
+	}
+
+	@Override
+	public long getPlasticBottles() {
+		return plasticBottles;
+	}
+
+	@Override
+	public void setPlasticBottles(long plasticBottles) {
+		this.plasticBottles = plasticBottles;
+	}
+
+	@Override
+	public long getGlassBottles() {
+		return glassBottles;
+	}
+
+	@Override
+	public void setGlassBottles(long glassBottles) {
+		this.glassBottles = glassBottles;
+	}
+
+	@Override
+	public long getAluminiumCans() {
+		return aluminiumCans;
+	}
+
+	@Override
+	public void setAluminiumCans(long aluminiumCans) {
+		this.aluminiumCans = aluminiumCans;
+	}
+
+	@Override
+	public long getTotalItems() {
+		return totalItems;
+	}
+
+	@Override
+	public void setTotalItems(long totalItems) {
+		this.totalItems = totalItems;
+	}
+
+	@Override
+	public BigDecimal getRedeemedValue() {
+		return redeemedValue;
+	}
+
+	@Override
+	public void setRedeemedValue(BigDecimal redeemedValue) {
+		this.redeemedValue = redeemedValue;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.users;
+
+import java.math.BigDecimal;
+
+/**
+ * Storage of the counters of a registered recycler.
+ * Counters are kept on the heap by default, but can be moved to other storage, such as an off-heap arena,
+ * in which case the recycler works as a thin view over them.
+ */
+public interface RecyclerCounters {
+	/**
+	 * Gets the number of plastic bottles recycled.
+	 */
+	long getPlasticBottles();
+
+	/**
+	 * Sets the number of plastic bottles recycled.
+	 */
+	void setPlasticBottles(long plasticBottles);
+
+	/**
+	 * Gets the number of glass bottles recycled.
+	 */
+	long getGlassBottles();
+
+	/**
+	 * Sets the number of glass bottles recycled.
+	 */
+	void setGlassBottles(long glassBottles);
+
+	/**
+	 * Gets the number of aluminium cans recycled.
+	 */
+	long getAluminiumCans();
+
+	/**
+	 * Sets the number of aluminium cans recycled.
+	 */
+	void setAluminiumCans(long aluminiumCans);
+
+	/**
+	 * Gets the total number of items recycled.
+	 */
+	long getTotalItems();
+
+	/**
+	 * Sets the total number of items recycled.
+	 */
+	void setTotalItems(long totalItems);
+
+	/**
+	 * Gets the total value redeemed.
+	 */
+	BigDecimal getRedeemedValue();
+
+	/**
+	 * Sets the total value redeemed.
+	 */
+	void setRedeemedValue(BigDecimal redeemedValue);
+
+	/**
+	 * Checks whether the given redeemed value can be stored, e.g. fits in the slot of an arena.
+	 * Heap counters hold any value.
+	 *
+	 * @param redeemedValue The redeemed value
+	 * @return True if {@link #setRedeemedValue} accepts the value
+	 */
+	default boolean canHold(BigDecimal redeemedValue) {
+		return true;
+	}
+
+	/**
+	 * Releases the storage once the counters have been moved elsewhere, e.g. returns a slot to its arena.
+	 */
+	default void release() {
+	}
+}
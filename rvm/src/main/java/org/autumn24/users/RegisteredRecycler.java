@@ -21,13 +21,14 @@ import java.math.BigDecimal;
 
 /**
  * A class representing a registered user.
+ * Counters of the user are kept on the heap unless they are moved to other storage with {@link #moveCounters}.
  */
 public class RegisteredRecycler extends User {
-	private long totalPlasticBottlesRecycled;
-	private long totalGlassBottlesRecycled;
-	private long totalAluminiumCansRecycled;
-	private long totalItemsRecycled;
-	private BigDecimal totalValueRecycled;
+	private RecyclerCounters counters;
+	/**
+	 * Time the user last recycled something, in epoch milliseconds, or 0 if not known.
+	 */
+	private long lastRecycledAt;
 
 	/**
 	 * Creates a new registered user with given params
@@ -50,13 +51,89 @@ public class RegisteredRecycler extends User {
 			long totalAluminiumCansRecycled,
 			long totalItemsRecycled,
 			BigDecimal redeemedTotalValue
+	) {
+		this(
+				userName,
+				userId,
+				userRole,
+				totalPlasticBottlesRecycled,
+				totalGlassBottlesRecycled,
+				totalAluminiumCansRecycled,
+				totalItemsRecycled,
+				redeemedTotalValue,
+				0
+		);
+	}
+
+	/**
+	 * Creates a new registered user with given params and the time the user last recycled something.
+	 *
+	 * @param userName                    Username of the user
+	 * @param userId                      Unique id of the user
+	 * @param userRole                    Role of the user
+	 * @param totalPlasticBottlesRecycled Total plastic bottles recycled by the user
+	 * @param totalGlassBottlesRecycled   Total glass bottles recycled by the user
+	 * @param totalAluminiumCansRecycled  Total aluminium cans recycled by the user
+	 * @param totalItemsRecycled          Total items recycled by the user
+	 * @param redeemedTotalValue          Total value redeemed by the user
+	 * @param lastRecycledAt              Time the user last recycled something in epoch milliseconds, or 0 if not known
+	 */
+	public RegisteredRecycler(
+			String userName,
+			String userId,
+			String userRole,
+			long totalPlasticBottlesRecycled,
+			long totalGlassBottlesRecycled,
+			long totalAluminiumCansRecycled,
+			long totalItemsRecycled,
+			BigDecimal redeemedTotalValue,
+			long lastRecycledAt
 	) {
 		super(userName, userId, userRole);
-		this.totalPlasticBottlesRecycled = totalPlasticBottlesRecycled;
-		this.totalGlassBottlesRecycled = totalGlassBottlesRecycled;
-		this.totalAluminiumCansRecycled = totalAluminiumCansRecycled;
-		this.totalItemsRecycled = totalItemsRecycled;
-		this.totalValueRecycled = redeemedTotalValue;
+		this.lastRecycledAt = lastRecycledAt;
+		this.counters = new HeapRecyclerCounters(
+				totalPlasticBottlesRecycled,
+				totalGlassBottlesRecycled,
+				totalAluminiumCansRecycled,
+				totalItemsRecycled,
+				redeemedTotalValue
+		);
+	}
+
+	/**
+	 * Moves the counters of the user to the given storage, after which the user reads and writes them there.
+	 * Current values of the counters are copied to the new storage.
+	 *
+	 * @param target The new storage of the counters
+	 */
+	public void moveCounters(RecyclerCounters target) {
+		target.setPlasticBottles(counters.getPlasticBottles());
+		target.setGlassBottles(counters.getGlassBottles());
+		target.setAluminiumCans(counters.getAluminiumCans());
+		target.setTotalItems(counters.getTotalItems());
+		target.setRedeemedValue(counters.getRedeemedValue());
+		RecyclerCounters previous = counters;
+		counters = target;
+		previous.release();
+	}
+
+	/**
+	 * Moves the counters of the user back to the heap, releasing their current storage,
+	 * e.g. before the user is archived. Does nothing if they are already on the heap.
+	 */
+	public void moveCountersToHeap() {
+		if (!(counters instanceof HeapRecyclerCounters)) {
+			moveCounters(new HeapRecyclerCounters(0, 0, 0, 0, BigDecimal.ZERO));
+		}
+	}
+
+	/**
+	 * Checks whether the counters of the user are kept on the heap.
+	 *
+	 * @return False if they have been moved to other storage
+	 */
+	public boolean hasCountersOnHeap() {
+		return counters instanceof HeapRecyclerCounters;
 	}
 
 	/**
@@ -65,17 +142,18 @@ public class RegisteredRecycler extends User {
 	 * @return A long value of the total items
 	 */
 	public long getTotalItemsRecycled() {
-		return totalItemsRecycled;
+		return counters.getTotalItems();
 	}
 
 	/**
 	 * Sets total items recycled by user to all different types combined.
 	 */
 	public void setTotalItemsRecycled() {
-		this.totalItemsRecycled =
-				totalPlasticBottlesRecycled
-						+ totalGlassBottlesRecycled
-						+ totalAluminiumCansRecycled;
+		counters.setTotalItems(
+				counters.getPlasticBottles()
+						+ counters.getGlassBottles()
+						+ counters.getAluminiumCans());
+		markDirty();
 	}
 
 	/**
@@ -84,7 +162,7 @@ public class RegisteredRecycler extends User {
 	 * @return A long value of total cans
 	 */
 	public long getTotalAluminiumCansRecycled() {
-		return totalAluminiumCansRecycled;
+		return counters.getAluminiumCans();
 	}
 
 	/**
@@ -93,7 +171,8 @@ public class RegisteredRecycler extends User {
 	 * @param totalAluminiumCansRecycled A long value to be set
 	 */
 	public void setTotalAluminiumCansRecycled(long totalAluminiumCansRecycled) {
-		this.totalAluminiumCansRecycled = totalAluminiumCansRecycled;
+		counters.setAluminiumCans(totalAluminiumCansRecycled);
+		markDirty();
 	}
 
 	/**
@@ -102,7 +181,7 @@ public class RegisteredRecycler extends User {
 	 * @return A long value representing the total glass bottles recycled
 	 */
 	public long getTotalGlassBottlesRecycled() {
-		return totalGlassBottlesRecycled;
+		return counters.getGlassBottles();
 	}
 
 	/**
@@ -111,7 +190,8 @@ public class RegisteredRecycler extends User {
 	 * @param totalGlassBottlesRecycled A long value to be set
 	 */
 	public void setTotalGlassBottlesRecycled(long totalGlassBottlesRecycled) {
-		this.totalGlassBottlesRecycled = totalGlassBottlesRecycled;
+		counters.setGlassBottles(totalGlassBottlesRecycled);
+		markDirty();
 	}
 
 	/**
@@ -120,7 +200,7 @@ public class RegisteredRecycler extends User {
 	 * @return A long value representing the total plastic bottles recycled
 	 */
 	public long getTotalPlasticBottlesRecycled() {
-		return totalPlasticBottlesRecycled;
+		return counters.getPlasticBottles();
 	}
 
 	/**
@@ -129,7 +209,8 @@ public class RegisteredRecycler extends User {
 	 * @param totalPlasticBottlesRecycled A long value to be set
 	 */
 	public void setTotalPlasticBottlesRecycled(long totalPlasticBottlesRecycled) {
-		this.totalPlasticBottlesRecycled = totalPlasticBottlesRecycled;
+		counters.setPlasticBottles(totalPlasticBottlesRecycled);
+		markDirty();
 	}
 
 	/**
@@ -138,26 +219,52 @@ public class RegisteredRecycler extends User {
 	 * @return A BigDecimal value representing the total value redeemed
 	 */
 	public BigDecimal getRedeemedTotalValue() {
-		return totalValueRecycled;
+		return counters.getRedeemedValue();
 	}
 
 	/**
-	 * Sets total value redeemed to given BigDecimal value
+	 * Sets total value redeemed to given BigDecimal value.
+	 * If the value doesn't fit in the current storage of the counters, they are moved back to the heap first,
+	 * so nothing has been written when the value is found not to fit.
 	 *
 	 * @param redeemedTotalValue A BigDecimal value to be set
 	 */
 	public void setRedeemedTotalValue(BigDecimal redeemedTotalValue) {
-		this.totalValueRecycled = redeemedTotalValue;
+		if (!counters.canHold(redeemedTotalValue)) {
+			moveCountersToHeap();
+		}
+		counters.setRedeemedValue(redeemedTotalValue);
+		markDirty();
+	}
+
+	/**
+	 * Gets the time the user last recycled something.
+	 *
+	 * @return Epoch milliseconds of the latest recycling, or 0 if not known
+	 */
+	public long getLastRecycledAt() {
+		return lastRecycledAt;
+	}
+
+	/**
+	 * Sets the time the user last recycled something.
+	 *
+	 * @param lastRecycledAt Epoch milliseconds of the latest recycling
+	 */
+	public void setLastRecycledAt(long lastRecycledAt) {
+		this.lastRecycledAt = lastRecycledAt;
+		markDirty();
 	}
 
 	@Override
 	public String toString() {
 		return "RegisteredRecycler{" +
-				"totalPlasticBottlesRecycled=" + totalPlasticBottlesRecycled +
-				", totalGlassBottlesRecycled=" + totalGlassBottlesRecycled +
-				", totalAluminiumCansRecycled=" + totalAluminiumCansRecycled +
-				", totalItemsRecycled=" + totalItemsRecycled +
-				", totalValueRecycled=" + totalValueRecycled +
+				"totalPlasticBottlesRecycled=" + counters.getPlasticBottles() +
+				", totalGlassBottlesRecycled=" + counters.getGlassBottles() +
+				", totalAluminiumCansRecycled=" + counters.getAluminiumCans() +
+				", totalItemsRecycled=" + counters.getTotalItems() +
+				", totalValueRecycled=" + counters.getRedeemedValue() +
+				", lastRecycledAt=" + lastRecycledAt +
 				'}';
 	}
 }
@@ -27,6 +27,10 @@ public class User {
 	private final String userName;
 	private final String userId; // This would simulate the "QR-code" in the real machine
 	private final String userRole;
+	/**
+	 * Whether the user has changed since it was last stored.
+	 */
+	private transient boolean dirty;
 
 	/**
 	 * Creates a new user with the specified name, id and role
@@ -68,6 +72,29 @@ public class User {
 		return userId;
 	}
 
+	/**
+	 * Checks whether the user has changed since it was last stored.
+	 *
+	 * @return Boolean value representing is the user changed
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Marks the user changed, so it will be written on the next save.
+	 */
+	protected void markDirty() {
+		dirty = true;
+	}
+
+	/**
+	 * Marks the user stored.
+	 */
+	public void markClean() {
+		dirty = false;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
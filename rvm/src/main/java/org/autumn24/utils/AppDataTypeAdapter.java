@@ -0,0 +1,91 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A streaming JSON type adapter for the whole application data.
+ */
+public class AppDataTypeAdapter extends TypeAdapter<AppData> {
+	private final TypeAdapter<ReverseVendingMachine> rvmAdapter;
+	private final TypeAdapter<User> userAdapter;
+
+	/**
+	 * Creates a new app data adapter.
+	 *
+	 * @param rvmAdapter  Adapter used for the machine
+	 * @param userAdapter Adapter used for the users
+	 */
+	public AppDataTypeAdapter(TypeAdapter<ReverseVendingMachine> rvmAdapter, TypeAdapter<User> userAdapter) {
+		this.rvmAdapter = rvmAdapter;
+		this.userAdapter = userAdapter;
+	}
+
+	@Override
+	public void write(JsonWriter out, AppData appData) throws IOException {
+		if (appData == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("rvm");
+		rvmAdapter.write(out, appData.getRvm());
+		out.name("userData").beginArray();
+		for (User user : appData.getUserData()) {
+			userAdapter.write(out, user);
+		}
+		out.endArray();
+		out.endObject();
+	}
+
+	@Override
+	public AppData read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		ReverseVendingMachine rvm = null;
+		ArrayList<User> userData = new ArrayList<>();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "rvm" -> rvm = rvmAdapter.read(in);
+				case "userData" -> {
+					in.beginArray();
+					while (in.hasNext()) {
+						userData.add(userAdapter.read(in));
+					}
+					in.endArray();
+				}
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		return new AppData(rvm, userData);
+	}
+}
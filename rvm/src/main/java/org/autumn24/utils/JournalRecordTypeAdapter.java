@@ -0,0 +1,118 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.autumn24.data.RecyclableData;
+import org.autumn24.items.ItemMaterial;
+import org.autumn24.storage.JournalRecord;
+import org.autumn24.storage.JournalRecordType;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A streaming JSON type adapter for the application data journal records.
+ */
+public class JournalRecordTypeAdapter extends TypeAdapter<JournalRecord> {
+	private final TypeAdapter<User> userAdapter;
+	private final TypeAdapter<RecyclableData> recyclableDataAdapter;
+
+	/**
+	 * Creates a new journal record adapter.
+	 *
+	 * @param userAdapter           Adapter used for the users of user records
+	 * @param recyclableDataAdapter Adapter used for the recyclables of machine records
+	 */
+	public JournalRecordTypeAdapter(TypeAdapter<User> userAdapter, TypeAdapter<RecyclableData> recyclableDataAdapter) {
+		this.userAdapter = userAdapter;
+		this.recyclableDataAdapter = recyclableDataAdapter;
+	}
+
+	@Override
+	public void write(JsonWriter out, JournalRecord record) throws IOException {
+		if (record == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("type").value(record.type().name());
+		if (record.user() != null) {
+			out.name("user");
+			userAdapter.write(out, record.user());
+		}
+		if (record.recyclables() != null) {
+			out.name("recyclables").beginObject();
+			for (Map.Entry<ItemMaterial, RecyclableData> entry : record.recyclables().entrySet()) {
+				out.name(entry.getKey().name());
+				recyclableDataAdapter.write(out, entry.getValue());
+			}
+			out.endObject();
+		}
+		if (record.type() == JournalRecordType.CHECKPOINT) {
+			out.name("generation").value(record.generation());
+		}
+		out.endObject();
+	}
+
+	@Override
+	public JournalRecord read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		JournalRecordType type = null;
+		User user = null;
+		Map<ItemMaterial, RecyclableData> recyclables = null;
+		long generation = 0;
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "type" -> type = valueOf(JournalRecordType.class, in.nextString());
+				case "user" -> user = userAdapter.read(in);
+				case "recyclables" -> {
+					recyclables = new EnumMap<>(ItemMaterial.class);
+					in.beginObject();
+					while (in.hasNext()) {
+						ItemMaterial material = valueOf(ItemMaterial.class, in.nextName());
+						recyclables.put(material, recyclableDataAdapter.read(in));
+					}
+					in.endObject();
+				}
+				case "generation" -> generation = in.nextLong();
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		return new JournalRecord(type, user, recyclables, generation);
+	}
+
+	private static <E extends Enum<E>> E valueOf(Class<E> enumClass, String name) {
+		try {
+			return Enum.valueOf(enumClass, name);
+		} catch (IllegalArgumentException e) {
+			throw new JsonSyntaxException("Invalid " + enumClass.getSimpleName() + ": " + name);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ReflectionAccessFilter;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import org.autumn24.data.AppData;
+import org.autumn24.data.RecyclableData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.storage.JournalRecord;
+import org.autumn24.users.User;
+
+/**
+ * Provides the hand-written streaming adapters of every persisted class to Gson.
+ * Registering this factory is all that is needed to persist the application data without reflection.
+ */
+public class PersistenceCodecs implements TypeAdapterFactory {
+	/**
+	 * Reflection filter that blocks reflective access to the application classes,
+	 * so a persisted class without an adapter fails fast instead of silently falling back to reflection.
+	 */
+	public static final ReflectionAccessFilter BLOCK_APPLICATION_CLASSES = rawClass ->
+			rawClass.getName().startsWith("org.autumn24.")
+					? ReflectionAccessFilter.FilterResult.BLOCK_ALL
+					: ReflectionAccessFilter.FilterResult.INDECISIVE;
+
+	private final UserTypeAdapter userAdapter = new UserTypeAdapter();
+	private final RecyclableDataTypeAdapter recyclableDataAdapter = new RecyclableDataTypeAdapter();
+	private final ReverseVendingMachineTypeAdapter rvmAdapter = new ReverseVendingMachineTypeAdapter(recyclableDataAdapter);
+	private final AppDataTypeAdapter appDataAdapter = new AppDataTypeAdapter(rvmAdapter, userAdapter);
+	private final JournalRecordTypeAdapter journalRecordAdapter = new JournalRecordTypeAdapter(userAdapter, recyclableDataAdapter);
+
+	/**
+	 * Creates a Gson builder that has all the persisted classes registered and reflective access to them blocked.
+	 *
+	 * @return A Gson builder configured for the application data
+	 */
+	public static GsonBuilder gsonBuilder() {
+		return new GsonBuilder()
+				.registerTypeAdapterFactory(new PersistenceCodecs())
+				.addReflectionAccessFilter(BLOCK_APPLICATION_CLASSES);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		Class<? super T> rawType = type.getRawType();
+		TypeAdapter<?> adapter;
+		if (User.class.isAssignableFrom(rawType)) {
+			adapter = userAdapter;
+		} else if (rawType == RecyclableData.class) {
+			adapter = recyclableDataAdapter;
+		} else if (rawType == ReverseVendingMachine.class) {
+			adapter = rvmAdapter;
+		} else if (rawType == AppData.class) {
+			adapter = appDataAdapter;
+		} else if (rawType == JournalRecord.class) {
+			adapter = journalRecordAdapter;
+		} else {
+			return null;
+		}
+		return (TypeAdapter<T>) adapter;
+	}
+}
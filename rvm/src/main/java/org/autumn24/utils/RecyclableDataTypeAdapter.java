@@ -0,0 +1,66 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.autumn24.data.RecyclableData;
+
+import java.io.IOException;
+
+/**
+ * A streaming JSON type adapter for the recyclable data of a machine.
+ */
+public class RecyclableDataTypeAdapter extends TypeAdapter<RecyclableData> {
+	@Override
+	public void write(JsonWriter out, RecyclableData recyclable) throws IOException {
+		if (recyclable == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("recyclingLimit").value(recyclable.getRecyclingLimit());
+		out.name("recyclingLimitCounter").value(recyclable.getRecyclingLimitCounter());
+		out.name("totalRecycled").value(recyclable.getTotalRecycled());
+		out.endObject();
+	}
+
+	@Override
+	public RecyclableData read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		short recyclingLimit = 0;
+		short recyclingLimitCounter = 0;
+		short totalRecycled = 0;
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "recyclingLimit" -> recyclingLimit = (short) in.nextInt();
+				case "recyclingLimitCounter" -> recyclingLimitCounter = (short) in.nextInt();
+				case "totalRecycled" -> totalRecycled = (short) in.nextInt();
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		return new RecyclableData(recyclingLimit, recyclingLimitCounter, totalRecycled);
+	}
+}
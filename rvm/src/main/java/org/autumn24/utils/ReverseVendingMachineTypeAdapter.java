@@ -0,0 +1,97 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.autumn24.data.RecyclableData;
+import org.autumn24.items.ItemMaterial;
+import org.autumn24.rvm.ReverseVendingMachine;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A streaming JSON type adapter for the stored state of a reverse vending machine.
+ */
+public class ReverseVendingMachineTypeAdapter extends TypeAdapter<ReverseVendingMachine> {
+	private final RecyclableDataTypeAdapter recyclableDataAdapter;
+
+	/**
+	 * Creates a new machine adapter.
+	 *
+	 * @param recyclableDataAdapter Adapter used for the recyclables of the machine
+	 */
+	public ReverseVendingMachineTypeAdapter(RecyclableDataTypeAdapter recyclableDataAdapter) {
+		this.recyclableDataAdapter = recyclableDataAdapter;
+	}
+
+	@Override
+	public void write(JsonWriter out, ReverseVendingMachine rvm) throws IOException {
+		if (rvm == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("recyclables").beginObject();
+		for (Map.Entry<ItemMaterial, RecyclableData> entry : rvm.recyclables.entrySet()) {
+			out.name(entry.getKey().name());
+			recyclableDataAdapter.write(out, entry.getValue());
+		}
+		out.endObject();
+		out.name("rvmId").value(rvm.getRvmId());
+		out.endObject();
+	}
+
+	@Override
+	public ReverseVendingMachine read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		String rvmId = null;
+		Map<ItemMaterial, RecyclableData> recyclables = new EnumMap<>(ItemMaterial.class);
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "rvmId" -> rvmId = in.nextString();
+				case "recyclables" -> {
+					in.beginObject();
+					while (in.hasNext()) {
+						String material = in.nextName();
+						try {
+							recyclables.put(ItemMaterial.valueOf(material), recyclableDataAdapter.read(in));
+						} catch (IllegalArgumentException e) {
+							throw new JsonSyntaxException("Invalid item material: " + material);
+						}
+					}
+					in.endObject();
+				}
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+		ReverseVendingMachine rvm = rvmId == null ? new ReverseVendingMachine() : new ReverseVendingMachine(rvmId);
+		rvm.recyclables.putAll(recyclables);
+		return rvm;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.autumn24.users.Employee;
+import org.autumn24.users.GuestRecycler;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * A streaming JSON type adapter for all the users.
+ * Fields are read in a single pass, and the correct user object is created from the user role
+ * once the whole user has been read, so the role can appear anywhere in the object.
+ */
+public class UserTypeAdapter extends TypeAdapter<User> {
+	@Override
+	public void write(JsonWriter out, User user) throws IOException {
+		if (user == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		switch (user) {
+			case RegisteredRecycler recycler -> {
+				out.name("totalPlasticBottlesRecycled").value(recycler.getTotalPlasticBottlesRecycled());
+				out.name("totalGlassBottlesRecycled").value(recycler.getTotalGlassBottlesRecycled());
+				out.name("totalAluminiumCansRecycled").value(recycler.getTotalAluminiumCansRecycled());
+				out.name("totalItemsRecycled").value(recycler.getTotalItemsRecycled());
+				out.name("totalValueRecycled").value(recycler.getRedeemedTotalValue());
+				out.name("lastRecycledAt").value(recycler.getLastRecycledAt());
+			}
+			case Employee employee -> {
+				out.name("employeeId").value(employee.getEmployeeId());
+				out.name("canRepairRvm").value(employee.canRepairRvm);
+			}
+			default -> {
+			}
+		}
+		out.name("userName").value(user.getUserName());
+		out.name("userId").value(user.getUserId());
+		out.name("userRole").value(user.getUserRole());
+		out.endObject();
+	}
+
+	@Override
+	public User read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		String userName = null;
+		String userId = null;
+		String userRole = null;
+		long totalPlasticBottlesRecycled = 0;
+		long totalGlassBottlesRecycled = 0;
+		long totalAluminiumCansRecycled = 0;
+		long totalItemsRecycled = 0;
+		BigDecimal totalValueRecycled = BigDecimal.ZERO;
+		long lastRecycledAt = 0;
+		String employeeId = null;
+		boolean canRepairRvm = false;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			String name = in.nextName();
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				continue;
+			}
+			switch (name) {
+				case "userName" -> userName = in.nextString();
+				case "userId" -> userId = in.nextString();
+				case "userRole" -> userRole = in.nextString();
+				case "totalPlasticBottlesRecycled" -> totalPlasticBottlesRecycled = in.nextLong();
+				case "totalGlassBottlesRecycled" -> totalGlassBottlesRecycled = in.nextLong();
+				case "totalAluminiumCansRecycled" -> totalAluminiumCansRecycled = in.nextLong();
+				case "totalItemsRecycled" -> totalItemsRecycled = in.nextLong();
+				case "totalValueRecycled" -> totalValueRecycled = new BigDecimal(in.nextString());
+				case "lastRecycledAt" -> lastRecycledAt = in.nextLong();
+				case "employeeId" -> employeeId = in.nextString();
+				case "canRepairRvm" -> canRepairRvm = in.nextBoolean();
+				default -> in.skipValue();
+			}
+		}
+		in.endObject();
+
+		if (userRole == null) {
+			throw new JsonSyntaxException("Missing user role at " + in.getPath());
+		}
+		return switch (userRole) {
+			case "admin" -> new Employee(userName, userId, employeeId, canRepairRvm);
+			case "guest" -> new GuestRecycler(userName, userId);
+			case "recycler" -> new RegisteredRecycler(
+					userName,
+					userId,
+					userRole,
+					totalPlasticBottlesRecycled,
+					totalGlassBottlesRecycled,
+					totalAluminiumCansRecycled,
+					totalItemsRecycled,
+					totalValueRecycled,
+					lastRecycledAt
+			);
+			default -> throw new JsonSyntaxException("Invalid user role: " + userRole);
+		};
+	}
+}
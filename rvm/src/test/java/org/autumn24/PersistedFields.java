@@ -0,0 +1,171 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads and fills the persisted fields of the application classes reflectively, so tests can check that
+ * the hand-written codecs keep every field. A field is persisted unless it is static or transient.
+ * Fields of application classes, maps and collections are followed into the objects they hold.
+ */
+public final class PersistedFields {
+	/**
+	 * Fields that are not filled, as they select the type of the decoded object.
+	 */
+	private static final List<String> TYPE_FIELDS = List.of("userRole");
+
+	private PersistedFields() {
+	}
+
+	/**
+	 * Collects the persisted values of the object, keyed by their path from the object.
+	 *
+	 * @param object The object whose values are collected
+	 * @return The persisted values by their path, in the order of the paths
+	 */
+	public static Map<String, Object> of(Object object) {
+		Map<String, Object> values = new TreeMap<>();
+		collect("", object, values);
+		return values;
+	}
+
+	/**
+	 * Sets every persisted value of the object to a value that differs from its current one,
+	 * so a value that a codec drops shows up as a difference after a round trip.
+	 *
+	 * @param object The object to fill
+	 * @param <T>    The type of the object
+	 * @return The filled object
+	 */
+	public static <T> T fill(T object) {
+		fill(object, new int[]{1});
+		return object;
+	}
+
+	private static void collect(String path, Object value, Map<String, Object> values) {
+		if (value == null || isLeaf(value.getClass())) {
+			values.put(path, value);
+		} else if (value instanceof Map<?, ?> map) {
+			map.forEach((key, entry) -> collect(path + "[" + key + "]", entry, values));
+		} else if (value instanceof Collection<?> collection) {
+			int index = 0;
+			for (Object element : collection) {
+				collect(path + "[" + index++ + "]", element, values);
+			}
+		} else if (isApplicationClass(value.getClass())) {
+			for (Field field : persistedFields(value.getClass())) {
+				collect(path + "." + field.getName(), get(field, value), values);
+			}
+		} else {
+			values.put(path, value);
+		}
+	}
+
+	private static void fill(Object object, int[] counter) {
+		if (object instanceof Map<?, ?> map) {
+			map.values().forEach(value -> fill(value, counter));
+		} else if (object instanceof Collection<?> collection) {
+			collection.forEach(element -> fill(element, counter));
+		} else if (object != null && isApplicationClass(object.getClass())) {
+			for (Field field : persistedFields(object.getClass())) {
+				Object value = get(field, object);
+				if (isLeaf(field.getType())) {
+					if (!TYPE_FIELDS.contains(field.getName())) {
+						set(field, object, changed(field.getType(), value, counter[0]++));
+					}
+				} else {
+					fill(value, counter);
+				}
+			}
+		}
+	}
+
+	private static Object changed(Class<?> type, Object value, int counter) {
+		if (type == boolean.class || type == Boolean.class) {
+			return !Boolean.TRUE.equals(value);
+		} else if (type == short.class || type == Short.class) {
+			return (short) ((value == null ? 0 : (Short) value) + counter);
+		} else if (type == int.class || type == Integer.class) {
+			return (value == null ? 0 : (Integer) value) + counter;
+		} else if (type == long.class || type == Long.class) {
+			return (value == null ? 0 : (Long) value) + counter * 1000L;
+		} else if (type == byte.class || type == Byte.class) {
+			return (byte) ((value == null ? 0 : (Byte) value) + counter);
+		} else if (type == double.class || type == Double.class) {
+			return (value == null ? 0 : (Double) value) + counter + 0.5;
+		} else if (type == float.class || type == Float.class) {
+			return (value == null ? 0 : (Float) value) + counter + 0.5f;
+		} else if (type == String.class) {
+			return (value == null ? "value" : value) + "-" + counter;
+		} else if (type == BigDecimal.class) {
+			return (value == null ? BigDecimal.ZERO : (BigDecimal) value).add(new BigDecimal(counter + ".25"));
+		} else if (type.isEnum()) {
+			Object[] constants = type.getEnumConstants();
+			int index = value == null ? 0 : (((Enum<?>) value).ordinal() + 1) % constants.length;
+			return constants[index];
+		}
+		throw new IllegalArgumentException("Can't change a value of " + type);
+	}
+
+	private static List<Field> persistedFields(Class<?> type) {
+		List<Field> fields = new ArrayList<>();
+		for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+		}
+		return fields;
+	}
+
+	private static boolean isLeaf(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == String.class || type == BigDecimal.class
+				|| type == Boolean.class || Number.class.isAssignableFrom(type) && type.getName().startsWith("java.lang.");
+	}
+
+	private static boolean isApplicationClass(Class<?> type) {
+		return type.getName().startsWith("org.autumn24.");
+	}
+
+	private static Object get(Field field, Object object) {
+		try {
+			return field.get(object);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void set(Field field, Object object, Object value) {
+		try {
+			field.set(object, value);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
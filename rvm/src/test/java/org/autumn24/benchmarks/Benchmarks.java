@@ -0,0 +1,137 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.benchmarks;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.Employee;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Data and timing helpers shared by the benchmarks. The benchmarks are plain main classes next to the tests,
+ * so they are compiled with the tests but never run by them. Each one is run on its own from the module directory
+ * once the test classes have been compiled, e.g.
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -Xmx8g -cp target/classes:target/test-classes:$(cat target/classpath.txt) org.autumn24.benchmarks.LoadSaveBenchmark
+ * </pre>
+ * Every measurement is repeated, and the first rounds are reported as warm-up, as they include JIT compilation.
+ */
+final class Benchmarks {
+	/**
+	 * Number of measured rounds after the warm-up rounds.
+	 */
+	static final int ROUNDS = 5;
+	/**
+	 * Number of rounds run before the measured ones.
+	 */
+	static final int WARM_UP_ROUNDS = 2;
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * A measured piece of work.
+	 */
+	@FunctionalInterface
+	interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Creates app data with the given number of users, one in a thousand of which is an employee
+	 * and the rest are recyclers with some recycled items. User ids are "u0", "u1" and so on.
+	 *
+	 * @param userCount Number of users
+	 * @return The app data
+	 */
+	static AppData appData(int userCount) {
+		ArrayList<User> users = new ArrayList<>(userCount);
+		for (int i = 0; i < userCount; i++) {
+			users.add(user(i));
+		}
+		return new AppData(new ReverseVendingMachine("benchmark"), users);
+	}
+
+	/**
+	 * Creates the user with the given index, as created by {@link #appData(int)}.
+	 *
+	 * @param index Index of the user
+	 * @return The user
+	 */
+	static User user(int index) {
+		String userId = "u" + index;
+		if (index % 1000 == 999) {
+			return new Employee("Employee " + index, userId, "E-" + index, false);
+		}
+		return new RegisteredRecycler("Recycler " + index, userId, "recycler", index % 50, index % 30, index % 20,
+				index % 100, BigDecimal.valueOf(index % 100, 2));
+	}
+
+	/**
+	 * Reads a numeric argument, or the default if it was not given.
+	 *
+	 * @param args         The arguments of the benchmark
+	 * @param index        Index of the argument
+	 * @param defaultValue Value used if the argument was not given
+	 * @return The value of the argument
+	 */
+	static int intArg(String[] args, int index, int defaultValue) {
+		return args.length > index ? Integer.parseInt(args[index].replace("_", "")) : defaultValue;
+	}
+
+	/**
+	 * Runs the task for the warm-up and measured rounds and prints the time of every measured round.
+	 *
+	 * @param label Name of the measurement
+	 * @param task  The work to measure
+	 * @return The fastest measured time in nanoseconds
+	 * @throws Exception If the task fails
+	 */
+	static long measure(String label, Task task) throws Exception {
+		for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+			task.run();
+		}
+		long[] times = new long[ROUNDS];
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			task.run();
+			times[round] = System.nanoTime() - start;
+		}
+		long best = Arrays.stream(times).min().orElseThrow();
+		System.out.printf("%-40s best %9.1f ms, rounds %s%n", label, best / 1e6,
+				Arrays.toString(Arrays.stream(times).mapToObj(time -> "%.1f".formatted(time / 1e6)).toArray()));
+		return best;
+	}
+
+	/**
+	 * Gets the number of heap bytes in use after a garbage collection.
+	 *
+	 * @return Used heap in bytes
+	 */
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
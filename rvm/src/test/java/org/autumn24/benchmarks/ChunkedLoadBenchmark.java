@@ -0,0 +1,54 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.benchmarks;
+
+import org.autumn24.storage.BinarySnapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long binary snapshots of growing numbers of users take to load, with the user records decoded
+ * in parallel chunks. Takes the numbers of users as its arguments, 100 000, 1 000 000 and 5 000 000 by default.
+ * The chunks are decoded on the common fork/join pool, so running with
+ * {@code -Djava.util.concurrent.ForkJoinPool.common.parallelism=1} gives the sequential baseline.
+ */
+public class ChunkedLoadBenchmark {
+	public static void main(String[] args) throws Exception {
+		int[] userCounts = args.length > 0
+				? Arrays.stream(args).mapToInt(arg -> Integer.parseInt(arg.replace("_", ""))).toArray()
+				: new int[]{100_000, 1_000_000, 5_000_000};
+		System.out.printf("Decoding with a parallelism of %d%n", ForkJoinPool.commonPool().getParallelism());
+		Path directory = Files.createTempDirectory("rvm-benchmark");
+		Path snapshotFile = directory.resolve("appData.bin");
+		for (int userCount : userCounts) {
+			BinarySnapshot.write(snapshotFile, BinarySnapshot.encode(Benchmarks.appData(userCount), 1));
+			long loadNanos = Benchmarks.measure("load " + userCount + " users", () -> {
+				if (BinarySnapshot.read(snapshotFile).appData().getUserData().size() != userCount) {
+					throw new IllegalStateException("Users were lost on load");
+				}
+			});
+			System.out.printf("%-40s %9.1f MB, %.0f users/s%n", "snapshot", Files.size(snapshotFile) / 1e6, userCount / (loadNanos / 1e9));
+		}
+		Files.delete(snapshotFile);
+		Files.deleteIfExists(BinarySnapshot.previousGeneration(snapshotFile));
+		Files.delete(directory);
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.benchmarks;
+
+import org.autumn24.data.AppData;
+import org.autumn24.storage.JsonAppDataStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures how long the JSON database of a large number of users takes to save and load through the streaming
+ * type adapters, and how much heap the loaded users take. Takes the number of users as its argument, 1 000 000 by default.
+ */
+public class LoadSaveBenchmark {
+	public static void main(String[] args) throws Exception {
+		int userCount = Benchmarks.intArg(args, 0, 1_000_000);
+		Path directory = Files.createTempDirectory("rvm-benchmark");
+		String jsonFile = directory.resolve("appData.json").toString();
+		long heapBefore = Benchmarks.usedHeap();
+		AppData appData = Benchmarks.appData(userCount);
+		System.out.printf("%d users, %.1f MB of heap%n", userCount, (Benchmarks.usedHeap() - heapBefore) / 1e6);
+		long saveNanos = Benchmarks.measure("save", () -> JsonAppDataStore.writeJson(jsonFile, appData));
+		System.out.printf("%-40s %9.1f MB, %.0f users/s%n", "file", Files.size(Path.of(jsonFile)) / 1e6, userCount / (saveNanos / 1e9));
+		long loadNanos = Benchmarks.measure("load", () -> {
+			if (JsonAppDataStore.readJson(jsonFile).getUserData().size() != userCount) {
+				throw new IllegalStateException("Users were lost on load");
+			}
+		});
+		System.out.printf("%-40s %9.0f users/s%n", "load rate", userCount / (loadNanos / 1e9));
+		Files.delete(Path.of(jsonFile));
+		Files.delete(directory);
+	}
+}
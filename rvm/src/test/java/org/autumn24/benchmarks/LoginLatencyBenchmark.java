@@ -0,0 +1,81 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.benchmarks;
+
+import org.autumn24.authentication.Authentication;
+import org.autumn24.managers.AppDataManager;
+import org.autumn24.managers.AuthManager;
+import org.autumn24.storage.InMemoryAppDataStore;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the latency of a login lookup as the number of users grows, which stays flat when a login is
+ * resolved with a single hashed lookup. Logins scan random ids, one in ten of which is unknown, so most of
+ * them miss the user cache. Takes the numbers of users as its arguments, 10 000, 100 000 and 1 000 000 by default.
+ */
+public class LoginLatencyBenchmark {
+	/**
+	 * Number of logins measured for every number of users, after as many warm-up logins.
+	 */
+	private static final int LOGINS = 200_000;
+
+	public static void main(String[] args) {
+		int[] userCounts = args.length > 0
+				? Arrays.stream(args).mapToInt(arg -> Integer.parseInt(arg.replace("_", ""))).toArray()
+				: new int[]{10_000, 100_000, 1_000_000};
+		for (int userCount : userCounts) {
+			// The in-memory store holds its users from the start, so lookups don't wait for a load
+			AppDataManager appDataManager = new AppDataManager(new InMemoryAppDataStore(Benchmarks.appData(userCount)));
+			Authentication authentication = new Authentication(new AuthManager(appDataManager));
+			SplittableRandom random = new SplittableRandom(userCount);
+			login(authentication, random, userCount);
+			long[] nanos = login(authentication, random, userCount);
+			Arrays.sort(nanos);
+			System.out.printf("%-40s p50 %6.2f us, p99 %6.2f us, p99.9 %6.2f us, mean %6.2f us%n", userCount + " users",
+					percentile(nanos, 0.5), percentile(nanos, 0.99), percentile(nanos, 0.999), Arrays.stream(nanos).average().orElse(0) / 1e3);
+			appDataManager.close();
+		}
+	}
+
+	/**
+	 * Looks up random user ids and returns the time of every lookup in nanoseconds.
+	 */
+	private static long[] login(Authentication authentication, SplittableRandom random, int userCount) {
+		long[] nanos = new long[LOGINS];
+		int found = 0;
+		for (int i = 0; i < LOGINS; i++) {
+			int index = random.nextInt(userCount);
+			String userId = random.nextInt(10) == 0 ? "unknown" + index : "u" + index;
+			long start = System.nanoTime();
+			if (authentication.lookup(userId) != null) {
+				found++;
+			}
+			nanos[i] = System.nanoTime() - start;
+		}
+		if (found == 0) {
+			throw new IllegalStateException("No user was found");
+		}
+		return nanos;
+	}
+
+	private static double percentile(long[] sortedNanos, double percentile) {
+		return sortedNanos[(int) Math.min(sortedNanos.length - 1, Math.round(percentile * sortedNanos.length))] / 1e3;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.benchmarks;
+
+import org.autumn24.storage.AppDataStore;
+import org.autumn24.storage.BinaryAppDataStore;
+import org.autumn24.storage.DurabilityPolicy;
+import org.autumn24.storage.JsonAppDataStore;
+import org.autumn24.storage.LsmAppDataStore;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Measures the write throughput of the LSM store, with the binary journal store as the baseline, when sessions
+ * close and store their users one after another. Every write is appended with the given durability policy,
+ * and the time includes waiting for the last write and closing the store, which writes out what is left in memory.
+ * Takes the number of writes as its first argument, 100 000 by default, and the number of distinct users
+ * as its second, 20 000 by default.
+ */
+public class LsmWriteBenchmark {
+	public static void main(String[] args) throws Exception {
+		int writeCount = Benchmarks.intArg(args, 0, 100_000);
+		int userCount = Benchmarks.intArg(args, 1, 20_000);
+		User[] users = Benchmarks.appData(userCount).getUserData().toArray(User[]::new);
+		for (DurabilityPolicy policy : List.of(DurabilityPolicy.OS_BUFFERED, DurabilityPolicy.FSYNC_EVERY_COMMIT)) {
+			run("lsm, " + policy, writeCount, users, database -> new LsmAppDataStore(database, policy, 0));
+			run("binary, " + policy, writeCount, users, database -> new BinaryAppDataStore(database, policy, 0, null));
+		}
+	}
+
+	private static void run(String label, int writeCount, User[] users, Function<String, AppDataStore> storeFactory) throws Exception {
+		long nanos = Benchmarks.measure(label, () -> {
+			Path directory = Files.createTempDirectory("rvm-benchmark");
+			try {
+				JsonAppDataStore.writeJson(directory.resolve("appData.json").toString(), Benchmarks.appData(0));
+				try (AppDataStore store = storeFactory.apply(directory.resolve("appData.bin").toString())) {
+					store.loadSnapshot();
+					CompletableFuture<Void> written = null;
+					for (int i = 0; i < writeCount; i++) {
+						written = store.upsertUser(users[i % users.length]);
+					}
+					if (written != null) {
+						written.join();
+					}
+				}
+			} finally {
+				delete(directory);
+			}
+		});
+		System.out.printf("%-40s %9.0f writes/s%n", label + " rate", writeCount / (nanos / 1e9));
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.autumn24.storage.StoreFixtures.copyFiles;
+import static org.autumn24.storage.StoreFixtures.corrupt;
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.autumn24.storage.StoreFixtures.writeJsonDatabase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the binary store keeps the changes through a close, a crash and a corrupt snapshot.
+ */
+class BinaryAppDataStoreTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void changesSurviveReopening() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (BinaryAppDataStore store = open(directory)) {
+			assertNotNull(store.loadSnapshot());
+			store.upsertUser(recycler("u1", 3));
+			store.upsertUser(recycler("new", 7));
+		}
+		try (BinaryAppDataStore store = open(directory)) {
+			AppData appData = store.loadSnapshot();
+			assertEquals(StoreFixtures.USER_COUNT + 1, appData.getUserData().size());
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+			assertEquals("rvm", appData.getRvm().getRvmId());
+		}
+	}
+
+	@Test
+	void journalIsReplayedAfterCrash() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		Path crashed = directory.resolve("crashed");
+		try (BinaryAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 2)).join();
+			store.flush().join();
+			store.upsertUser(recycler("u1", 5)).join();
+			store.upsertUser(recycler("u2", 1)).join();
+			copyFiles(directory, crashed);
+		}
+		try (BinaryAppDataStore store = open(crashed)) {
+			store.loadSnapshot();
+			assertEquals(5L, plasticBottlesOf(store, "u1"));
+			assertEquals(1L, plasticBottlesOf(store, "u2"));
+		}
+	}
+
+	@Test
+	void corruptSnapshotFallsBackToPreviousGeneration() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (BinaryAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 2));
+			store.flush().join();
+			store.upsertUser(recycler("u1", 4));
+			store.flush().join();
+			store.upsertUser(recycler("u1", 5));
+		}
+		corrupt(directory.resolve("appData.bin"));
+		try (BinaryAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(5L, plasticBottlesOf(store, "u1"));
+		}
+	}
+
+	@Test
+	void brokenRecoveryChainIsRefused() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (BinaryAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 2));
+			store.flush().join();
+			store.upsertUser(recycler("u1", 4));
+			store.flush().join();
+		}
+		corrupt(directory.resolve("appData.bin"));
+		for (Path file : new Path[]{directory.resolve("appData.journal.prev"), directory.resolve("appData.journal.base"),
+				directory.resolve("appData.delta.prev"), directory.resolve("appData.delta.base")}) {
+			Files.deleteIfExists(file);
+		}
+		try (BinaryAppDataStore store = open(directory)) {
+			assertThrows(IllegalStateException.class, store::loadSnapshot);
+		}
+	}
+
+	private static BinaryAppDataStore open(Path directory) {
+		return new BinaryAppDataStore(directory.resolve("appData.bin").toString(), DurabilityPolicy.FSYNC_EVERY_COMMIT, 0, null);
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that the in-memory store keeps the changes in the data it was given, as it has nothing to recover from.
+ */
+class InMemoryAppDataStoreTest {
+	@Test
+	void changesAreKeptInTheGivenData() {
+		AppData appData = new AppData(new ReverseVendingMachine("rvm"), new ArrayList<>());
+		try (InMemoryAppDataStore store = new InMemoryAppDataStore(appData)) {
+			assertSame(appData, store.loadSnapshot());
+			store.upsertUser(recycler("u1", 1)).join();
+			store.upsertUser(recycler("u1", 3)).join();
+			ReverseVendingMachine rvm = new ReverseVendingMachine("replaced");
+			store.updateMachineState(rvm).join();
+			assertEquals(1, appData.getUserData().size());
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertSame(rvm, appData.getRvm());
+			assertNull(store.getUser("unknown"));
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.autumn24.storage.StoreFixtures.copyFiles;
+import static org.autumn24.storage.StoreFixtures.corrupt;
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.autumn24.storage.StoreFixtures.writeJsonDatabase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the indexed store keeps the changes through a close and a crash, and that a corrupt
+ * snapshot or index is replaced by the previous generation or a rebuilt index.
+ */
+class IndexedAppDataStoreTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void changesSurviveReopening() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (IndexedAppDataStore store = open(directory)) {
+			assertNotNull(store.loadSnapshot());
+			store.upsertUser(recycler("u1", 3));
+			store.upsertUser(recycler("new", 7));
+		}
+		try (IndexedAppDataStore store = open(directory)) {
+			assertTrue(store.loadSnapshot().getUserData().isEmpty());
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(0L, plasticBottlesOf(store, "u2"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+			assertEquals(-1L, plasticBottlesOf(store, "unknown"));
+		}
+	}
+
+	@Test
+	void journalIsReplayedAfterCrash() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		Path crashed = directory.resolve("crashed");
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.flush().join();
+			store.upsertUser(recycler("u1", 5)).join();
+			store.upsertUser(recycler("new", 7)).join();
+			copyFiles(directory, crashed);
+		}
+		try (IndexedAppDataStore store = open(crashed)) {
+			store.loadSnapshot();
+			assertEquals(5L, plasticBottlesOf(store, "u1"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+		}
+	}
+
+	@Test
+	void corruptSnapshotFallsBackToPreviousGeneration() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 2));
+			store.flush().join();
+			store.upsertUser(recycler("u1", 4));
+		}
+		corrupt(directory.resolve("appData.bin"));
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(4L, plasticBottlesOf(store, "u1"));
+			assertEquals(0L, plasticBottlesOf(store, "u2"));
+		}
+	}
+
+	@Test
+	void corruptIndexIsRebuilt() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 3));
+			store.flush().join();
+		}
+		corrupt(directory.resolve("appData.idx"));
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(0L, plasticBottlesOf(store, "u9"));
+		}
+		Files.delete(directory.resolve("appData.idx"));
+		try (IndexedAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+		}
+	}
+
+	private static IndexedAppDataStore open(Path directory) {
+		return new IndexedAppDataStore(directory.resolve("appData.bin").toString());
+	}
+}
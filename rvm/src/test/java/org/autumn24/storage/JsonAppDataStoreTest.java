@@ -0,0 +1,95 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.autumn24.storage.StoreFixtures.writeJsonDatabase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that the JSON store keeps the changes through a close, and that a torn write never replaces the file.
+ */
+class JsonAppDataStoreTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	void changesSurviveReopening() throws IOException {
+		Path jsonFile = directory.resolve("appData.json");
+		writeJsonDatabase(jsonFile);
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 3)).join();
+			store.upsertUser(recycler("new", 7)).join();
+		}
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			AppData appData = store.loadSnapshot();
+			assertEquals(StoreFixtures.USER_COUNT + 1, appData.getUserData().size());
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+		}
+	}
+
+	@Test
+	void coalescedMachineUpdatesAreWrittenOnClose() throws IOException {
+		Path jsonFile = directory.resolve("appData.json");
+		writeJsonDatabase(jsonFile);
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			store.loadSnapshot();
+			store.updateMachineState(new ReverseVendingMachine("replaced"));
+		}
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			assertEquals("replaced", store.loadSnapshot().getRvm().getRvmId());
+		}
+	}
+
+	@Test
+	void tornWriteLeavesPreviousFile() throws IOException {
+		Path jsonFile = directory.resolve("appData.json");
+		writeJsonDatabase(jsonFile);
+		byte[] json = Files.readAllBytes(jsonFile);
+		Files.write(directory.resolve("appData.json.tmp"), Arrays.copyOf(json, json.length / 2));
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			store.loadSnapshot();
+			assertEquals(0L, plasticBottlesOf(store, "u1"));
+		}
+	}
+
+	@Test
+	void truncatedFileIsNotLoaded() throws IOException {
+		Path jsonFile = directory.resolve("appData.json");
+		writeJsonDatabase(jsonFile);
+		byte[] json = Files.readAllBytes(jsonFile);
+		Files.write(jsonFile, Arrays.copyOf(json, json.length / 2));
+		try (JsonAppDataStore store = new JsonAppDataStore(jsonFile.toString())) {
+			assertNull(store.loadSnapshot());
+		}
+	}
+}
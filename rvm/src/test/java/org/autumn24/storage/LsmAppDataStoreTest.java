@@ -0,0 +1,143 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.autumn24.storage.StoreFixtures.copyFiles;
+import static org.autumn24.storage.StoreFixtures.corrupt;
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.autumn24.storage.StoreFixtures.writeJsonDatabase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Checks that the LSM store keeps the changes through a close, replays its write-ahead logs after a crash,
+ * and skips torn log records and corrupt segments.
+ */
+class LsmAppDataStoreTest {
+	/**
+	 * Number of users written to fill several memtables, so segments are written and compacted.
+	 */
+	private static final int SEGMENTED_USER_COUNT = 20_000;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void changesSurviveReopening() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (LsmAppDataStore store = open(directory)) {
+			assertNotNull(store.loadSnapshot());
+			for (int i = 0; i < SEGMENTED_USER_COUNT; i++) {
+				store.upsertUser(recycler("s" + i, i));
+			}
+			store.upsertUser(recycler("u1", 3));
+		}
+		try (LsmAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(0L, plasticBottlesOf(store, "u2"));
+			assertEquals(SEGMENTED_USER_COUNT - 1L, plasticBottlesOf(store, "s" + (SEGMENTED_USER_COUNT - 1)));
+			int[] userCount = {0};
+			store.forEachUnloadedUser(user -> userCount[0]++);
+			assertEquals(StoreFixtures.USER_COUNT + SEGMENTED_USER_COUNT, userCount[0]);
+		}
+	}
+
+	@Test
+	void writeAheadLogIsReplayedAfterCrash() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		Path crashed = directory.resolve("crashed");
+		try (LsmAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 5)).join();
+			store.upsertUser(recycler("new", 7)).join();
+			copyFiles(directory, crashed);
+		}
+		try (LsmAppDataStore store = open(crashed)) {
+			store.loadSnapshot();
+			assertEquals(5L, plasticBottlesOf(store, "u1"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+		}
+	}
+
+	@Test
+	void tornLogRecordIsSkipped() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		Path crashed = directory.resolve("crashed");
+		try (LsmAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			store.upsertUser(recycler("u1", 5)).join();
+			copyFiles(directory, crashed);
+		}
+		for (Path logFile : files(crashed, "wal-")) {
+			Files.write(logFile, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+		}
+		try (LsmAppDataStore store = open(crashed)) {
+			store.loadSnapshot();
+			assertEquals(5L, plasticBottlesOf(store, "u1"));
+		}
+	}
+
+	@Test
+	void corruptSegmentIsSkipped() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (LsmAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+		}
+		List<Path> segments = files(directory, "segment-");
+		assertFalse(segments.isEmpty());
+		segments.forEach(segment -> {
+			try {
+				corrupt(segment);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		});
+		try (LsmAppDataStore store = open(directory)) {
+			assertNotNull(store.loadSnapshot());
+			store.upsertUser(recycler("u1", 2)).join();
+			assertEquals(2L, plasticBottlesOf(store, "u1"));
+		}
+		try (LsmAppDataStore store = open(directory)) {
+			store.loadSnapshot();
+			assertEquals(2L, plasticBottlesOf(store, "u1"));
+		}
+	}
+
+	private static LsmAppDataStore open(Path directory) {
+		return new LsmAppDataStore(directory.resolve("appData.bin").toString());
+	}
+
+	private static List<Path> files(Path directory, String prefix) throws IOException {
+		try (Stream<Path> files = Files.list(directory.resolve("appData.lsm"))) {
+			return files.filter(file -> file.getFileName().toString().startsWith(prefix)).toList();
+		}
+	}
+}
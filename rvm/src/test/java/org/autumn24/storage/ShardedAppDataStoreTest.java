@@ -0,0 +1,137 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.autumn24.storage.StoreFixtures.copyFiles;
+import static org.autumn24.storage.StoreFixtures.corrupt;
+import static org.autumn24.storage.StoreFixtures.plasticBottlesOf;
+import static org.autumn24.storage.StoreFixtures.recycler;
+import static org.autumn24.storage.StoreFixtures.writeJsonDatabase;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the sharded store keeps the changes through a close and a crash, keeps the recorded number
+ * of shards, falls back to the previous generation of a corrupt shard and refuses to load without a shard.
+ */
+class ShardedAppDataStoreTest {
+	private static final int SHARD_COUNT = 4;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void changesSurviveReopening() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			assertNotNull(store.loadSnapshot());
+			store.upsertUser(recycler("u1", 3));
+			store.upsertUser(recycler("new", 7));
+		}
+		// The number of shards recorded on import is used instead of the configured one
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT * 2)) {
+			AppData appData = store.loadSnapshot();
+			assertEquals(StoreFixtures.USER_COUNT + 1, appData.getUserData().size());
+			assertEquals(3L, plasticBottlesOf(store, "u1"));
+			assertEquals(7L, plasticBottlesOf(store, "new"));
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				assertNotNull(store.getUser("u" + i));
+			}
+		}
+	}
+
+	@Test
+	void journalsAreReplayedAfterCrash() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		Path crashed = directory.resolve("crashed");
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			store.loadSnapshot();
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				store.upsertUser(recycler("u" + i, i + 1)).join();
+			}
+			copyFiles(directory, crashed);
+		}
+		try (ShardedAppDataStore store = open(crashed, SHARD_COUNT)) {
+			store.loadSnapshot();
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				assertEquals(i + 1L, plasticBottlesOf(store, "u" + i));
+			}
+		}
+	}
+
+	@Test
+	void corruptShardFallsBackToPreviousGeneration() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			store.loadSnapshot();
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				store.upsertUser(recycler("u" + i, 2));
+			}
+			store.flush().join();
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				store.upsertUser(recycler("u" + i, 4));
+			}
+		}
+		for (Path shard : shardSnapshots(directory)) {
+			corrupt(shard);
+		}
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			store.loadSnapshot();
+			for (int i = 0; i < StoreFixtures.USER_COUNT; i++) {
+				assertEquals(4L, plasticBottlesOf(store, "u" + i));
+			}
+		}
+	}
+
+	@Test
+	void missingShardIsRefused() throws IOException {
+		writeJsonDatabase(directory.resolve("appData.json"));
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			store.loadSnapshot();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : files.filter(file -> file.getFileName().toString().startsWith("appData.shard1.")).toList()) {
+				Files.delete(file);
+			}
+		}
+		try (ShardedAppDataStore store = open(directory, SHARD_COUNT)) {
+			assertThrows(IllegalStateException.class, store::loadSnapshot);
+		}
+	}
+
+	private static ShardedAppDataStore open(Path directory, int shardCount) {
+		return new ShardedAppDataStore(directory.resolve("appData.bin").toString(), shardCount, DurabilityPolicy.FSYNC_EVERY_COMMIT, 0);
+	}
+
+	private static List<Path> shardSnapshots(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().matches("appData\\.shard\\d+\\.bin")).toList();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.storage;
+
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Data and file helpers shared by the store tests. Every store reads its initial data from a JSON database,
+ * so the tests write one with a few recyclers before opening a store.
+ */
+final class StoreFixtures {
+	/**
+	 * Number of recyclers written to the JSON database.
+	 */
+	static final int USER_COUNT = 10;
+
+	private StoreFixtures() {
+	}
+
+	/**
+	 * Writes a JSON database with the recyclers u0 to u9, none of which has recycled anything.
+	 *
+	 * @param jsonFile The path to the JSON database
+	 * @throws IOException If the database can't be written
+	 */
+	static void writeJsonDatabase(Path jsonFile) throws IOException {
+		ArrayList<User> users = new ArrayList<>();
+		for (int i = 0; i < USER_COUNT; i++) {
+			users.add(recycler("u" + i, 0));
+		}
+		JsonAppDataStore.writeJson(jsonFile.toString(), new AppData(new ReverseVendingMachine("rvm"), users));
+	}
+
+	/**
+	 * Creates a recycler that has recycled the given number of plastic bottles.
+	 *
+	 * @param userId          Unique id of the recycler
+	 * @param plasticBottles Number of plastic bottles recycled
+	 * @return The recycler
+	 */
+	static RegisteredRecycler recycler(String userId, long plasticBottles) {
+		return new RegisteredRecycler("Recycler " + userId, userId, "recycler", plasticBottles, 0, 0, plasticBottles, BigDecimal.ZERO);
+	}
+
+	/**
+	 * Gets the number of plastic bottles the stored recycler has recycled.
+	 *
+	 * @param store  The store to look the recycler up from
+	 * @param userId Unique id of the recycler
+	 * @return Number of plastic bottles recycled, or -1 if the store has no such user
+	 */
+	static long plasticBottlesOf(AppDataStore store, String userId) {
+		return store.getUser(userId) instanceof RegisteredRecycler recycler ? recycler.getTotalPlasticBottlesRecycled() : -1;
+	}
+
+	/**
+	 * Copies the files of a directory as they are at the moment, like they would be found after a crash,
+	 * so a store can be reopened from them while the original store is still open.
+	 *
+	 * @param source The directory to copy
+	 * @param target The directory to copy to
+	 * @throws IOException If a file can't be copied
+	 */
+	static void copyFiles(Path source, Path target) throws IOException {
+		try (Stream<Path> files = Files.walk(source)) {
+			for (Path file : files.toList()) {
+				Path copy = target.resolve(source.relativize(file).toString());
+				if (Files.isDirectory(file)) {
+					Files.createDirectories(copy);
+				} else {
+					Files.copy(file, copy);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flips one bit in the middle of a file, which the checksums of the file must catch.
+	 *
+	 * @param file The file to corrupt
+	 * @throws IOException If the file can't be rewritten
+	 */
+	static void corrupt(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file, bytes);
+	}
+}
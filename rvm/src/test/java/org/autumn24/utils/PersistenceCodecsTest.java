@@ -0,0 +1,104 @@
+/*
+ * This file is part of RVMSystem.
+ *
+ * RVMSystem is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * RVMSystem is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with RVMSystem
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package org.autumn24.utils;
+
+import com.google.gson.Gson;
+import org.autumn24.PersistedFields;
+import org.autumn24.data.AppData;
+import org.autumn24.rvm.ReverseVendingMachine;
+import org.autumn24.storage.JournalRecord;
+import org.autumn24.users.Employee;
+import org.autumn24.users.GuestRecycler;
+import org.autumn24.users.RegisteredRecycler;
+import org.autumn24.users.User;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that the hand-written codecs keep every persisted field, so a field added to a persisted class
+ * without updating its codec fails here.
+ */
+class PersistenceCodecsTest {
+	private final Gson gson = PersistenceCodecs.gsonBuilder().create();
+
+	@Test
+	void fillChangesEveryPersistedField() {
+		for (Object object : List.of(recycler(), employee(), new GuestRecycler(), new ReverseVendingMachine("rvm"))) {
+			Map<String, Object> before = PersistedFields.of(object);
+			Map<String, Object> after = PersistedFields.of(PersistedFields.fill(object));
+			for (Map.Entry<String, Object> value : after.entrySet()) {
+				if (!value.getKey().endsWith(".userRole")) {
+					assertNotEquals(before.get(value.getKey()), value.getValue(), "Not filled: " + value.getKey());
+				}
+			}
+		}
+	}
+
+	@Test
+	void usersSurviveJsonRoundTrip() {
+		for (User user : List.of(recycler(), employee(), new GuestRecycler())) {
+			PersistedFields.fill(user);
+			User decoded = gson.fromJson(gson.toJson(user, User.class), User.class);
+			assertSame(user.getClass(), decoded.getClass());
+			assertEquals(PersistedFields.of(user), PersistedFields.of(decoded));
+		}
+	}
+
+	@Test
+	void machineSurvivesJsonRoundTrip() {
+		ReverseVendingMachine rvm = PersistedFields.fill(new ReverseVendingMachine("rvm"));
+		ReverseVendingMachine decoded = gson.fromJson(gson.toJson(rvm), ReverseVendingMachine.class);
+		assertEquals(PersistedFields.of(rvm), PersistedFields.of(decoded));
+	}
+
+	@Test
+	void appDataSurvivesJsonRoundTrip() {
+		ArrayList<User> users = new ArrayList<>(List.of(recycler(), employee(), new GuestRecycler()));
+		users.forEach(PersistedFields::fill);
+		AppData appData = new AppData(PersistedFields.fill(new ReverseVendingMachine("rvm")), users);
+		AppData decoded = gson.fromJson(gson.toJson(appData), AppData.class);
+		assertEquals(PersistedFields.of(appData.getRvm()), PersistedFields.of(decoded.getRvm()));
+		assertEquals(PersistedFields.of(appData.getUserData()), PersistedFields.of(decoded.getUserData()));
+	}
+
+	@Test
+	void journalRecordsSurviveJsonRoundTrip() {
+		User user = PersistedFields.fill(recycler());
+		JournalRecord record = gson.fromJson(gson.toJson(JournalRecord.ofUser(user)), JournalRecord.class);
+		assertEquals(PersistedFields.of(user), PersistedFields.of(record.user()));
+
+		JournalRecord checkpoint = gson.fromJson(gson.toJson(JournalRecord.ofCheckpoint(42)), JournalRecord.class);
+		assertEquals(JournalRecord.ofCheckpoint(42), checkpoint);
+	}
+
+	private static RegisteredRecycler recycler() {
+		return new RegisteredRecycler("Recycler", "r1", "recycler", 1, 2, 3, 6, new BigDecimal("0.75"), 1000);
+	}
+
+	private static Employee employee() {
+		return new Employee("Employee", "e1", "E-1", false);
+	}
+}